@@ -0,0 +1,161 @@
+/**
+
+ This class runs the stages of "Benchmark" under JMH, over the corpus in the folder "corpus":
+
+ lex     LexAnalyzer.getToken() over the whole input, in tokens/sec
+ parse   Parser.statement() building the parse tree, in nodes/sec
+ ast     AstParser.statement() building the compact parse tree "Ast", in nodes/sec
+ print   printParseTree() of a parse tree already built, in lines/sec
+ compile Compiler.compile() from input file to output file, in files/sec
+
+ One benchmark operation is one round of the stage over the whole corpus; the units processed
+ are counted by the auxiliary counters, which JMH reports as rates next to the rounds/sec. The
+ gc profiler is always on, so every result comes with its allocation rate, in MB/sec and in
+ bytes per round.
+
+ The compiler classes are in the default package, which a class of a named package cannot use,
+ so the stages are looked up by reflection once, when the corpus is loaded.
+
+ Usage, from the bench folder after mvn package:
+
+ java -jar target/benchmarks.jar [JMH options] [benchmark pattern ...]
+
+ for example "java -jar target/benchmarks.jar -f 1 -p corpus=corpus/mixed1.txt lex".
+
+ **/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CompilerBenchmark
+{
+	@Param("corpus")
+	public String corpus; // files or directories of .txt files, separated by commas
+
+	LongSupplier lex, parse, ast, print, compile;
+
+	@Setup(Level.Trial)
+	public void load() throws ReflectiveOperationException
+	{
+		Class<?> b = Class.forName("Benchmark");
+		b.getMethod("load", String[].class).invoke( null, (Object) corpus.split(",") );
+		lex = stage(b, "lex");
+		parse = stage(b, "parse");
+		ast = stage(b, "ast");
+		print = stage(b, "print");
+		compile = stage(b, "compile");
+	}
+
+	static LongSupplier stage(Class<?> b, String name) throws ReflectiveOperationException
+	{
+		return (LongSupplier) b.getMethod("stage", String.class).invoke(null, name);
+	}
+
+	// The units processed by each stage, reported by JMH per second.
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Tokens
+	{
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void clear()
+		{
+			tokens = 0;
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Nodes
+	{
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void clear()
+		{
+			nodes = 0;
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Lines
+	{
+		public long lines;
+
+		@Setup(Level.Iteration)
+		public void clear()
+		{
+			lines = 0;
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Files
+	{
+		public long files;
+
+		@Setup(Level.Iteration)
+		public void clear()
+		{
+			files = 0;
+		}
+	}
+
+	@Benchmark
+	public void lex(Tokens c)
+	{
+		c.tokens += lex.getAsLong();
+	}
+
+	@Benchmark
+	public void parse(Nodes c)
+	{
+		c.nodes += parse.getAsLong();
+	}
+
+	@Benchmark
+	public void ast(Nodes c)
+	{
+		c.nodes += ast.getAsLong();
+	}
+
+	@Benchmark
+	public void print(Lines c)
+	{
+		c.lines += print.getAsLong();
+	}
+
+	@Benchmark
+	public void compile(Files c)
+	{
+		c.files += compile.getAsLong();
+	}
+
+	public static void main(String argv[]) throws Exception
+	{
+		// argv: JMH options and benchmark name patterns, as for org.openjdk.jmh.Main
+
+		CommandLineOptions cl = new CommandLineOptions(argv);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cl).addProfiler(GCProfiler.class);
+		if ( cl.getIncludes().isEmpty() )
+			options.include( CompilerBenchmark.class.getName() );
+		new Runner( options.build() ).run();
+	}
+}
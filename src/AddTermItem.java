@@ -10,9 +10,19 @@ class AddTermItem extends TermItem
         term = t;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " +");
-        term.printParseTree(indent);
+        p.line(depth, "+");
+        term.printParseTree(depth, p);
+    }
+
+    byte emitInstructions(Compiler c, byte left)
+    {
+        Op o = TypeInference.operator(Op.add, left, term.type);
+        TypeInference.convert(c.code, o, left);
+        term.emitInstructions(c);
+        TypeInference.convert(c.code, o, term.type);
+        c.code.emit(o);
+        return TypeInference.arithmetic(left, term.type);
     }
 }
\ No newline at end of file
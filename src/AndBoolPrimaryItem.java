@@ -10,9 +10,15 @@ class AndBoolPrimaryItem extends BoolPrimaryItem
         boolPrimary = bp;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " &&");
-        boolPrimary.printParseTree(indent);
+        p.line(depth, "&&");
+        boolPrimary.printParseTree(depth, p);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        boolPrimary.emitInstructions(c);
+        c.code.emit(Op.and);
     }
 }
\ No newline at end of file
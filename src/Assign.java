@@ -9,13 +9,38 @@ class Assign
         expr = e;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
+        p.line(depth, "<assign>");
+        p.line(depth+1, id);
+        p.line(depth+1, "=");
+        expr.printParseTree(depth+1, p);
+    }
+
+    void fold()
+    {
+        expr.fold();
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        o.assign(id);
+        expr.scan(o);
+    }
 
-        IO.displayln(indent + indent.length() + " <assign>");
-        IO.displayln(indent1 + indent1.length() + " " + id);
-        IO.displayln(indent1 + indent1.length() + " =");
-        expr.printParseTree(indent1);
+    void hoist(LoopOptimizer o)
+    {
+        expr = o.hoist(expr);
+    }
+
+    void infer(TypeInference t)
+    {
+        t.assign(id, expr.infer(t));
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        expr.emitInstructions(c);
+        c.code.emit(Op.store, c.varNumber(id));
     }
 }
\ No newline at end of file
@@ -9,15 +9,48 @@ class Assignment extends Statement
         expr = e;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
-        String indent2 = indent + "  ";
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<assignment>");
+        p.line(depth+2, id);
+        p.line(depth+2, "=");
+        expr.printParseTree(depth+2, p);
+    }
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <assignment>");
-        IO.displayln(indent2 + indent2.length() + " " + id);
-        IO.displayln(indent2 + indent2.length() + " =");
-        expr.printParseTree(indent2);
+    Statement fold()
+    {
+        expr.fold();
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        o.assign(id);
+        expr.scan(o);
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        if ( o.isRead(id) || LoopOptimizer.mayFail(expr) )
+            return this;
+        o.remove(expr);
+        return Fold.nothing();
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        expr = o.hoist(expr);
+    }
+
+    void infer(TypeInference t)
+    {
+        t.assign(id, expr.infer(t));
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        expr.emitInstructions(c);
+        c.code.emit(Op.store, c.varNumber(id));
     }
 }
\ No newline at end of file
@@ -0,0 +1,586 @@
+/**
+
+ This class is a compact representation of the parse tree, an alternative to the object tree
+ built by "Parser" for large programs. It is built by "AstParser", one arena per compilation.
+
+ Each node is an index into parallel arrays: its kind (a NodeKind ordinal), its operator
+ (an Op ordinal, or NO_OP), its value (see NodeKind), its first child and its next sibling.
+ The item wrappers of the object tree are not represented; the operator joining an item to
+ the preceding one, such as Op.add for an AddTermItem, is the "op" of the item's own node.
+ Nodes are created after their children, so the arrays hold the tree in post-order.
+
+ Identifiers are interned by their span in the input buffer: each distinct name is turned
+ into a String once and nodes refer to it by its index in "names". emitInstructions() asks the
+ compiler for the variable number of a name on its first use only, and keeps it in "nameVar".
+
+ printParseTree() and emitInstructions() produce the same output as the functions of the
+ same name in an object tree that fold(), "LoopOptimizer" and "TypeInference" have not
+ changed. Expressions parsed by precedence climbing, as binary and unary nodes, are emitted
+ with the same instructions but cannot be displayed.
+
+ **/
+
+import java.util.*;
+
+class Ast
+{
+	static final int NONE = -1;  // no node
+	static final byte NO_OP = -1; // first item of a list, or a node that is not an item
+
+	static final NodeKind[] kinds = NodeKind.values();
+	static final Op[] ops = Op.values();
+
+	byte[] kind = new byte[256];
+	byte[] op = new byte[256];
+	int[] val = new int[256];
+	int[] child = new int[256]; // first child, or NONE
+	int[] next = new int[256];  // next sibling, or NONE
+	int size;                   // number of nodes
+
+	String[] names = new String[64];
+	int nameCount;
+	int[] nameVar = new int[64]; // variable number + 1 of each name, 0 before it is emitted
+	private int[] nameTable = new int[128]; // open-addressing hash table of name index + 1, 0 if empty
+
+	int node(NodeKind k, int o, int v, int firstChild)
+
+	// Appends a node and returns its index.
+
+	{
+		if ( size == kind.length )
+		{
+			kind = Arrays.copyOf(kind, size*2);
+			op = Arrays.copyOf(op, size*2);
+			val = Arrays.copyOf(val, size*2);
+			child = Arrays.copyOf(child, size*2);
+			next = Arrays.copyOf(next, size*2);
+		}
+		kind[size] = (byte) k.ordinal();
+		op[size] = (byte) o;
+		val[size] = v;
+		child[size] = firstChild;
+		next[size] = NONE;
+		return size++;
+	}
+
+	int chain(int n, int sibling)
+
+	// Makes "sibling" the next sibling of "n" and returns "n".
+	// Either may be NONE after a syntax error, in which case nothing is linked.
+
+	{
+		if ( n != NONE && sibling != NONE )
+			next[n] = sibling;
+		return n;
+	}
+
+	int append(int last, int n)
+
+	// Appends "n" to the list of siblings ending at "last" and returns the new last sibling.
+
+	{
+		if ( n == NONE )
+			return last;
+		if ( last != NONE )
+			next[last] = n;
+		return n;
+	}
+
+	int name(byte[] buf, int start, int len)
+
+	// Returns the index in "names" of the identifier spanning buf[start..start+len-1], adding it if new.
+
+	{
+		int h = 0;
+		for ( int i = start; i < start+len; i++ )
+			h = 31*h + buf[i];
+
+		int mask = nameTable.length - 1;
+		for ( int slot = h & mask; ; slot = (slot+1) & mask )
+		{
+			int n = nameTable[slot] - 1;
+			if ( n < 0 )
+				break;
+			if ( sameName(names[n], buf, start, len) )
+				return n;
+		}
+
+		if ( nameCount == names.length )
+		{
+			names = Arrays.copyOf(names, nameCount*2);
+			nameVar = Arrays.copyOf(nameVar, nameCount*2);
+		}
+		names[nameCount] = new String(buf, start, len, java.nio.charset.StandardCharsets.ISO_8859_1);
+		if ( 2*(nameCount+1) > nameTable.length )
+			rehash();
+		insert(nameCount);
+		return nameCount++;
+	}
+
+	private static boolean sameName(String s, byte[] buf, int start, int len)
+	{
+		if ( s.length() != len )
+			return false;
+		for ( int i = 0; i < len; i++ )
+			if ( s.charAt(i) != (buf[start+i] & 0xFF) )
+				return false;
+		return true;
+	}
+
+	private void insert(int n)
+	{
+		String s = names[n];
+		int h = 0;
+		for ( int i = 0; i < s.length(); i++ )
+			h = 31*h + (byte) s.charAt(i);
+
+		int mask = nameTable.length - 1;
+		int slot = h & mask;
+		while ( nameTable[slot] != 0 )
+			slot = (slot+1) & mask;
+		nameTable[slot] = n+1;
+	}
+
+	private void rehash()
+	{
+		nameTable = new int[nameTable.length*2];
+		for ( int n = 0; n < nameCount; n++ )
+			insert(n);
+	}
+
+	static String symbol(int o)
+
+	// Returns the source text of the binary operator with Op ordinal "o".
+
+	{
+		switch ( ops[o] )
+		{
+			case or:  return "||";
+			case and: return "&&";
+			case add: return "+";
+			case sub: return "-";
+			case mul: return "*";
+			case div: return "/";
+			default:  return RelPrimary.relop_st[o - Op.lt.ordinal()];
+		}
+	}
+
+	void printParseTree(int n, int depth, TreePrinter p)
+
+	// Displays the subtree rooted at node "n" exactly as the printParseTree() of the object tree does.
+
+	{
+		int c = child[n];
+		NodeKind k = kinds[kind[n]];
+
+		if ( k.isStatement() )
+			p.line(depth, "<statement>");
+
+		switch ( k )
+		{
+			case assignment:
+				p.line(depth+1, "<assignment>");
+				p.line(depth+2, names[val[n]]);
+				p.line(depth+2, "=");
+				printParseTree(c, depth+2, p);
+				break;
+
+			case if1:
+				p.line(depth+1, "<cond>");
+				p.line(depth+2, "if");
+				printParseTree(c, depth+2, p);
+				printParseTree(next[c], depth+2, p);
+				break;
+
+			case if2:
+				p.line(depth+1, "<cond>");
+				p.line(depth+2, "if");
+				printParseTree(c, depth+2, p);
+				printParseTree(next[c], depth+2, p);
+				p.line(depth+2, "else");
+				printParseTree(next[next[c]], depth+2, p);
+				break;
+
+			case switch_:
+				p.line(depth+1, "<switch>");
+				p.line(depth+2, "switch");
+				printParseTree(c, depth+2, p);
+				p.line(depth+2, "<case list>");
+				for ( int cs = next[c]; cs != NONE; cs = next[cs] )
+					printParseTree(cs, depth+3, p);
+				break;
+
+			case labeledCase:
+				p.start(depth, "case :");
+				p.end(val[n]);
+				printSList(c, depth+1, p);
+				break;
+
+			case defaultCase:
+				p.line(depth, "default");
+				printSList(c, depth+1, p);
+				break;
+
+			case whileLoop:
+				p.line(depth+1, "<while loop>");
+				p.line(depth+2, "while");
+				printParseTree(c, depth+2, p);
+				printParseTree(next[c], depth+2, p);
+				break;
+
+			case doLoop:
+				p.line(depth+1, "<do loop>");
+				p.line(depth+2, "do");
+				printParseTree(c, depth+2, p);
+				p.line(depth+2, "while");
+				printParseTree(next[c], depth+2, p);
+				break;
+
+			case forLoop:
+				p.line(depth+1, "<for loop>");
+				p.line(depth+2, "for");
+				for ( ; c != NONE; c = next[c] )
+					printParseTree(c, depth+2, p);
+				break;
+
+			case assign:
+				p.line(depth, "<assign>");
+				p.line(depth+1, names[val[n]]);
+				p.line(depth+1, "=");
+				printParseTree(c, depth+1, p);
+				break;
+
+			case print:
+				p.line(depth+1, "<print>");
+				printParseTree(c, depth+2, p);
+				break;
+
+			case block:
+				p.line(depth+1, "<block>");
+				printSList(c, depth+2, p);
+				break;
+
+			case expr:     p.line(depth, "<Expr>");     printItems(c, depth+1, p); break;
+			case boolTerm: p.line(depth, "<boolTerm>"); printItems(c, depth+1, p); break;
+			case e:        p.line(depth, "<E>");        printItems(c, depth+1, p); break;
+			case term:     p.line(depth, "<term>");     printItems(c, depth+1, p); break;
+
+			case singleE:
+				p.line(depth, "<boolPrimary>");
+				printParseTree(c, depth+1, p);
+				break;
+
+			case relPrimary:
+				p.line(depth, "<boolPrimary>");
+				printParseTree(c, depth+1, p);
+				p.line(depth+1, symbol(val[n]));
+				printParseTree(next[c], depth+1, p);
+				break;
+
+			case id:     p.start(depth, "<primary>"); p.end(names[val[n]]); break;
+			case int_:   p.start(depth, "<primary>"); p.end(val[n]); break;
+			case float_: p.start(depth, "<primary>"); p.end(Float.intBitsToFloat(val[n])); break;
+			case bool:   p.start(depth, "<primary>"); p.end(val[n] != 0); break;
+
+			case parenthesized:
+				p.start(depth, "<primary>");
+				p.end();
+				printParseTree(c, depth+1, p);
+				break;
+
+			case negPrimary:
+			case invPrimary:
+				p.start(depth, "<primary>");
+				p.end();
+				p.line(depth, k == NodeKind.negPrimary ? "-" : "!");
+				printParseTree(c, depth+1, p);
+				break;
+		}
+	}
+
+	private void printSList(int c, int depth, TreePrinter p)
+	{
+		p.line(depth, "<s list>");
+		for ( ; c != NONE; c = next[c] )
+			printParseTree(c, depth+1, p);
+	}
+
+	private void printItems(int c, int depth, TreePrinter p)
+	{
+		for ( ; c != NONE; c = next[c] )
+		{
+			if ( op[c] != NO_OP )
+				p.line(depth, symbol(op[c]));
+			printParseTree(c, depth, p);
+		}
+	}
+
+	int var(int name, Compiler comp)
+
+	// Returns the variable number of name "name" in "comp".
+
+	{
+		int v = nameVar[name] - 1;
+		if ( v < 0 )
+		{
+			v = comp.varNumber(names[name]);
+			nameVar[name] = v + 1;
+		}
+		return v;
+	}
+
+	void emitInstructions(int n, Compiler comp)
+
+	// Appends the instructions of the subtree rooted at node "n" to "comp.code",
+	// exactly as the emitInstructions() of the object tree does.
+
+	{
+		Code code = comp.code;
+		int c = child[n];
+
+		switch ( kinds[kind[n]] )
+		{
+			case assignment:
+			case assign:
+				emitInstructions(c, comp);
+				code.emit(Op.store, var(val[n], comp));
+				break;
+
+			case if1:
+			{
+				int end = code.newLabel();
+
+				emitBranch(c, false, end, comp);
+				emitInstructions(next[c], comp);
+				code.placeLabel(end);
+				break;
+			}
+
+			case if2:
+			{
+				int elseLabel = code.newLabel();
+				int end = code.newLabel();
+
+				emitBranch(c, false, elseLabel, comp);
+				emitInstructions(next[c], comp);
+				code.emit(Op.goto_, end);
+				code.placeLabel(elseLabel);
+				emitInstructions(next[next[c]], comp);
+				code.placeLabel(end);
+				break;
+			}
+
+			case switch_:
+				emitSwitch(c, comp);
+				break;
+
+			case whileLoop:
+			{
+				int top = code.newLabel();
+				int end = code.newLabel();
+
+				code.placeLabel(top);
+				emitBranch(c, false, end, comp);
+				emitInstructions(next[c], comp);
+				code.emit(Op.goto_, top);
+				code.placeLabel(end);
+				break;
+			}
+
+			case doLoop:
+			{
+				int top = code.newLabel();
+
+				code.placeLabel(top);
+				emitInstructions(c, comp);
+				emitBranch(next[c], true, top, comp);
+				break;
+			}
+
+			case forLoop:
+			{
+				int top = code.newLabel();
+				int end = code.newLabel();
+				int cond = next[c];
+				int step = next[cond];
+
+				emitInstructions(c, comp);
+				code.placeLabel(top);
+				emitBranch(cond, false, end, comp);
+				emitInstructions(next[step], comp);
+				emitInstructions(step, comp);
+				code.emit(Op.goto_, top);
+				code.placeLabel(end);
+				break;
+			}
+
+			case print:
+				emitInstructions(c, comp);
+				code.emit(Op.print);
+				break;
+
+			case labeledCase:
+			case defaultCase:
+			case block:
+				for ( ; c != NONE; c = next[c] )
+					emitInstructions(c, comp);
+				break;
+
+			case expr:
+			case boolTerm:
+			case e:
+			case term:
+				for ( ; c != NONE; c = next[c] )
+				{
+					emitInstructions(c, comp);
+					if ( op[c] != NO_OP )
+						code.emit(ops[op[c]]);
+				}
+				break;
+
+			case singleE:
+			case parenthesized:
+				emitInstructions(c, comp);
+				break;
+
+			case relPrimary:
+				emitInstructions(c, comp);
+				emitInstructions(next[c], comp);
+				code.emit(ops[val[n]]);
+				break;
+
+			case id:     code.emit(Op.load, var(val[n], comp)); break;
+			case int_:   code.emit(Op.intpush, val[n]); break;
+			case float_: code.emit(Op.floatpush, val[n]); break;
+			case bool:   code.emit(Op.boolpush, val[n]); break;
+
+			case negPrimary:
+				emitInstructions(c, comp);
+				code.emit(Op.neg);
+				break;
+
+			case invPrimary:
+				emitInstructions(c, comp);
+				code.emit(Op.inv);
+				break;
+
+			case binary:
+				emitInstructions(c, comp);
+				emitInstructions(next[c], comp);
+				code.emit(ops[val[n]]);
+				break;
+
+			case unary:
+				emitInstructions(c, comp);
+				code.emit(ops[val[n]]);
+				break;
+		}
+	}
+
+	void emitBranch(int n, boolean onTrue, int target, Compiler comp)
+
+	// Emits the condition rooted at "n" as jumps, like Expr.emitBranch(): to "target" if its value
+	// is "onTrue", falling through otherwise. || and && stop at the first operand that decides.
+
+	{
+		Code code = comp.code;
+		int c = child[n];
+		NodeKind k = kinds[kind[n]];
+		boolean or = k == NodeKind.expr || k == NodeKind.binary && val[n] == Op.or.ordinal();
+		boolean and = k == NodeKind.boolTerm || k == NodeKind.binary && val[n] == Op.and.ordinal();
+
+		if ( (or || and) && next[c] != NONE )
+		{
+			// the operands of || jump on true and those of && on false; if that is not the
+			// jump wanted, all but the last jump past the last one instead
+			if ( onTrue == or )
+			{
+				for ( ; c != NONE; c = next[c] )
+					emitBranch(c, onTrue, target, comp);
+				return;
+			}
+			int decided = code.newLabel();
+			for ( ; next[c] != NONE; c = next[c] )
+				emitBranch(c, or, decided, comp);
+			emitBranch(c, onTrue, target, comp);
+			code.placeLabel(decided);
+			return;
+		}
+
+		switch ( k )
+		{
+			case expr: case boolTerm: case singleE: case e: case term: case parenthesized:
+				if ( next[c] == NONE ) // a single operand, whose value is that of the node
+				{
+					emitBranch(c, onTrue, target, comp);
+					return;
+				}
+				break;
+
+			case invPrimary:
+				emitBranch(c, ! onTrue, target, comp);
+				return;
+
+			case unary:
+				if ( val[n] == Op.inv.ordinal() )
+				{
+					emitBranch(c, ! onTrue, target, comp);
+					return;
+				}
+				break;
+		}
+		emitInstructions(n, comp);
+		code.emit(onTrue ? Op.iftrue : Op.iffalse, target);
+	}
+
+	private void emitSwitch(int expr, Compiler comp)
+
+	// Same scheme as CaseList.emitInstructions(): the value of "expr" is kept in a temporary
+	// variable and dispatched on by SwitchLowering.
+
+	{
+		Code code = comp.code;
+
+		emitInstructions(expr, comp);
+		int temp = comp.newTemp();
+		code.emit(Op.store, temp);
+
+		int end = code.newLabel();
+		int cases = 0, labeled = 0;
+		for ( int cs = next[expr]; cs != NONE; cs = next[cs] )
+		{
+			cases++;
+			if ( kinds[kind[cs]] == NodeKind.labeledCase )
+				labeled++;
+		}
+		int[] entry = new int[cases];
+		int[] labels = new int[labeled];
+		int[] labelEntry = new int[labeled];
+		int defaultEntry = end;
+
+		int i = 0;
+		labeled = 0;
+		for ( int cs = next[expr]; cs != NONE; cs = next[cs] )
+		{
+			entry[i] = code.newLabel();
+			if ( kinds[kind[cs]] == NodeKind.labeledCase )
+			{
+				labels[labeled] = val[cs];
+				labelEntry[labeled++] = entry[i];
+			}
+			else
+				defaultEntry = entry[i];
+			i++;
+		}
+		SwitchLowering.emitDispatch(code, temp, labels, labelEntry, defaultEntry);
+
+		i = 0;
+		for ( int cs = next[expr]; cs != NONE; cs = next[cs] )
+		{
+			code.placeLabel(entry[i++]);
+			emitInstructions(cs, comp);
+			code.emit(Op.goto_, end);
+		}
+		code.placeLabel(end);
+	}
+}
@@ -0,0 +1,664 @@
+/**
+
+ This class is a top-down, recursive-descent parser that builds the compact parse tree "Ast"
+ instead of the object tree. It accepts the grammar given in "Parser.java" and takes its
+ tokens from, and reports its syntax errors through, the Parser object "p", so the error
+ messages are the same as those of Parser.
+
+ Each parse function returns the index of the node it built, or Ast.NONE after a syntax error.
+
+ If "binaryExpr" is set, expressions are parsed by precedence climbing into binary and unary
+ nodes instead of the <expr>, <boolTerm>, <boolPrimary>, <E>, <term> and <primary> lists:
+ a bare operand is a single leaf node, a parenthesized expression has no node of its own, and
+ a chain of operators of one precedence, like a+b+...+z, is parsed by a loop rather than by
+ recursion. The operators have the precedence and associativity of the grammar; as there,
+ a <rel op> cannot follow an operand that already contains a <rel op>, "&&" or "||" at the
+ same level. Such a tree can be compiled but not displayed, so the parse-tree mode of
+ Parser keeps the list form.
+
+ **/
+
+import java.util.*;
+
+class AstParser
+{
+	static final int OR = 1, AND = 2, REL = 3, ADD = 4, MUL = 5, OPERAND = 6; // precedence levels
+
+	final Parser p;
+	final Ast ast;
+	final boolean binaryExpr;
+
+	private int[] prefix = new int[16]; // pending "-" and "!" prefixes of the operands being parsed, as Op ordinals
+	private int prefixTop;
+
+	AstParser(Parser parser, Ast a)
+	{
+		this(parser, a, false);
+	}
+
+	AstParser(Parser parser, Ast a, boolean binary)
+	{
+		p = parser;
+		ast = a;
+		binaryExpr = binary;
+	}
+
+	int name()
+
+	// Returns the name index of the extracted identifier.
+
+	{
+		return ast.name(p.inBuf, p.tStart, p.tLen);
+	}
+
+	int statement()
+
+	// <statement> --> <assignment> | <cond> | <switch> | <while loop> | <do lpop> | <for loop> | <print> | <block>
+
+	{
+		switch ( p.state )
+		{
+			case Id:             return assignment();
+			case Keyword_if:     return cond();
+			case Keyword_switch: return switchStatement();
+			case Keyword_while:  return whileLoop();
+			case Keyword_do:     return doLoop();
+			case Keyword_for:    return forLoop();
+			case Keyword_print:  return print();
+			case LBrace:         return block();
+			default:
+				p.errorMsg(6);
+				return Ast.NONE;
+		}
+	}
+
+	int assignment()
+
+	// <assignment> --> <id> "=" <expr> ";"
+
+	{
+		int id = name();
+		p.getToken();
+
+		if ( p.state == State.Assign )
+		{
+			p.getToken();
+			int expr = expr();
+			if ( p.state == State.Semicolon )
+			{
+				p.getToken();
+				return ast.node(NodeKind.assignment, Ast.NO_OP, id, expr);
+			}
+			else
+				p.errorMsg(4);
+		}
+		else
+			p.errorMsg(5);
+		return Ast.NONE;
+	}
+
+	int cond()
+
+	// <cond> --> "if" "(" <expr> ")" <statement> [ "else" <statement> ]
+
+	{
+		p.getToken(); // flush "if"
+		if ( p.state == State.LParen )
+		{
+			p.getToken();
+			int expr = expr();
+			if ( p.state == State.RParen )
+			{
+				p.getToken();
+				int statement1 = statement();
+				if ( p.state == State.Keyword_else )
+				{
+					p.getToken();
+					int statement2 = statement();
+					return ast.node(NodeKind.if2, Ast.NO_OP, 0, ast.chain(expr, ast.chain(statement1, statement2)));
+				}
+				else
+					return ast.node(NodeKind.if1, Ast.NO_OP, 0, ast.chain(expr, statement1));
+			}
+			else
+				p.errorMsg(7);
+		}
+		else
+			p.errorMsg(8);
+		return Ast.NONE;
+	}
+
+	int switchStatement()
+
+	// <switch> --> "switch" "(" <expr> ")" "{" <case list> "}"
+
+	{
+		p.getToken(); // flush "switch"
+		if ( p.state == State.LParen )
+		{
+			p.getToken();
+			int expr = expr();
+			if ( p.state == State.RParen )
+			{
+				p.getToken();
+				if ( p.state == State.LBrace )
+				{
+					p.getToken();
+					int caseList = caseList();
+					if ( p.state == State.RBrace )
+					{
+						p.getToken();
+						return ast.node(NodeKind.switch_, Ast.NO_OP, 0, ast.chain(expr, caseList));
+					}
+					else
+						p.errorMsg(3);
+				}
+				else
+					p.errorMsg(11);
+			}
+			else
+				p.errorMsg(7);
+		}
+		else
+			p.errorMsg(8);
+		return Ast.NONE;
+	}
+
+	int caseList()
+
+	// <case list> --> { <case> }+
+	// Returns the first case; the cases are linked as siblings.
+
+	{
+		int first = Ast.NONE;
+		int last = Ast.NONE;
+		HashSet<Integer> labels = new HashSet<Integer>(); // labels seen so far, to reject duplicates
+
+		while ( p.state == State.Keyword_case || p.state == State.Keyword_default )
+		{
+			last = ast.append(last, case_(labels));
+			if ( first == Ast.NONE )
+				first = last;
+		}
+		return first;
+	}
+
+	int case_(HashSet<Integer> labels)
+
+	// <case> --> "case" <label> ":" <s list> | "default" ":" <s list>
+	// "labels" holds the labels of the preceding cases of the switch; a repeated label is an error.
+
+	{
+		if ( p.state == State.Keyword_case )
+		{
+			p.getToken();
+			if ( p.state == State.Int && ! labels.add(p.tokenInt()) )
+				p.errorMsg(13);
+			int label = label();
+			if ( p.state == State.Colon )
+			{
+				p.getToken();
+				int sList = sList();
+				return ast.node(NodeKind.labeledCase, Ast.NO_OP, label, sList);
+			}
+			else
+				p.errorMsg(9);
+		}
+		else // state == State.Keyword_default
+		{
+			p.getToken();
+			if ( p.state == State.Colon )
+			{
+				p.getToken();
+				int sList = sList();
+				return ast.node(NodeKind.defaultCase, Ast.NO_OP, 0, sList);
+			}
+			else
+				p.errorMsg(9);
+		}
+		return Ast.NONE;
+	}
+
+	int label()
+
+	// <label> --> <int>
+	// Returns the value of the label, not a node.
+
+	{
+		if ( p.state == State.Int )
+		{
+			int label = p.tokenInt();
+			p.getToken();
+			return label;
+		}
+		else
+			p.errorMsg(10);
+		return 0;
+	}
+
+	int whileLoop()
+
+	// <while loop> --> "while" "(" <expr> ")" <statement>
+
+	{
+		p.getToken(); // flush "while"
+		if ( p.state == State.LParen )
+		{
+			p.getToken();
+			int expr = expr();
+			if ( p.state == State.RParen )
+			{
+				p.getToken();
+				int statement = statement();
+				return ast.node(NodeKind.whileLoop, Ast.NO_OP, 0, ast.chain(expr, statement));
+			}
+			else
+				p.errorMsg(7);
+		}
+		else
+			p.errorMsg(8);
+		return Ast.NONE;
+	}
+
+	int doLoop()
+
+	// <do loop> --> "do" <statement> "while" "(" <expr> ")" ";"
+
+	{
+		p.getToken(); // flush "do"
+		int statement = statement();
+		if ( p.state == State.Keyword_while )
+		{
+			p.getToken();
+			if ( p.state == State.LParen )
+			{
+				p.getToken();
+				int expr = expr();
+				if ( p.state == State.RParen )
+				{
+					p.getToken();
+					if ( p.state == State.Semicolon )
+					{
+						p.getToken();
+						return ast.node(NodeKind.doLoop, Ast.NO_OP, 0, ast.chain(statement, expr));
+					}
+					else
+						p.errorMsg(4);
+				}
+				else
+					p.errorMsg(7);
+			}
+			else
+				p.errorMsg(8);
+		}
+		else
+			p.errorMsg(12);
+		return Ast.NONE;
+	}
+
+	int forLoop()
+
+	// <for loop> --> "for" "(" <assign> ";" <expr> ";" <assign> ")" <statement>
+
+	{
+		p.getToken(); // flush "for"
+		if ( p.state == State.LParen )
+		{
+			p.getToken();
+			int assign1 = assign();
+			if ( p.state == State.Semicolon )
+			{
+				p.getToken();
+				int expr = expr();
+				if ( p.state == State.Semicolon )
+				{
+					p.getToken();
+					int assign2 = assign();
+					if ( p.state == State.RParen )
+					{
+						p.getToken();
+						int statement = statement();
+						int children = ast.chain(assign1, ast.chain(expr, ast.chain(assign2, statement)));
+						return ast.node(NodeKind.forLoop, Ast.NO_OP, 0, children);
+					}
+					else
+						p.errorMsg(7);
+				}
+				else
+					p.errorMsg(4);
+			}
+			else
+				p.errorMsg(4);
+		}
+		else
+			p.errorMsg(8);
+		return Ast.NONE;
+	}
+
+	int assign()
+
+	// <assign> --> <id> "=" <expr>
+
+	{
+		int id = name();
+		p.getToken();
+
+		if ( p.state == State.Assign )
+		{
+			p.getToken();
+			int expr = expr();
+			return ast.node(NodeKind.assign, Ast.NO_OP, id, expr);
+		}
+		else
+			p.errorMsg(5);
+		return Ast.NONE;
+	}
+
+	int print()
+
+	// <print> --> "print" <expr> ";"
+
+	{
+		p.getToken(); // flush "print"
+		int expr = expr();
+		if ( p.state == State.Semicolon )
+		{
+			p.getToken();
+			return ast.node(NodeKind.print, Ast.NO_OP, 0, expr);
+		}
+		else
+			p.errorMsg(4);
+		return Ast.NONE;
+	}
+
+	int block()
+
+	// <block> --> "{" <s list> "}"
+
+	{
+		p.getToken(); // flush "{"
+		int sList = sList();
+		if ( p.state == State.RBrace )
+		{
+			p.getToken();
+			return ast.node(NodeKind.block, Ast.NO_OP, 0, sList);
+		}
+		else
+			p.errorMsg(3);
+		return Ast.NONE;
+	}
+
+	int sList()
+
+	// <s list> --> { <statement> }
+	// Returns the first statement, or NONE if there is none; the statements are linked as siblings.
+
+	{
+		int first = Ast.NONE;
+		int last = Ast.NONE;
+
+		while ( p.beginsStatement() )
+		{
+			last = ast.append(last, statement());
+			if ( first == Ast.NONE )
+				first = last;
+		}
+		return first;
+	}
+
+	int expr()
+
+	// <expr> --> <boolTerm> { "||" <boolTerm> }
+
+	{
+		if ( binaryExpr )
+			return binary(OR);
+
+		int first = boolTerm();
+		int last = first;
+		while ( p.state == State.Or )
+		{
+			p.getToken();
+			last = item(last, boolTerm(), Op.or);
+			if ( first == Ast.NONE )
+				first = last;
+		}
+		return ast.node(NodeKind.expr, Ast.NO_OP, 0, first);
+	}
+
+	int boolTerm()
+
+	// <boolTerm> --> <boolPrimary> { "&&" <boolPrimary> }
+
+	{
+		int first = boolPrimary();
+		int last = first;
+		while ( p.state == State.And )
+		{
+			p.getToken();
+			last = item(last, boolPrimary(), Op.and);
+			if ( first == Ast.NONE )
+				first = last;
+		}
+		return ast.node(NodeKind.boolTerm, Ast.NO_OP, 0, first);
+	}
+
+	int boolPrimary()
+
+	// <boolPrimary> --> <E> [ <relop> <E> ]
+	// <rel op> --> "<" | "<=" | ">" | ">=" | "==" | "!="
+
+	{
+		int e1 = E();
+
+		if ( p.state.isRelationalOp() ) // state = Lt, Le, Gt, Ge, Eq, or Neq
+		{
+			Op relop = RelPrimary.relop_instruction[p.state.ordinal()-7];
+			p.getToken();
+			int e2 = E();
+			return ast.node(NodeKind.relPrimary, Ast.NO_OP, relop.ordinal(), ast.chain(e1, e2));
+		}
+		else
+			return ast.node(NodeKind.singleE, Ast.NO_OP, 0, e1);
+	}
+
+	int E()
+
+	// <E> --> <term> { (+|-) <term> }
+
+	{
+		int first = term();
+		int last = first;
+		while ( p.state == State.Add | p.state == State.Sub )
+		{
+			Op op = p.state == State.Add ? Op.add : Op.sub;
+			p.getToken();
+			last = item(last, term(), op);
+			if ( first == Ast.NONE )
+				first = last;
+		}
+		return ast.node(NodeKind.e, Ast.NO_OP, 0, first);
+	}
+
+	int term()
+
+	// <term> --> <primary> { (*|/) <primary> }
+
+	{
+		int first = primary();
+		int last = first;
+		while ( p.state == State.Mul | p.state == State.Div )
+		{
+			Op op = p.state == State.Mul ? Op.mul : Op.div;
+			p.getToken();
+			last = item(last, primary(), op);
+			if ( first == Ast.NONE )
+				first = last;
+		}
+		return ast.node(NodeKind.term, Ast.NO_OP, 0, first);
+	}
+
+	int item(int last, int n, Op op)
+
+	// Appends the item "n", joined to its predecessor by "op", to the list ending at "last".
+
+	{
+		if ( n != Ast.NONE )
+			ast.op[n] = (byte) op.ordinal();
+		return ast.append(last, n);
+	}
+
+	static int precedence(State s)
+
+	// Returns the precedence of the binary operator "s", or 0 if "s" is not a binary operator.
+
+	{
+		switch ( s )
+		{
+			case Or:  return OR;
+			case And: return AND;
+			case Add: case Sub: return ADD;
+			case Mul: case Div: return MUL;
+			default:  return s.isRelationalOp() ? REL : 0;
+		}
+	}
+
+	static Op binaryOp(State s)
+	{
+		switch ( s )
+		{
+			case Or:  return Op.or;
+			case And: return Op.and;
+			case Add: return Op.add;
+			case Sub: return Op.sub;
+			case Mul: return Op.mul;
+			case Div: return Op.div;
+			default:  return RelPrimary.relop_instruction[s.ordinal()-7];
+		}
+	}
+
+	int binary(int minPrec)
+
+	// Parses operands joined by binary operators of precedence "minPrec" or higher, left to right.
+	// The recursion only goes up one precedence level per call, so its depth is bounded by the number of levels.
+
+	{
+		int lhs = unary();
+		int lhsPrec = OPERAND; // precedence of the operator at the root of "lhs"
+		for (;;)
+		{
+			int prec = precedence(p.state);
+			if ( prec < minPrec || prec == REL && lhsPrec <= REL )
+				return lhs;
+
+			Op op = binaryOp(p.state);
+			p.getToken();
+			int rhs = binary(prec+1);
+			lhs = ast.node(NodeKind.binary, Ast.NO_OP, op.ordinal(), ast.chain(lhs, rhs));
+			lhsPrec = prec;
+		}
+	}
+
+	int unary()
+
+	// Parses an operand preceded by any number of "-" and "!".
+	// The prefixes are collected in a loop and applied innermost first.
+
+	{
+		int base = prefixTop;
+		while ( p.state == State.Sub || p.state == State.Inv )
+		{
+			if ( prefixTop == prefix.length )
+				prefix = Arrays.copyOf(prefix, prefixTop*2);
+			prefix[prefixTop++] = p.state == State.Sub ? Op.neg.ordinal() : Op.inv.ordinal();
+			p.getToken();
+		}
+
+		int n = operand();
+		while ( prefixTop > base )
+			n = ast.node(NodeKind.unary, Ast.NO_OP, prefix[--prefixTop], n);
+		return n;
+	}
+
+	int primary()
+
+	// <primary> --> <id> | <int> | <float> | <floatE> | <boolLiteral> | "(" <expr> ")" | - <primary> | ! <primary>
+	// <boolLiteral> --> "false" | "true"
+
+	{
+		switch ( p.state )
+		{
+			case Sub:
+
+				p.getToken();
+				return ast.node(NodeKind.negPrimary, Ast.NO_OP, 0, primary());
+
+			case Inv:
+
+				p.getToken();
+				return ast.node(NodeKind.invPrimary, Ast.NO_OP, 0, primary());
+
+			default:
+
+				return operand();
+		}
+	}
+
+	int operand()
+
+	// Parses a <primary> that is not prefixed by "-" or "!".
+
+	{
+		switch ( p.state )
+		{
+			case Id:
+
+				int id = ast.node(NodeKind.id, Ast.NO_OP, name(), Ast.NONE);
+				p.getToken();
+				return id;
+
+			case Int:
+
+				int intElem = ast.node(NodeKind.int_, Ast.NO_OP, p.tokenInt(), Ast.NONE);
+				p.getToken();
+				return intElem;
+
+			case Float: case FloatE:
+
+				int bits = Float.floatToIntBits(Float.parseFloat(p.token()));
+				int floatElem = ast.node(NodeKind.float_, Ast.NO_OP, bits, Ast.NONE);
+				p.getToken();
+				return floatElem;
+
+			case Keyword_false:
+
+				p.getToken();
+				return ast.node(NodeKind.bool, Ast.NO_OP, 0, Ast.NONE);
+
+			case Keyword_true:
+
+				p.getToken();
+				return ast.node(NodeKind.bool, Ast.NO_OP, 1, Ast.NONE);
+
+			case LParen:
+
+				p.getToken();
+				int expr = expr();
+				if ( p.state == State.RParen )
+				{
+					p.getToken();
+					return binaryExpr ? expr : ast.node(NodeKind.parenthesized, Ast.NO_OP, 0, expr);
+				}
+				else
+				{
+					p.errorMsg(1);
+					return Ast.NONE;
+				}
+
+			default:
+
+				p.errorMsg(2);
+				return Ast.NONE;
+		}
+	}
+}
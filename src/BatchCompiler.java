@@ -0,0 +1,226 @@
+/**
+
+ This class compiles many source files in one JVM, using a fork/join pool across all cores.
+ Each input file is compiled by its own Compiler object, so the compilations share nothing
+ but the immutable DFA table and keyword map of "LexAnalyzer".
+
+ Usage:
+
+ java BatchCompiler [-compact] [-cache cacheDir] outputDir input ...
+
+ Each input is either a source file or a directory; for a directory, every regular file
+ directly inside it is compiled. The output for "name.txt" is written to "outputDir/name.out";
+ if two inputs have the same output file, like "d1/p.txt" and "d2/p.txt", the batch is
+ rejected before any file is compiled. A file whose compilation throws, like a nest too deep
+ for the stack of the recursive parser, is reported as failed and the others go on.
+ When all files are done, an aggregate summary with timing is displayed on standard output.
+ With -compact, each parse tree is built as an "Ast" instead of the object tree, and translated
+ without the passes on the object tree, as by Compiler with -compact.
+ With -cache, the outputs are taken from a "CompilationCache" in "cacheDir" shared by all files,
+ so a file compiled before, or with the same content as another, is not compiled again.
+
+ **/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchCompiler
+{
+	static boolean compactTree = false;
+	static CompilationCache cache; // shared by all files, or null
+
+	static class Result
+	{
+		File inFile;
+		boolean ok;    // true if the compilation found no errors
+		long nanos;    // time spent on this file
+		String failure; // message of an unexpected exception, or null
+
+		Result(File f)
+		{
+			inFile = f;
+		}
+	}
+
+	static List<File> collectInputs(String[] names, int from)
+
+	// Returns the source files named by names[from..], expanding directories one level.
+
+	{
+		List<File> inputs = new ArrayList<File>();
+		for ( int i = from; i < names.length; i++ )
+		{
+			File f = new File(names[i]);
+			if ( f.isDirectory() )
+			{
+				File[] files = f.listFiles();
+				if ( files == null )
+					continue;
+				Arrays.sort(files);
+				for ( File g : files )
+					if ( g.isFile() )
+						inputs.add(g);
+			}
+			else
+				inputs.add(f);
+		}
+		return inputs;
+	}
+
+	static File outputFor(File inFile, File outDir)
+
+	// Returns the output file of "inFile": its name with the extension replaced by ".out", in "outDir".
+
+	{
+		String name = inFile.getName();
+		int dot = name.lastIndexOf('.');
+		if ( dot > 0 )
+			name = name.substring(0, dot);
+		return new File(outDir, name + ".out");
+	}
+
+	static List<String> conflicts(List<File> inputs, File outDir)
+
+	// Returns a message for each input whose output file is that of an earlier input.
+
+	{
+		List<String> messages = new ArrayList<String>();
+		Map<File,File> writer = new HashMap<File,File>(); // input writing each output file
+		for ( File f : inputs )
+		{
+			File out = outputFor(f, outDir);
+			File earlier = writer.putIfAbsent(out, f);
+			if ( earlier != null )
+				messages.add( f.getPath() + " : same output file " + out.getPath() + " as " + earlier.getPath() );
+		}
+		return messages;
+	}
+
+	static Result compileOne(File inFile, File outDir)
+	{
+		Result r = new Result(inFile);
+		long start = System.nanoTime();
+		try
+		{
+			if ( cache != null )
+				r.ok = cache.run( "compile", compactTree, inFile.getPath(), outputFor(inFile, outDir).getPath() );
+			else
+			{
+				Compiler c = new Compiler();
+				c.compactTree = compactTree;
+				r.ok = c.compile( inFile.getPath(), outputFor(inFile, outDir).getPath() );
+			}
+		}
+		catch ( VirtualMachineError e )
+		{
+			if ( ! (e instanceof StackOverflowError) )
+				throw e; // out of memory or a broken JVM: the other files would fail too
+			r.failure = e.toString(); // a nest too deep for the recursive parser
+		}
+		catch ( Throwable e )
+		{
+			r.failure = e.toString();
+		}
+		r.nanos = System.nanoTime() - start;
+		return r;
+	}
+
+	public static List<Result> compileAll(List<File> inputs, final File outDir, int threads)
+
+	// Compiles "inputs" on a fork/join pool of "threads" workers and returns the results in input order.
+
+	{
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			List<Future<Result>> futures = new ArrayList<Future<Result>>(inputs.size());
+			for ( final File inFile : inputs )
+				futures.add( pool.submit( new Callable<Result>()
+				{
+					public Result call()
+					{
+						return compileOne(inFile, outDir);
+					}
+				} ) );
+
+			List<Result> results = new ArrayList<Result>(inputs.size());
+			for ( Future<Result> f : futures )
+				results.add(f.get());
+			return results;
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch ( ExecutionException e )
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	public static void main(String argv[])
+	{
+		// argv[0]: directory receiving one output file per input
+		// argv[1..]: input files or directories of input files
+		// an optional leading "-compact" builds the compact parse tree "Ast"
+		// an optional leading "-cache" cacheDir takes the outputs from "CompilationCache" in cacheDir if they are there
+
+		int a = 0;
+		for ( ; a < argv.length && argv[a].startsWith("-"); a++ )
+			if ( argv[a].equals("-compact") )
+				compactTree = true;
+			else if ( argv[a].equals("-cache") && a+1 < argv.length )
+				cache = new CompilationCache( new File(argv[++a]).toPath(), CompilationCache.DEFAULT_MEMORY_LIMIT );
+		if ( argv.length < a+2 )
+		{
+			System.err.println("usage: java BatchCompiler [-compact] [-cache cacheDir] outputDir input ...");
+			System.exit(2);
+		}
+
+		File outDir = new File(argv[a]);
+		outDir.mkdirs();
+		List<File> inputs = collectInputs(argv, a+1);
+		List<String> conflicts = conflicts(inputs, outDir);
+		if ( ! conflicts.isEmpty() )
+		{
+			for ( String m : conflicts )
+				System.err.println(m);
+			System.err.println("no file compiled; rename the inputs or compile them in separate batches");
+			System.exit(2);
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		long start = System.nanoTime();
+		List<Result> results = compileAll(inputs, outDir, threads);
+		long wall = System.nanoTime() - start;
+
+		int ok = 0, failed = 0;
+		long cpu = 0;
+		for ( Result r : results )
+		{
+			cpu += r.nanos;
+			if ( r.ok )
+				ok++;
+			else
+			{
+				failed++;
+				System.out.println( r.inFile.getPath() + " : " + (r.failure != null ? r.failure : "errors, see " + outputFor(r.inFile, outDir).getPath()) );
+			}
+		}
+
+		System.out.println( results.size() + " files, " + ok + " compiled, " + failed + " with errors" );
+		System.out.printf( "wall %.1f ms, sum of per-file times %.1f ms, %.3f ms/file, %d threads%n",
+		                   wall / 1e6, cpu / 1e6, results.isEmpty() ? 0.0 : cpu / 1e6 / results.size(), threads );
+		if ( cache != null )
+			System.out.print( cache.report() );
+
+		if ( failed > 0 )
+			System.exit(1);
+	}
+}
@@ -0,0 +1,288 @@
+/**
+
+ This class measures the throughput of each stage of the compiler over a corpus of source files:
+
+ lex     LexAnalyzer.getToken() over the whole input, in tokens/sec
+ parse   Parser.statement() building the parse tree, in nodes/sec
+ ast     AstParser.statement() building the compact parse tree "Ast", in nodes/sec of the object tree
+ print   printParseTree() of a parse tree already built, in lines/sec
+ compile Compiler.compile() from input file to output file, in files/sec
+
+ Every stage runs "warmup" rounds over the corpus to let the JIT settle, then "rounds" measured rounds.
+ The allocation rate of the measuring thread is reported with each stage.
+ The input files are read into memory once; only the compile stage touches the disk.
+
+ This is the quick check, built with javac alone. The same stages are run under JMH, with forks,
+ error bounds and the gc profiler, by the Maven module in the "bench" folder; its corpus,
+ "bench/corpus", is the default here too. JMH does not accept benchmark classes in the default
+ package, where every class of the compiler is, and a class of a named package cannot use them,
+ so the JMH benchmarks reach the stages through load() and stage() below.
+
+ Usage:
+
+ java Benchmark [-warmup n] [-rounds n] [-stage lex|parse|ast|print|compile] [fileOrDir ...]
+
+ **/
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+public class Benchmark
+{
+	static final String DEFAULT_CORPUS = "../bench/corpus"; // from the src folder
+
+	static int warmup = 5;
+	static int rounds = 10;
+
+	static byte[][] corpus;
+	static String[] corpusFiles;
+	static File outFile;
+
+	static final PrintWriter nullWriter = new PrintWriter( new Writer()
+	{
+		public void write(char[] buf, int off, int len) {}
+		public void flush() {}
+		public void close() {}
+	} );
+
+	static abstract class Stage
+	{
+		String name;
+		String unit;
+
+		Stage(String n, String u)
+		{
+			name = n;
+			unit = u;
+		}
+
+		abstract long run(int file); // runs the stage once on corpus[file], returns the number of units processed
+	}
+
+	static final Stage lex = new Stage("lex", "tokens")
+	{
+		long run(int file)
+		{
+			LexAnalyzer lex = new LexAnalyzer();
+			lex.setInput(corpus[file], corpus[file].length);
+			lex.outStream = nullWriter;
+
+			long n = 0;
+			for ( lex.getToken(); lex.tLen != 0; lex.getToken() )
+				n++;
+			return n;
+		}
+	};
+
+	static final Stage parse = new Stage("parse", "nodes")
+	{
+		long run(int file)
+		{
+			parseTree(file);
+			return nodes[file];
+		}
+	};
+
+	static final Stage ast = new Stage("ast", "nodes")
+	{
+		long run(int file)
+		{
+			Parser p = new Parser();
+			p.setInput(corpus[file], corpus[file].length);
+			p.outStream = nullWriter;
+			p.openTokenStream();
+			p.getToken();
+			new AstParser(p, new Ast()).statement();
+			p.tokens.cancel();
+			return nodes[file];
+		}
+	};
+
+	static final Stage print = new Stage("print", "lines")
+	{
+		long run(int file)
+		{
+			IO io = new IO();
+			io.outStream = nullWriter;
+			TreePrinter p = new TreePrinter(io);
+			trees[file].printParseTree(0, p);
+			p.flush();
+			return nodes[file];
+		}
+	};
+
+	static final Stage compile = new Stage("compile", "files")
+	{
+		long run(int file)
+		{
+			new Compiler().compile( corpusFiles[file], outFile.getPath() );
+			return 1;
+		}
+	};
+
+	static Statement[] trees; // parse tree of each corpus file, for the print stage
+	static long[] nodes;      // number of parse tree nodes of each corpus file
+
+	static Statement parseTree(int file)
+	{
+		Parser p = new Parser();
+		p.setInput(corpus[file], corpus[file].length);
+		p.outStream = nullWriter;
+		p.openTokenStream();
+		p.getToken();
+		Statement s = p.statement();
+		p.tokens.cancel();
+		return p.syntaxErrorFound ? null : s;
+	}
+
+	static void prepare()
+
+	// Builds the parse tree of every corpus file and counts its nodes, one per line of the printed tree.
+
+	{
+		trees = new Statement[corpus.length];
+		nodes = new long[corpus.length];
+		for ( int f = 0; f < corpus.length; f++ )
+		{
+			trees[f] = parseTree(f);
+			if ( trees[f] == null )
+				throw new IllegalArgumentException(corpusFiles[f] + " : syntax error, not usable as benchmark input");
+
+			final long[] lines = new long[1];
+			IO io = new IO();
+			io.outStream = new PrintWriter( new Writer()
+			{
+				public void write(char[] buf, int off, int len)
+				{
+					for ( int i = off; i < off+len; i++ )
+						if ( buf[i] == '\n' )
+							lines[0]++;
+				}
+				public void flush() {}
+				public void close() {}
+			} );
+			TreePrinter p = new TreePrinter(io);
+			trees[f].printParseTree(0, p);
+			p.flush();
+			io.outStream.flush();
+			nodes[f] = lines[0];
+		}
+	}
+
+	static long allocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( bean instanceof com.sun.management.ThreadMXBean )
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes( Thread.currentThread().getId() );
+		return -1;
+	}
+
+	static long round(Stage stage)
+
+	// Runs "stage" once on every corpus file, returns the number of units processed.
+
+	{
+		long units = 0;
+		for ( int f = 0; f < corpus.length; f++ )
+			units += stage.run(f);
+		return units;
+	}
+
+	static void measure(Stage stage)
+	{
+		for ( int r = 0; r < warmup; r++ )
+			round(stage);
+
+		long units = 0;
+		long alloc0 = allocatedBytes();
+		long start = System.nanoTime();
+		for ( int r = 0; r < rounds; r++ )
+			units += round(stage);
+		long nanos = System.nanoTime() - start;
+		long alloc = allocatedBytes() - alloc0;
+
+		double secs = nanos / 1e9;
+		System.out.printf( "%-8s %14.0f %s/sec %10.3f ms/round", stage.name, units / secs, stage.unit, nanos / 1e6 / rounds );
+		if ( alloc0 >= 0 )
+			System.out.printf( " %10.1f MB/sec alloc %10.1f bytes/%s", alloc / 1048576.0 / secs, (double) alloc / units, stage.unit.substring(0, stage.unit.length()-1) );
+		System.out.println();
+	}
+
+	public static long load(String... paths) throws IOException
+
+	// Reads the corpus, the given files and the .txt files of the given directories, and builds
+	// the parse tree of each file. Returns the size of the corpus in bytes.
+
+	{
+		List<Path> files = new ArrayList<Path>();
+		for ( String p : paths )
+			if ( Files.isDirectory(Paths.get(p)) )
+				try ( Stream<Path> s = Files.list(Paths.get(p)) )
+				{
+					s.filter( f -> f.toString().endsWith(".txt") ).sorted().forEach(files::add);
+				}
+			else
+				files.add( Paths.get(p) );
+
+		corpusFiles = new String[files.size()];
+		corpus = new byte[files.size()][];
+		long bytes = 0;
+		for ( int f = 0; f < corpus.length; f++ )
+		{
+			corpusFiles[f] = files.get(f).toString();
+			corpus[f] = Files.readAllBytes( files.get(f) );
+			bytes += corpus[f].length;
+		}
+		if ( outFile == null )
+		{
+			outFile = File.createTempFile("benchmark", ".out");
+			outFile.deleteOnExit();
+		}
+		prepare();
+		return bytes;
+	}
+
+	public static LongSupplier stage(String name)
+
+	// Returns one round of stage "name" over the corpus loaded by load(), returning the number of
+	// units processed.
+
+	{
+		for ( final Stage s : new Stage[] { lex, parse, ast, print, compile } )
+			if ( s.name.equals(name) )
+				return () -> round(s);
+		throw new IllegalArgumentException("unknown stage " + name);
+	}
+
+	public static void main(String argv[]) throws IOException
+	{
+		List<String> files = new ArrayList<String>();
+		String only = null;
+
+		for ( int i = 0; i < argv.length; i++ )
+		{
+			if ( argv[i].equals("-warmup") )
+				warmup = Integer.parseInt(argv[++i]);
+			else if ( argv[i].equals("-rounds") )
+				rounds = Integer.parseInt(argv[++i]);
+			else if ( argv[i].equals("-stage") )
+				only = argv[++i];
+			else
+				files.add(argv[i]);
+		}
+		if ( files.isEmpty() )
+			files.add(DEFAULT_CORPUS);
+
+		long bytes = load( files.toArray(new String[0]) );
+
+		System.out.println( corpus.length + " files, " + bytes + " bytes, " + warmup + " warmup rounds, " + rounds + " rounds" );
+
+		for ( Stage s : new Stage[] { lex, parse, ast, print, compile } )
+			if ( only == null || only.equals(s.name) )
+				measure(s);
+	}
+}
@@ -7,12 +7,47 @@ class Block extends Statement
         slist = s;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<block>");
+        slist.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+    {
+        slist.fold();
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        slist.scan(o);
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        slist.prune(o);
+        return this;
+    }
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <block>");
-        slist.printParseTree(indent1+" ");
+    void hoist(LoopOptimizer o)
+    {
+        slist.hoist(o);
+    }
+
+    void infer(TypeInference t)
+    {
+        slist.infer(t);
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        slist.replace(old, s);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        slist.emitInstructions(c);
     }
 }
\ No newline at end of file
@@ -7,9 +7,19 @@ class Bool extends Primary
         val = b;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln(" " + val);
+        super.printParseTree(depth, p);
+        p.end(val);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return TypeInference.BOOL;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        c.code.emit(Op.boolpush, val ? 1 : 0);
     }
 }
\ No newline at end of file
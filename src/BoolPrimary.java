@@ -1,7 +1,36 @@
 abstract class BoolPrimary
 {
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <boolPrimary>");
+        p.line(depth, "<boolPrimary>");
+    }
+
+    abstract BoolPrimary fold();
+
+    abstract Primary constant();
+
+    Primary primary()
+
+    // Returns the primary of this <boolPrimary> if it has no operator, or null.
+
+    {
+        return null;
+    }
+
+    abstract boolean scan(LoopOptimizer o);
+
+    abstract int hoist(LoopOptimizer o);
+
+    abstract byte infer(TypeInference t); // returns the type of this <boolPrimary>, as described in TypeInference
+
+    abstract void emitInstructions(Compiler c);
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+
+    // Same as Expr.emitBranch(): computes the value and jumps on it.
+
+    {
+        emitInstructions(c);
+        c.code.emit(onTrue ? Op.iftrue : Op.iffalse, target);
     }
 }
\ No newline at end of file
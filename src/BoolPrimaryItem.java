@@ -2,5 +2,7 @@ abstract class BoolPrimaryItem
 {
     BoolPrimary boolPrimary;
 
-    abstract void printParseTree(String indent);
+    abstract void printParseTree(int depth, TreePrinter p);
+
+    abstract void emitInstructions(Compiler c);
 }
\ No newline at end of file
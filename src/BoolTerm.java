@@ -9,11 +9,138 @@ class BoolTerm
         boolPrimaryItemList = bpItemList;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <boolTerm>");
+        p.line(depth, "<boolTerm>");
         for ( BoolPrimaryItem bp : boolPrimaryItemList )
-            bp.printParseTree(indent+" ");
+            bp.printParseTree(depth+1, p);
     }
-}
 
+    void fold()
+
+    // Folds each <boolPrimary>, then the leading run of literal operands into the first one.
+    // A leading false absorbs the rest of the <boolTerm>, except the operands that may stop the
+    // program by an int division by zero, which are left to run time as in Fold; a leading true
+    // is dropped. A true before the last operand is kept unless that operand is a literal bool,
+    // since the && converts a number operand to a bool.
+
+    {
+        for ( BoolPrimaryItem bp : boolPrimaryItemList )
+            bp.boolPrimary = bp.boolPrimary.fold();
+
+        BoolPrimaryItem first = boolPrimaryItemList.getFirst();
+        Iterator<BoolPrimaryItem> i = boolPrimaryItemList.listIterator(1);
+        while ( first.boolPrimary.constant() instanceof Bool && i.hasNext() )
+        {
+            BoolPrimary next = i.next().boolPrimary;
+            if ( ! ((Bool) first.boolPrimary.constant()).val )
+            {
+                if ( ! LoopOptimizer.mayFail(next) )
+                    i.remove();
+            }
+            else
+            {
+                if ( boolPrimaryItemList.size() == 2 && ! (next.constant() instanceof Bool) )
+                    break;
+                first.boolPrimary = next;
+                i.remove();
+            }
+        }
+    }
+
+    Primary constant()
+    {
+        return boolPrimaryItemList.size() == 1 ? boolPrimaryItemList.getFirst().boolPrimary.constant() : null;
+    }
+
+    Primary primary()
+
+    // Returns the primary of this <boolTerm> if it has no operator, or null.
+
+    {
+        return boolPrimaryItemList.size() == 1 ? boolPrimaryItemList.getFirst().boolPrimary.primary() : null;
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        boolean fails = false;
+        for ( BoolPrimaryItem bp : boolPrimaryItemList )
+            fails |= bp.boolPrimary.scan(o);
+        return fails;
+    }
+
+    int hoist(LoopOptimizer o)
+
+    // Same as Term.hoist().
+
+    {
+        int[] level = new int[boolPrimaryItemList.size()];
+        int max = 0;
+        int i = 0;
+        for ( BoolPrimaryItem x : boolPrimaryItemList )
+        {
+            level[i] = x.boolPrimary.hoist(o);
+            max = Math.max(max, level[i++]);
+        }
+
+        int k = 0, runLevel = 0;
+        while ( level[k] < max )
+            runLevel = Math.max(runLevel, level[k++]);
+        if ( k < 2 )
+            k = 0;
+        i = 0;
+        for ( BoolPrimaryItem x : boolPrimaryItemList )
+        {
+            if ( level[i] < max && (i >= k || level[i] < runLevel) )
+                x.boolPrimary = o.hoisted(x.boolPrimary, level[i]);
+            i++;
+        }
+        if ( k > 0 )
+        {
+            LinkedList<BoolPrimaryItem> run = new LinkedList<BoolPrimaryItem>();
+            while ( k-- > 0 )
+                run.add( boolPrimaryItemList.removeFirst() );
+            boolPrimaryItemList.addFirst( new SingleBoolPrimaryItem( LoopOptimizer.boolPrimary(o.temp(LoopOptimizer.expr(new BoolTerm(run)), runLevel)) ) );
+        }
+        return max;
+    }
+
+    byte infer(TypeInference t)
+
+    // An && gives a bool.
+
+    {
+        byte type = TypeInference.BOOL;
+        for ( BoolPrimaryItem bp : boolPrimaryItemList )
+            type = bp.boolPrimary.infer(t);
+        return boolPrimaryItemList.size() == 1 ? type : TypeInference.BOOL;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        for ( BoolPrimaryItem bp : boolPrimaryItemList )
+            bp.emitInstructions(c);
+    }
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+
+    // Same as Expr.emitBranch(); the <boolPrimary>s are tested in turn and the first false one decides.
+
+    {
+        if ( ! onTrue || boolPrimaryItemList.size() == 1 )
+        {
+            for ( BoolPrimaryItem bp : boolPrimaryItemList )
+                bp.boolPrimary.emitBranch(c, onTrue, target);
+            return;
+        }
+
+        int notTaken = c.code.newLabel(); // the <boolTerm> is false
+        int k = boolPrimaryItemList.size();
+        for ( BoolPrimaryItem bp : boolPrimaryItemList )
+            if ( --k > 0 )
+                bp.boolPrimary.emitBranch(c, false, notTaken);
+            else
+                bp.boolPrimary.emitBranch(c, true, target);
+        c.code.placeLabel(notTaken);
+    }
+}
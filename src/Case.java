@@ -2,5 +2,7 @@ abstract class Case
 {
     SList sList;
 
-    abstract void printParseTree(String indent);
+    abstract void printParseTree(int depth, TreePrinter p);
+
+    abstract void emitInstructions(Compiler c);
 }
\ No newline at end of file
@@ -9,10 +9,61 @@ class CaseList
         caseList = cl;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <case list>");
+        p.line(depth, "<case list>");
         for ( Case c : caseList )
-            c.printParseTree(indent+" ");
+            c.printParseTree(depth+1, p);
+    }
+
+    void emitInstructions(Expr expr, Compiler c)
+
+    // The value of "expr" is kept in a temporary variable and dispatched on by SwitchLowering.
+    // Only the statements of the matching case, or of the default case if no label matches, are executed.
+
+    {
+        expr.emitInstructions(c);
+        int temp = c.newTemp();
+        c.code.emit(Op.store, temp);
+
+        int end = c.code.newLabel();
+        int[] entry = new int[caseList.size()];
+        int defaultEntry = end;
+        int labeled = 0;
+
+        int i = 0;
+        for ( Case cs : caseList )
+        {
+            entry[i] = c.code.newLabel();
+            if ( cs instanceof LabeledCase )
+                labeled++;
+            else
+                defaultEntry = entry[i];
+            i++;
+        }
+
+        int[] labels = new int[labeled];
+        int[] labelEntry = new int[labeled];
+        i = 0;
+        labeled = 0;
+        for ( Case cs : caseList )
+        {
+            if ( cs instanceof LabeledCase )
+            {
+                labels[labeled] = ((LabeledCase) cs).label.val;
+                labelEntry[labeled++] = entry[i];
+            }
+            i++;
+        }
+        SwitchLowering.emitDispatch(c.code, temp, labels, labelEntry, defaultEntry);
+
+        i = 0;
+        for ( Case cs : caseList )
+        {
+            c.code.placeLabel(entry[i++]);
+            cs.emitInstructions(c);
+            c.code.emit(Op.goto_, end);
+        }
+        c.code.placeLabel(end);
     }
 }
\ No newline at end of file
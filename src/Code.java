@@ -0,0 +1,97 @@
+/**
+
+ This class holds the instruction stream emitted by the code generator.
+
+ Instructions are kept in two parallel int arrays, the opcode (an Op ordinal) and the operand:
+ the literal value for intpush and boolpush, the float bits for floatpush,
+ the variable number for load and store, the label number for jumps and labels, and the
+ number of table entries for tableswitch.
+ Label positions are marked in the stream by the pseudo-instruction "label".
+
+ The stream is formatted as text only when it is complete, into one StringBuilder that is
+ reused by later compilations on the same thread, and is written out with a single call.
+ Each instruction is displayed on a separate line, indented by Compiler.indent;
+ each label is displayed as "Ln:" without indentation.
+
+ **/
+
+class Code
+{
+	static final Op[] ops = Op.values();
+
+	int[] op = new int[256];
+	int[] arg = new int[256];
+	int size;       // number of instructions, labels included
+	int labelCount; // number of labels created
+
+	void emit(Op o)
+	{
+		emit(o, 0);
+	}
+
+	void emit(Op o, int operand)
+	{
+		if ( size == op.length )
+		{
+			op = java.util.Arrays.copyOf(op, size*2);
+			arg = java.util.Arrays.copyOf(arg, size*2);
+		}
+		op[size] = o.ordinal();
+		arg[size] = operand;
+		size++;
+	}
+
+	void emitFloat(float f)
+	{
+		emit(Op.floatpush, Float.floatToIntBits(f));
+	}
+
+	int newLabel()
+	{
+		return labelCount++;
+	}
+
+	void placeLabel(int l)
+	{
+		emit(Op.label, l);
+	}
+
+	void append(StringBuilder b, int i)
+
+	// Appends the text of instruction i to "b".
+
+	{
+		Op o = ops[op[i]];
+		if ( o == Op.label )
+		{
+			b.append('L').append(arg[i]).append(":\n");
+			return;
+		}
+
+		b.append(Compiler.indent).append(o.mnemonic());
+		switch ( o )
+		{
+			case intpush:   b.append(' ').append(arg[i]); break;
+			case floatpush: b.append(' ').append(Float.intBitsToFloat(arg[i])); break;
+			case boolpush:  b.append(' ').append(arg[i] != 0); break;
+			case tableswitch: b.append(' ').append(arg[i]); break;
+			default:
+				if ( o.hasVarOperand() )
+					b.append(' ').append(arg[i]);
+				else if ( o.hasLabelOperand() )
+					b.append(" L").append(arg[i]);
+		}
+		b.append('\n');
+	}
+
+	void writeTo(IO io)
+
+	// Formats the whole instruction stream and writes it to the output stream of "io".
+
+	{
+		StringBuilder b = IO.pooledBuffer();
+		for ( int i = 0; i < size; i++ )
+			append(b, i);
+		io.displayBuffer(b);
+	}
+}
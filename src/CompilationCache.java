@@ -0,0 +1,265 @@
+/**
+
+ This class is a content-addressed cache of compiler outputs: the instruction stream written by
+ "Compiler", the parse tree written by "Parser" or the token list written by "LexAnalyzer",
+ with the error messages in place of the output for an input with an error. A hit skips
+ lexing, parsing and code generation; the cached output is written as it is.
+
+ The key of an output is the SHA-256 digest of the compiler version, the kind of output, the
+ options and the input bytes. The compiler version is the digest of the class files the
+ compiler was loaded from, so that any rebuild of the compiler makes the entries of the old
+ one unreachable.
+
+ The outputs are kept in memory, least recently used first, and evicted once the total size of
+ the kept outputs exceeds "memoryLimit" bytes. If a directory is given, they are also kept on
+ disk there, one file per key, in subdirectories named by the first two hex digits of the key
+ as in a git object store, so that they survive the JVM; a file holds a status byte, 1 if no
+ error was found, then the output. A file is written under a temporary name, unique to the
+ process and thread, and then renamed, so that concurrent compilers sharing the directory never
+ read a partial file. The directory is not bounded; it may be deleted at any time. A disk
+ error is reported and the cache continues without the file.
+
+ All functions are synchronized except the digests and disk I/O, so one cache may be shared by
+ the threads of "BatchCompiler" and "CompilerServer".
+
+ **/
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.stream.*;
+
+class CompilationCache
+{
+	static final long DEFAULT_MEMORY_LIMIT = 64L << 20;
+
+	private static final String version = compilerVersion();
+
+	static class Entry
+	{
+		final boolean ok;    // true if no error was found
+		final byte[] output; // the output, or the error messages
+
+		Entry(boolean ok, byte[] output)
+		{
+			this.ok = ok;
+			this.output = output;
+		}
+	}
+
+	final Path dir;         // directory of the disk entries, or null
+	final long memoryLimit; // largest total size of the outputs kept in memory
+
+	private final LinkedHashMap<String,Entry> memory = new LinkedHashMap<String,Entry>(16, 0.75f, true); // in access order
+	private long memorySize; // total size of the outputs in "memory"
+
+	long memoryHits, diskHits, misses;
+
+	CompilationCache(Path dir, long memoryLimit)
+	{
+		this.dir = dir;
+		this.memoryLimit = memoryLimit;
+	}
+
+	Entry get(String kind, boolean compact, byte[] src)
+
+	// Returns the output of Compiler.run(kind, compact, src), from the cache if it is there.
+
+	{
+		String key = key(kind, compact, src);
+		Entry e = lookup(key);
+		if ( e != null )
+			return e;
+
+		StringWriter w = new StringWriter();
+		boolean ok = Compiler.run(kind, compact, src, new PrintWriter(w));
+		e = new Entry( ok, w.toString().getBytes(StandardCharsets.ISO_8859_1) );
+		remember(key, e);
+		store(key, e);
+		return e;
+	}
+
+	boolean run(String kind, boolean compact, String inFile, String outFile)
+
+	// Writes the output of request "kind" on "inFile" to "outFile", as Compiler.compile() and
+	// Parser.parse() do, from the cache if it is there. Returns true if no error was found.
+
+	{
+		try
+		{
+			Entry e = get( kind, compact, Files.readAllBytes(Paths.get(inFile)) );
+			Files.write(Paths.get(outFile), e.output);
+			return e.ok;
+		}
+		catch ( IOException e )
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	Entry lookup(String key)
+
+	// Returns the entry of "key" from memory or from disk, or null if there is none.
+
+	{
+		synchronized ( this )
+		{
+			Entry e = memory.get(key);
+			if ( e != null )
+			{
+				memoryHits++;
+				return e;
+			}
+		}
+
+		Entry e = load(key);
+		synchronized ( this )
+		{
+			if ( e == null )
+				misses++;
+			else
+			{
+				diskHits++;
+				remember(key, e);
+			}
+		}
+		return e;
+	}
+
+	synchronized void remember(String key, Entry e)
+
+	// Keeps "e" in memory, evicting the least recently used entries beyond "memoryLimit".
+
+	{
+		Entry old = memory.put(key, e);
+		if ( old != null )
+			memorySize -= old.output.length;
+		memorySize += e.output.length;
+		Iterator<Entry> i = memory.values().iterator();
+		while ( memorySize > memoryLimit && i.hasNext() )
+		{
+			memorySize -= i.next().output.length;
+			i.remove();
+		}
+	}
+
+	Path file(String key)
+	{
+		return dir.resolve( key.substring(0, 2) ).resolve( key.substring(2) );
+	}
+
+	Entry load(String key)
+	{
+		if ( dir == null )
+			return null;
+		try
+		{
+			byte[] b = Files.readAllBytes( file(key) );
+			if ( b.length == 0 )
+				return null;
+			return new Entry( b[0] == 1, Arrays.copyOfRange(b, 1, b.length) );
+		}
+		catch ( NoSuchFileException e )
+		{
+			return null;
+		}
+		catch ( IOException e )
+		{
+			System.err.println("cache : " + e);
+			return null;
+		}
+	}
+
+	void store(String key, Entry e)
+	{
+		if ( dir == null )
+			return;
+		try
+		{
+			Path f = file(key);
+			Files.createDirectories( f.getParent() );
+			Path tmp = f.resolveSibling( f.getFileName() + "." + ProcessHandle.current().pid() + "." + Thread.currentThread().getId() + ".tmp" );
+			try ( OutputStream out = Files.newOutputStream(tmp) )
+			{
+				out.write(e.ok ? 1 : 0);
+				out.write(e.output);
+			}
+			Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch ( IOException x )
+		{
+			System.err.println("cache : " + x);
+		}
+	}
+
+	synchronized String report()
+	{
+		return String.format("cache    %8d memory hits, %d disk hits, %d misses, %d entries, %d bytes in memory%n",
+		                     memoryHits, diskHits, misses, memory.size(), memorySize);
+	}
+
+	static String key(String kind, boolean compact, byte[] src)
+	{
+		MessageDigest md = sha256();
+		md.update( (version + " " + kind + (compact ? " -compact" : "") + "\n").getBytes(StandardCharsets.ISO_8859_1) );
+		md.update(src);
+		return hex( md.digest() );
+	}
+
+	static String compilerVersion()
+
+	// Returns the digest of the class files in the directory or jar the compiler was loaded from.
+
+	{
+		MessageDigest md = sha256();
+		try
+		{
+			Path p = Paths.get( CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI() );
+			if ( Files.isDirectory(p) )
+			{
+				List<Path> classes;
+				try ( Stream<Path> s = Files.list(p) )
+				{
+					classes = s.filter( f -> f.toString().endsWith(".class") ).sorted().collect( Collectors.toList() );
+				}
+				for ( Path f : classes )
+				{
+					md.update( f.getFileName().toString().getBytes(StandardCharsets.ISO_8859_1) );
+					md.update( Files.readAllBytes(f) );
+				}
+			}
+			else
+				md.update( Files.readAllBytes(p) );
+		}
+		catch ( IOException | URISyntaxException | RuntimeException e )
+		{
+			// the location is unknown: keys depend on the rest only, and a rebuilt compiler may read stale entries
+			System.err.println("cache : compiler version unknown, " + e);
+		}
+		return hex( md.digest() );
+	}
+
+	static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new IllegalStateException(e); // every Java platform provides SHA-256
+		}
+	}
+
+	static String hex(byte[] b)
+	{
+		StringBuilder s = new StringBuilder(2 * b.length);
+		for ( byte x : b )
+			s.append( Character.forDigit((x >> 4) & 15, 16) ).append( Character.forDigit(x & 15, 16) );
+		return s.toString();
+	}
+}
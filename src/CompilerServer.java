@@ -0,0 +1,378 @@
+/**
+
+ This class is a compiler daemon: one long-lived JVM that serves compile, parse-tree and lex
+ requests, so that a build pays for JVM startup, class loading and JIT compilation once rather
+ than once per file. The DFA tables and keyword map of "LexAnalyzer" are built when the class
+ is loaded, and the server warms up the compiler on a generated program before serving.
+
+ Requests are read from standard input, with the responses written to standard output, or from
+ connections to a Unix-domain socket. A request is a header line followed by the source bytes:
+
+ compile [-compact] length
+ parse [-compact] length
+ lex length
+
+ and is answered by a header line followed by the output bytes, the instruction stream, parse
+ tree or token list as written to the output file by "Compiler", "Parser" or "LexAnalyzer":
+
+ status length micros
+
+ where status is "ok", "error" if the source has an error (the output then holds the error
+ messages), or "fail" if the request could not be served (the output then holds the reason),
+ and micros is the time spent serving the request, in microseconds. The request "stats"
+ answers with the count, mean, median, 99th percentile and maximum latency of each request
+ kind, and the hits of the cache; "shutdown" stops a socket server after answering.
+
+ A header with no length, like an empty line or an unknown word, is answered with "fail" and the
+ next line is read as the next header. A length that is not a number from 0 to MAX_SOURCE
+ leaves the end of the source unknown, so no later header can be found: the request is answered
+ with "fail" and the connection is closed, which stops a server that serves standard input.
+
+ The outputs are looked up in a "CompilationCache", in memory and, with -cache, on disk, so a
+ request for an input served before is answered without compiling it again.
+
+ Each request is served by its own Compiler, Parser or LexAnalyzer object, which share nothing
+ but the immutable tables of "LexAnalyzer", as in "BatchCompiler". Each socket connection is
+ served on its own thread of a cached pool, one request after the other, so concurrent clients
+ are served in parallel; standard input is a single connection.
+
+ Usage:
+
+ java CompilerServer [-cache cacheDir] [-socket socketPath]
+ java CompilerServer -connect socketPath [-compact] compile|parse|lex inputFile outputFile
+ java CompilerServer -connect socketPath stats|shutdown
+
+ The second form sends one request to a running server, writes the output to "outputFile" and
+ displays the status and latency; the third displays the answer on standard output.
+
+ **/
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CompilerServer
+{
+	static final int MAX_HEADER = 256;       // longest header line accepted
+	static final int MAX_SOURCE = 1 << 30;   // largest source accepted
+	static final int WARMUP_ROUNDS = 200;    // requests of each kind served before the server starts
+	static final int WARMUP_SIZE = 200;      // statements of the warm-up program
+
+	static class Latencies
+
+	// The latencies of one request kind: totals over all requests, and the most recent ones for the percentiles.
+
+	{
+		static final int RECENT = 4096;
+
+		final long[] recent = new long[RECENT];
+		long count;
+		long total;
+		long max;
+
+		synchronized void record(long nanos)
+		{
+			recent[(int) (count % RECENT)] = nanos;
+			count++;
+			total += nanos;
+			max = Math.max(max, nanos);
+		}
+
+		synchronized String report(String kind)
+		{
+			if ( count == 0 )
+				return String.format("%-8s %8d requests%n", kind, 0);
+			long[] r = Arrays.copyOf(recent, (int) Math.min(count, RECENT));
+			Arrays.sort(r);
+			return String.format("%-8s %8d requests, mean %.1f us, median %.1f us, p99 %.1f us, max %.1f us%n",
+			                     kind, count, total / 1e3 / count, r[r.length / 2] / 1e3,
+			                     r[(int) Math.min(r.length - 1, r.length * 99L / 100)] / 1e3, max / 1e3);
+		}
+	}
+
+	static final String[] kinds = { "compile", "parse", "lex" };
+
+	final Map<String,Latencies> latencies = new LinkedHashMap<String,Latencies>();
+	final ExecutorService pool = Executors.newCachedThreadPool();
+	volatile ServerSocketChannel server; // the socket being served, or null
+	final CompilationCache cache;
+
+	CompilerServer(Path cacheDir)
+	{
+		cache = new CompilationCache(cacheDir, CompilationCache.DEFAULT_MEMORY_LIMIT);
+		for ( String k : kinds )
+			latencies.put(k, new Latencies());
+	}
+
+	void warmUp()
+
+	// Serves requests of each kind on a generated program, without recording them, to let the JIT settle.
+
+	{
+		byte[] src = ProgramGenerator.generate("stmts", WARMUP_SIZE).getBytes(StandardCharsets.ISO_8859_1);
+		CompilationCache scratch = new CompilationCache(null, 0); // keeps nothing, so every request is served
+		for ( int r = 0; r < WARMUP_ROUNDS; r++ )
+			for ( String k : kinds )
+				scratch.get(k, r % 2 == 1, src);
+	}
+
+	void serve(InputStream in, OutputStream out) throws IOException
+
+	// Serves the requests on "in" one after the other, writing the responses to "out", until "in" ends.
+
+	{
+		in = new BufferedInputStream(in);
+		out = new BufferedOutputStream(out);
+		String header;
+		while ( (header = readLine(in)) != null )
+		{
+			String[] w = header.trim().split(" +");
+			String kind = w[0];
+			if ( kind.equals("stats") )
+			{
+				respond(out, "ok", stats(), 0);
+				continue;
+			}
+			if ( kind.equals("shutdown") )
+			{
+				respond(out, "ok", "", 0);
+				stop();
+				return;
+			}
+
+			boolean compact = false;
+			String size = null;
+			for ( int i = 1; i < w.length; i++ )
+				if ( w[i].equals("-compact") )
+					compact = true;
+				else
+					size = w[i];
+			int length = size == null ? -1 : parseLength(size);
+			if ( length < 0 )
+			{
+				respond(out, "fail", "bad request: " + header, 0);
+				if ( size == null )
+					continue; // no source follows
+				return; // a source of unknown length follows, which cannot be skipped
+			}
+			byte[] src = in.readNBytes(length);
+			if ( src.length < length )
+				return;
+			if ( ! latencies.containsKey(kind) )
+			{
+				respond(out, "fail", "unknown request: " + header, 0);
+				continue;
+			}
+
+			long start = System.nanoTime();
+			String status;
+			byte[] output;
+			try
+			{
+				CompilationCache.Entry e = cache.get(kind, compact, src);
+				status = e.ok ? "ok" : "error";
+				output = e.output;
+			}
+			catch ( RuntimeException | StackOverflowError e )
+			{
+				status = "fail";
+				output = e.toString().getBytes(StandardCharsets.ISO_8859_1);
+			}
+			long nanos = System.nanoTime() - start;
+			latencies.get(kind).record(nanos);
+			respond(out, status, output, nanos);
+		}
+	}
+
+	static int parseLength(String s)
+	{
+		try
+		{
+			int n = Integer.parseInt(s);
+			return n <= MAX_SOURCE ? n : -1;
+		}
+		catch ( NumberFormatException e )
+		{
+			return -1;
+		}
+	}
+
+	static String readLine(InputStream in) throws IOException
+
+	// Returns the next line of "in" without its line terminator, or null at the end of "in".
+
+	{
+		StringBuilder b = new StringBuilder();
+		int c;
+		while ( (c = in.read()) != '\n' )
+		{
+			if ( c == -1 )
+				return b.length() > 0 ? b.toString() : null;
+			if ( b.length() == MAX_HEADER )
+				throw new IOException("request header too long");
+			b.append( (char) c );
+		}
+		return b.toString();
+	}
+
+	static void respond(OutputStream out, String status, String output, long nanos) throws IOException
+	{
+		respond( out, status, output.getBytes(StandardCharsets.ISO_8859_1), nanos );
+	}
+
+	static void respond(OutputStream out, String status, byte[] output, long nanos) throws IOException
+	{
+		out.write( (status + " " + output.length + " " + nanos / 1000 + "\n").getBytes(StandardCharsets.ISO_8859_1) );
+		out.write(output);
+		out.flush();
+	}
+
+	String stats()
+	{
+		StringBuilder b = new StringBuilder();
+		for ( Map.Entry<String,Latencies> e : latencies.entrySet() )
+			b.append( e.getValue().report(e.getKey()) );
+		b.append( cache.report() );
+		return b.toString();
+	}
+
+	void listen(Path socketPath) throws IOException
+
+	// Serves the connections to the Unix-domain socket at "socketPath", each on a thread of "pool",
+	// until a shutdown request.
+
+	{
+		Files.deleteIfExists(socketPath);
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind( UnixDomainSocketAddress.of(socketPath) );
+		try
+		{
+			while ( true )
+			{
+				final SocketChannel ch;
+				try
+				{
+					ch = server.accept();
+				}
+				catch ( ClosedChannelException e )
+				{
+					return; // stopped by a shutdown request
+				}
+				pool.execute( new Runnable()
+				{
+					public void run()
+					{
+						try ( SocketChannel c = ch )
+						{
+							serve( Channels.newInputStream(c), Channels.newOutputStream(c) );
+						}
+						catch ( IOException e )
+						{
+							System.err.println("connection : " + e);
+						}
+					}
+				} );
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+			Files.deleteIfExists(socketPath);
+		}
+	}
+
+	void stop()
+	{
+		try
+		{
+			if ( server != null )
+				server.close();
+		}
+		catch ( IOException e )
+		{
+			System.err.println("shutdown : " + e);
+		}
+	}
+
+	static void connect(String[] argv) throws IOException
+
+	// Sends the request of argv[2..] to the server at argv[1] and displays its answer, as described above.
+
+	{
+		boolean compact = argv.length > 2 && argv[2].equals("-compact");
+		int a = compact ? 3 : 2;
+		String kind = argv[a];
+		byte[] src = new byte[0];
+		String header = kind;
+		if ( ! kind.equals("stats") && ! kind.equals("shutdown") )
+		{
+			src = Files.readAllBytes( Paths.get(argv[a+1]) );
+			header = kind + (compact ? " -compact " : " ") + src.length;
+		}
+
+		try ( SocketChannel ch = SocketChannel.open( UnixDomainSocketAddress.of(argv[1]) ) )
+		{
+			OutputStream out = new BufferedOutputStream( Channels.newOutputStream(ch) );
+			out.write( (header + "\n").getBytes(StandardCharsets.ISO_8859_1) );
+			out.write(src);
+			out.flush();
+
+			InputStream in = new BufferedInputStream( Channels.newInputStream(ch) );
+			String[] w = readLine(in).split(" ");
+			byte[] output = in.readNBytes( Integer.parseInt(w[1]) );
+			if ( header.equals(kind) )
+				System.out.write(output);
+			else
+			{
+				Files.write( Paths.get(argv[a+2]), output );
+				System.out.println( w[0] + ", " + w[2] + " us" );
+			}
+			System.out.flush();
+		}
+	}
+
+	public static void main(String argv[]) throws IOException
+	{
+		// with no arguments: serves the requests on standard input
+		// "-socket" socketPath: serves the connections to a Unix-domain socket
+		// "-cache" cacheDir: keeps the outputs on disk in cacheDir, as well as in memory
+		// "-connect" socketPath request...: sends a request to a running server
+
+		if ( argv.length > 1 && argv[0].equals("-connect") )
+		{
+			connect(argv);
+			return;
+		}
+		Path cacheDir = null;
+		Path socketPath = null;
+		int i = 0;
+		for ( ; i+1 < argv.length; i += 2 )
+			if ( argv[i].equals("-cache") )
+				cacheDir = Paths.get(argv[i+1]);
+			else if ( argv[i].equals("-socket") )
+				socketPath = Paths.get(argv[i+1]);
+			else
+				break;
+		if ( i != argv.length )
+		{
+			System.err.println("usage: java CompilerServer [-cache cacheDir] [-socket socketPath]");
+			System.err.println("       java CompilerServer -connect socketPath [-compact] compile|parse|lex inputFile outputFile");
+			System.err.println("       java CompilerServer -connect socketPath stats|shutdown");
+			System.exit(2);
+		}
+
+		CompilerServer s = new CompilerServer(cacheDir);
+		s.warmUp();
+		if ( socketPath != null )
+			s.listen(socketPath);
+		else
+		{
+			s.serve(System.in, System.out);
+			System.err.print( s.stats() );
+		}
+	}
+}
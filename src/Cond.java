@@ -1,10 +1,8 @@
 abstract class Cond extends Statement
 {
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
-
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <cond>");
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<cond>");
     }
 }
\ No newline at end of file
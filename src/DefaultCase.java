@@ -7,9 +7,14 @@ class DefaultCase extends Case
         sList = sl;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " default");
-        sList.printParseTree(indent+" ");
+        p.line(depth, "default");
+        sList.printParseTree(depth+1, p);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        sList.emitInstructions(c);
     }
 }
\ No newline at end of file
@@ -10,9 +10,19 @@ class DivPrimaryItem extends PrimaryItem
         primary = p;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " /");
-        primary.printParseTree(indent);
+        p.line(depth, "/");
+        primary.printParseTree(depth, p);
+    }
+
+    byte emitInstructions(Compiler c, byte left)
+    {
+        Op o = TypeInference.operator(Op.div, left, type);
+        TypeInference.convert(c.code, o, left);
+        primary.emitInstructions(c);
+        TypeInference.convert(c.code, o, type);
+        c.code.emit(o);
+        return TypeInference.arithmetic(left, type);
     }
 }
\ No newline at end of file
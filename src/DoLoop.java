@@ -1,7 +1,11 @@
+import java.util.*;
+
 class DoLoop extends Statement
 {
     Statement statement;
     Expr expr;
+    List<Temp> hoisted = Collections.emptyList(); // loop-invariant expressions evaluated before the loop
+    int firstAssignment, endAssignment; // the numbers of the assignments in the loop, given by LoopOptimizer
 
     DoLoop(Statement s, Expr e)
     {
@@ -9,16 +13,74 @@ class DoLoop extends Statement
         expr = e;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
+    {
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<do loop>");
+        p.line(depth+2, "do");
+        statement.printParseTree(depth+2, p);
+        p.line(depth+2, "while");
+        expr.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+
+    // A loop whose condition is false is replaced by its body, which runs once.
+
+    {
+        statement = statement.fold();
+        expr.fold();
+        Primary k = expr.constant();
+        if ( k instanceof Bool && ! ((Bool) k).val )
+            return statement;
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        firstAssignment = o.assignmentCount;
+        statement.scan(o);
+        expr.scan(o);
+        endAssignment = o.assignmentCount;
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        statement = statement.prune(o);
+        return this;
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        hoisted = new LinkedList<Temp>();
+        o.enter(firstAssignment, endAssignment, hoisted);
+        statement.hoist(o);
+        expr = o.hoist(expr);
+        o.exit();
+    }
+
+    void infer(TypeInference t)
+
+    // The body runs at least once, so the variables it assigns stay assigned.
+
+    {
+        statement.infer(t);
+        expr.infer(t);
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        if ( statement == old )
+            statement = s;
+    }
+
+    void emitInstructions(Compiler c)
     {
-        String indent1 = indent + " ";
-        String indent2 = indent + "  ";
+        int top = c.code.newLabel();
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <do loop>");
-        IO.displayln(indent2 + indent2.length() + " do");
-        statement.printParseTree(indent2);
-        IO.displayln(indent2 + indent2.length() + " while");
-        expr.printParseTree(indent2);
+        Temp.emitAll(hoisted, c);
+        c.code.placeLabel(top);
+        statement.emitInstructions(c);
+        expr.emitBranch(c, true, top);
     }
 }
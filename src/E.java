@@ -3,16 +3,119 @@ import java.util.*;
 class E
 {
     LinkedList<TermItem> termItemList;
+    byte type; // the type of the value, given by TypeInference
 
     E(LinkedList<TermItem> tItemList)
     {
         termItemList = tItemList;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <E>");
+        p.line(depth, "<E>");
         for ( TermItem t : termItemList )
-            t.printParseTree(indent+" ");
+            t.printParseTree(depth+1, p);
+    }
+
+    void fold()
+
+    // Folds each <term>, then the leading run of literal terms into the first one.
+
+    {
+        for ( TermItem t : termItemList )
+            t.term.fold();
+
+        Term first = termItemList.getFirst().term;
+        if ( first.constant() == null )
+            return;
+        Iterator<TermItem> i = termItemList.listIterator(1);
+        while ( i.hasNext() )
+        {
+            TermItem t = i.next();
+            Primary b = t.term.constant();
+            Primary k = b == null ? null : Fold.binary(first.constant(), t instanceof AddTermItem ? Op.add : Op.sub, b);
+            if ( k == null )
+                return;
+            first.primaryItemList.getFirst().primary = k;
+            i.remove();
+        }
+    }
+
+    Primary constant()
+    {
+        return termItemList.size() == 1 ? termItemList.getFirst().term.constant() : null;
+    }
+
+    Primary primary()
+
+    // Returns the primary of this <E> if it has no operator, or null.
+
+    {
+        return termItemList.size() == 1 ? termItemList.getFirst().term.primary() : null;
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        boolean fails = false;
+        for ( TermItem t : termItemList )
+            fails |= t.term.scan(o);
+        return fails;
+    }
+
+    int hoist(LoopOptimizer o)
+
+    // Same as Term.hoist().
+
+    {
+        int[] level = new int[termItemList.size()];
+        int max = 0;
+        int i = 0;
+        for ( TermItem x : termItemList )
+        {
+            level[i] = x.term.hoist(o);
+            max = Math.max(max, level[i++]);
+        }
+
+        int k = 0, runLevel = 0;
+        while ( level[k] < max )
+            runLevel = Math.max(runLevel, level[k++]);
+        if ( k < 2 )
+            k = 0;
+        i = 0;
+        for ( TermItem x : termItemList )
+        {
+            if ( level[i] < max && (i >= k || level[i] < runLevel) )
+                x.term = o.hoisted(x.term, level[i]);
+            i++;
+        }
+        if ( k > 0 )
+        {
+            LinkedList<TermItem> run = new LinkedList<TermItem>();
+            while ( k-- > 0 )
+                run.add( termItemList.removeFirst() );
+            termItemList.addFirst( new SingleTermItem( LoopOptimizer.term(o.temp(LoopOptimizer.expr(new E(run)), runLevel)) ) );
+        }
+        return max;
+    }
+
+    byte infer(TypeInference t)
+
+    // Same as Term.infer().
+
+    {
+        type = TypeInference.NONE;
+        for ( TermItem x : termItemList )
+        {
+            byte b = x.term.infer(t);
+            type = x instanceof SingleTermItem ? b : TypeInference.arithmetic(type, b);
+        }
+        return type;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        byte left = TypeInference.ANY;
+        for ( TermItem t : termItemList )
+            left = t.emitInstructions(c, left);
     }
 }
\ No newline at end of file
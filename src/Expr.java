@@ -9,10 +9,141 @@ class Expr
         boolTermItemList = btItemList;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <Expr>");
+        p.line(depth, "<Expr>");
         for ( BoolTermItem bt : boolTermItemList )
-            bt.printParseTree(indent+" ");
+            bt.printParseTree(depth+1, p);
+    }
+
+    void fold()
+
+    // Folds each <boolTerm>; a leading true absorbs the rest of the <expr>, except the operands that
+    // may fail as in BoolTerm.fold(), and a leading false is dropped. A false before the last operand
+    // is kept unless that operand is a literal bool, since the || converts a number operand to a bool.
+
+    {
+        for ( BoolTermItem bt : boolTermItemList )
+            bt.boolTerm.fold();
+
+        BoolTermItem first = boolTermItemList.getFirst();
+        Iterator<BoolTermItem> i = boolTermItemList.listIterator(1);
+        while ( first.boolTerm.constant() instanceof Bool && i.hasNext() )
+        {
+            BoolTerm next = i.next().boolTerm;
+            if ( ! ((Bool) first.boolTerm.constant()).val )
+            {
+                if ( boolTermItemList.size() == 2 && ! (next.constant() instanceof Bool) )
+                    break;
+                first.boolTerm = next;
+                i.remove();
+            }
+            else if ( ! LoopOptimizer.mayFail(next) )
+                i.remove();
+        }
+    }
+
+    Primary constant()
+
+    // Returns the literal value of this <expr>, or null if it is not a literal.
+
+    {
+        return boolTermItemList.size() == 1 ? boolTermItemList.getFirst().boolTerm.constant() : null;
+    }
+
+    Primary primary()
+
+    // Returns the primary of this <expr> if it has no operator, or null.
+
+    {
+        return boolTermItemList.size() == 1 ? boolTermItemList.getFirst().boolTerm.primary() : null;
+    }
+
+    boolean scan(LoopOptimizer o)
+
+    // Reports the variables this <expr> reads to "o". Returns true if its evaluation may fail.
+
+    {
+        boolean fails = false;
+        for ( BoolTermItem bt : boolTermItemList )
+            fails |= bt.boolTerm.scan(o);
+        return fails;
+    }
+
+    int hoist(LoopOptimizer o)
+
+    // Returns the level of this <expr> in the loops of "o", as described in LoopOptimizer,
+    // replacing its subexpressions of lower level by temporaries as in Term.hoist().
+
+    {
+        int[] level = new int[boolTermItemList.size()];
+        int max = 0;
+        int i = 0;
+        for ( BoolTermItem x : boolTermItemList )
+        {
+            level[i] = x.boolTerm.hoist(o);
+            max = Math.max(max, level[i++]);
+        }
+
+        int k = 0, runLevel = 0;
+        while ( level[k] < max )
+            runLevel = Math.max(runLevel, level[k++]);
+        if ( k < 2 )
+            k = 0;
+        i = 0;
+        for ( BoolTermItem x : boolTermItemList )
+        {
+            if ( level[i] < max && (i >= k || level[i] < runLevel) )
+                x.boolTerm = o.hoisted(x.boolTerm, level[i]);
+            i++;
+        }
+        if ( k > 0 )
+        {
+            LinkedList<BoolTermItem> run = new LinkedList<BoolTermItem>();
+            while ( k-- > 0 )
+                run.add( boolTermItemList.removeFirst() );
+            boolTermItemList.addFirst( new SingleBoolTermItem( LoopOptimizer.boolTerm(LoopOptimizer.boolPrimary(o.temp(new Expr(run), runLevel))) ) );
+        }
+        return max;
+    }
+
+    byte infer(TypeInference t)
+
+    // Returns the type of this <expr>, as described in TypeInference; an || gives a bool.
+
+    {
+        byte type = TypeInference.BOOL;
+        for ( BoolTermItem bt : boolTermItemList )
+            type = bt.boolTerm.infer(t);
+        return boolTermItemList.size() == 1 ? type : TypeInference.BOOL;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        for ( BoolTermItem bt : boolTermItemList )
+            bt.emitInstructions(c);
+    }
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+
+    // Emits this <expr> as a condition: a jump to "target" taken if its value is "onTrue", falling
+    // through otherwise. The <boolTerm>s are tested in turn and the first true one decides.
+
+    {
+        if ( onTrue || boolTermItemList.size() == 1 )
+        {
+            for ( BoolTermItem bt : boolTermItemList )
+                bt.boolTerm.emitBranch(c, onTrue, target);
+            return;
+        }
+
+        int taken = c.code.newLabel(); // the <expr> is true
+        int k = boolTermItemList.size();
+        for ( BoolTermItem bt : boolTermItemList )
+            if ( --k > 0 )
+                bt.boolTerm.emitBranch(c, true, taken);
+            else
+                bt.boolTerm.emitBranch(c, false, target);
+        c.code.placeLabel(taken);
     }
 }
\ No newline at end of file
@@ -7,9 +7,19 @@ class Floatp extends Primary
         val = f;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln(" " + val);
+        super.printParseTree(depth, p);
+        p.end(val);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return TypeInference.FLOAT;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        c.code.emitFloat(val);
     }
 }
\ No newline at end of file
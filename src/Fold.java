@@ -0,0 +1,114 @@
+/**
+
+ This class evaluates operators on the literal primaries Int, Floatp and Bool at compile time,
+ for the fold() functions of the parse tree classes.
+
+ The values follow the instruction set: two int operands give an int result, with 32-bit
+ wraparound and division truncated toward zero; if either operand is a float, the other is
+ converted to float and the result is a float. The relational operators give a bool, and ==
+ and != also compare two bools. &&, || and ! apply to bools.
+ An operation that is not defined on its operands, like 1 + true, or an int division by zero,
+ is not evaluated and is left to run time.
+
+ **/
+
+class Fold
+{
+	static boolean isLiteral(Primary p)
+	{
+		return p instanceof Int || p instanceof Floatp || p instanceof Bool;
+	}
+
+	static Statement nothing()
+
+	// Returns a statement that emits no instructions, to replace a pruned statement.
+
+	{
+		return new Block( new SList( new java.util.LinkedList<Statement>() ) );
+	}
+
+	static Primary unary(Op op, Primary a)
+
+	// Returns the literal value of "op a", or null if it cannot be evaluated.
+
+	{
+		if ( op == Op.neg )
+		{
+			if ( a instanceof Int )
+				return new Int( -((Int) a).val );
+			if ( a instanceof Floatp )
+				return new Floatp( -((Floatp) a).val );
+		}
+		else if ( op == Op.inv && a instanceof Bool )
+			return new Bool( ! ((Bool) a).val );
+		return null;
+	}
+
+	static Primary binary(Primary a, Op op, Primary b)
+
+	// Returns the literal value of "a op b", or null if it cannot be evaluated.
+
+	{
+		if ( a instanceof Bool && b instanceof Bool )
+		{
+			boolean x = ((Bool) a).val, y = ((Bool) b).val;
+			switch ( op )
+			{
+				case and: return new Bool(x && y);
+				case or:  return new Bool(x || y);
+				case eq:  return new Bool(x == y);
+				case neq: return new Bool(x != y);
+				default:  return null;
+			}
+		}
+
+		if ( a instanceof Int && b instanceof Int )
+		{
+			int x = ((Int) a).val, y = ((Int) b).val;
+			switch ( op )
+			{
+				case add: return new Int(x + y);
+				case sub: return new Int(x - y);
+				case mul: return new Int(x * y);
+				case div: return y == 0 ? null : new Int(x / y);
+				case lt:  return new Bool(x < y);
+				case le:  return new Bool(x <= y);
+				case gt:  return new Bool(x > y);
+				case ge:  return new Bool(x >= y);
+				case eq:  return new Bool(x == y);
+				case neq: return new Bool(x != y);
+				default:  return null;
+			}
+		}
+
+		if ( isNumber(a) && isNumber(b) )
+		{
+			float x = floatValue(a), y = floatValue(b);
+			switch ( op )
+			{
+				case add: return new Floatp(x + y);
+				case sub: return new Floatp(x - y);
+				case mul: return new Floatp(x * y);
+				case div: return new Floatp(x / y);
+				case lt:  return new Bool(x < y);
+				case le:  return new Bool(x <= y);
+				case gt:  return new Bool(x > y);
+				case ge:  return new Bool(x >= y);
+				case eq:  return new Bool(x == y);
+				case neq: return new Bool(x != y);
+				default:  return null;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isNumber(Primary p)
+	{
+		return p instanceof Int || p instanceof Floatp;
+	}
+
+	private static float floatValue(Primary p)
+	{
+		return p instanceof Int ? (float) ((Int) p).val : ((Floatp) p).val;
+	}
+}
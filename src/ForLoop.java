@@ -1,9 +1,13 @@
+import java.util.*;
+
 class ForLoop extends Statement
 {
     Assign assign1;
     Expr expr;
     Assign assign2;
     Statement statement;
+    List<Temp> hoisted = Collections.emptyList(); // loop-invariant expressions evaluated before the loop
+    int firstAssignment, endAssignment; // the numbers of the assignments in the loop, given by LoopOptimizer
 
     ForLoop(Assign a1, Expr e, Assign a2, Statement s)
     {
@@ -13,17 +17,90 @@ class ForLoop extends Statement
         statement = s;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
+    {
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<for loop>");
+        p.line(depth+2, "for");
+        assign1.printParseTree(depth+2, p);
+        expr.printParseTree(depth+2, p);
+        assign2.printParseTree(depth+2, p);
+        statement.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+
+    // A loop whose condition is false is replaced by its first assignment.
+
+    {
+        assign1.fold();
+        expr.fold();
+        assign2.fold();
+        statement = statement.fold();
+        Primary k = expr.constant();
+        if ( k instanceof Bool && ! ((Bool) k).val )
+            return new Assignment(assign1.id, assign1.expr);
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+
+    // The first assignment is before the loop.
+
+    {
+        assign1.scan(o);
+        firstAssignment = o.assignmentCount;
+        expr.scan(o);
+        assign2.scan(o);
+        statement.scan(o);
+        endAssignment = o.assignmentCount;
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        statement = statement.prune(o);
+        return this;
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        assign1.hoist(o);
+        hoisted = new LinkedList<Temp>();
+        o.enter(firstAssignment, endAssignment, hoisted);
+        expr = o.hoist(expr);
+        assign2.hoist(o);
+        statement.hoist(o);
+        o.exit();
+    }
+
+    void infer(TypeInference t)
+    {
+        assign1.infer(t);
+        expr.infer(t);
+        int m = t.mark();
+        statement.infer(t);
+        assign2.infer(t);
+        t.forget(m);
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        if ( statement == old )
+            statement = s;
+    }
+
+    void emitInstructions(Compiler c)
     {
-        String indent1 = indent + " ";
-        String indent2 = indent + "  ";
+        int top = c.code.newLabel();
+        int end = c.code.newLabel();
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <for loop>");
-        IO.displayln(indent2 + indent2.length() + " for");
-        assign1.printParseTree(indent2);
-        expr.printParseTree(indent2);
-        assign2.printParseTree(indent2);
-        statement.printParseTree(indent2);
+        assign1.emitInstructions(c);
+        Temp.emitAll(hoisted, c);
+        c.code.placeLabel(top);
+        expr.emitBranch(c, false, end);
+        statement.emitInstructions(c);
+        assign2.emitInstructions(c);
+        c.code.emit(Op.goto_, top);
+        c.code.placeLabel(end);
     }
 }
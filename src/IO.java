@@ -1,32 +1,32 @@
 // This class defines I/O variables and functions used by lexical analyzers and parsers.
+// All I/O state is held per instance, so each compilation owns its own streams and
+// several compilations can run at the same time in one JVM.
+// The input file is read into one byte array and scanned by index; each byte is one
+// character, so only ASCII source is meaningful and bytes above 127 are reported as
+// lexical errors by the lexical analyzer.
 
 import java.io.*;
+import java.nio.file.*;
 
-public abstract class IO
+public class IO
 {
-    public static BufferedReader inStream;
-    public static PrintWriter outStream;
+    public byte[] inBuf = new byte[0]; // the whole input
+    public int inLen;                  // number of bytes in "inBuf"
+    public int inPos;                  // index in "inBuf" of the next character to be read
+    public PrintWriter outStream;
 
-    public static int a; // the current input character on "inStream"
-    public static char c; // used to convert the variable "a" to the char type whenever necessary
+    public int a; // the current input character, 0 through 255, or -1 at end-of-stream
+    public char c; // used to convert the variable "a" to the char type whenever necessary
 
-    public static int getNextChar()
+    public final int getNextChar()
 
     // Returns the next character on the input stream.
 
     {
-        try
-        {
-            return inStream.read();
-        }
-        catch(IOException e)
-        {
-            e.printStackTrace();
-            return -1;
-        }
+        return inPos < inLen ? inBuf[inPos++] & 0xFF : -1;
     }
 
-    public static int getChar()
+    public int getChar()
 
     // Returns the next non-whitespace character on the input stream.
     // Returns -1, end-of-stream, if the end of the input stream is reached.
@@ -38,17 +38,29 @@ public abstract class IO
         return i;
     }
 
-    public static void display(String s)
+    public void display(String s)
     {
         outStream.print(s);
     }
 
-    public static void displayln(String s)
+    public void displayln(String s)
     {
         outStream.println(s);
     }
 
-    public static void setIO(String inFile, String outFile)
+    public void setInput(byte[] src, int len)
+
+    // Sets the input to the first "len" bytes of "src" and
+    // sets the current input character "a" to the first character.
+
+    {
+        inBuf = src;
+        inLen = len;
+        inPos = 0;
+        a = getNextChar();
+    }
+
+    public void setIO(String inFile, String outFile)
 
     // Sets the input and output streams to "inFile" and "outFile", respectively.
     // Sets the current input character "a" to the first character on the input stream.
@@ -56,30 +68,73 @@ public abstract class IO
     {
         try
         {
-            inStream = new BufferedReader( new FileReader(inFile) );
-            outStream = new PrintWriter( new FileOutputStream(outFile) );
-            a = inStream.read();
+            byte[] src = Files.readAllBytes( Paths.get(inFile) );
+            setInput(src, src.length);
         }
-        catch(FileNotFoundException e)
+        catch(IOException e)
         {
             e.printStackTrace();
+            setInput(new byte[0], 0);
         }
-        catch(IOException e)
+        try
+        {
+            outStream = new PrintWriter( new FileOutputStream(outFile) );
+        }
+        catch(FileNotFoundException e)
         {
             e.printStackTrace();
         }
     }
 
-    public static void closeIO()
+    private static final int POOLED_BUFFER_LIMIT = 1 << 24; // larger buffers are not kept for reuse
+
+    private static final ThreadLocal<StringBuilder> bufferPool = new ThreadLocal<StringBuilder>()
     {
-        try
+        protected StringBuilder initialValue()
         {
-            inStream.close();
-            outStream.close();
+            return new StringBuilder(1 << 12);
         }
-        catch(IOException e)
+    };
+
+    private static final ThreadLocal<char[]> chunkPool = new ThreadLocal<char[]>()
+    {
+        protected char[] initialValue()
         {
-            e.printStackTrace();
+            return new char[1 << 13];
+        }
+    };
+
+    static StringBuilder pooledBuffer()
+
+    // Returns an empty output buffer that is reused by later calls on the same thread.
+    // The buffer must be written out with displayBuffer() before the next call.
+
+    {
+        StringBuilder b = bufferPool.get();
+        b.setLength(0);
+        return b;
+    }
+
+    public void displayBuffer(StringBuilder b)
+
+    // Writes the whole buffer "b" to the output stream. The characters are copied out
+    // through a reused chunk, since PrintWriter.append() would first copy "b" into a String.
+
+    {
+        char[] chunk = chunkPool.get();
+        int len = b.length();
+        for ( int i = 0; i < len; i += chunk.length )
+        {
+            int n = Math.min(chunk.length, len-i);
+            b.getChars(i, i+n, chunk, 0);
+            outStream.write(chunk, 0, n);
         }
+        if ( b.capacity() > POOLED_BUFFER_LIMIT )
+            bufferPool.remove();
+    }
+
+    public void closeIO()
+    {
+        outStream.close();
     }
 }
@@ -7,9 +7,30 @@ class Id extends Primary
         id = ident;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln(" " + id);
+        super.printParseTree(depth, p);
+        p.end(id);
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        o.read(id);
+        return false;
+    }
+
+    int hoist(LoopOptimizer o)
+    {
+        return o.level(id);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return t.read(id);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        c.code.emit(Op.load, c.varNumber(id));
     }
 }
\ No newline at end of file
@@ -9,13 +9,62 @@ class If1 extends Cond
         statement = s;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent2 = indent + "  ";
+        super.printParseTree(depth, p);
+        p.line(depth+2, "if");
+        expr.printParseTree(depth+2, p);
+        statement.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+    {
+        expr.fold();
+        statement = statement.fold();
+        Primary k = expr.constant();
+        if ( k instanceof Bool )
+            return ((Bool) k).val ? statement : Fold.nothing();
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        expr.scan(o);
+        statement.scan(o);
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        statement = statement.prune(o);
+        return this;
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        expr = o.hoist(expr);
+        statement.hoist(o);
+    }
+
+    void infer(TypeInference t)
+    {
+        expr.infer(t);
+        int m = t.mark();
+        statement.infer(t);
+        t.forget(m);
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        if ( statement == old )
+            statement = s;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        int end = c.code.newLabel();
 
-        super.printParseTree(indent);
-        IO.displayln(indent2 + indent2.length() + " if");
-        expr.printParseTree(indent2);
-        statement.printParseTree(indent2);
+        expr.emitBranch(c, false, end);
+        statement.emitInstructions(c);
+        c.code.placeLabel(end);
     }
 }
\ No newline at end of file
@@ -1,3 +1,5 @@
+import java.util.*;
+
 class If2 extends Cond
 {
     Expr expr;
@@ -11,15 +13,79 @@ class If2 extends Cond
         statement2 = s2;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
+    {
+        super.printParseTree(depth, p);
+        p.line(depth+2, "if");
+        expr.printParseTree(depth+2, p);
+        statement1.printParseTree(depth+2, p);
+        p.line(depth+2, "else");
+        statement2.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+    {
+        expr.fold();
+        statement1 = statement1.fold();
+        statement2 = statement2.fold();
+        Primary k = expr.constant();
+        if ( k instanceof Bool )
+            return ((Bool) k).val ? statement1 : statement2;
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        expr.scan(o);
+        statement1.scan(o);
+        statement2.scan(o);
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        statement1 = statement1.prune(o);
+        statement2 = statement2.prune(o);
+        return this;
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        expr = o.hoist(expr);
+        statement1.hoist(o);
+        statement2.hoist(o);
+    }
+
+    void infer(TypeInference t)
+
+    // A variable assigned by both branches is assigned after the statement.
+
+    {
+        expr.infer(t);
+        int m = t.mark();
+        statement1.infer(t);
+        List<String> a = t.forget(m);
+        statement2.infer(t);
+        t.defineBoth(a, t.forget(m));
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        if ( statement1 == old )
+            statement1 = s;
+        else if ( statement2 == old )
+            statement2 = s;
+    }
+
+    void emitInstructions(Compiler c)
     {
-        String indent2 = indent + "  ";
+        int elseLabel = c.code.newLabel();
+        int end = c.code.newLabel();
 
-        super.printParseTree(indent);
-        IO.displayln(indent2 + indent2.length() + " if");
-        expr.printParseTree(indent2);
-        statement1.printParseTree(indent2);
-        IO.displayln(indent2 + indent2.length() + " else");
-        statement2.printParseTree(indent2);
+        expr.emitBranch(c, false, elseLabel);
+        statement1.emitInstructions(c);
+        c.code.emit(Op.goto_, end);
+        c.code.placeLabel(elseLabel);
+        statement2.emitInstructions(c);
+        c.code.placeLabel(end);
     }
 }
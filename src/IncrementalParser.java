@@ -0,0 +1,470 @@
+/**
+
+ This class is a parser that keeps the tokens and the object parse tree of its input, and
+ updates them when a range of the input is replaced by edit(), for a service that parses a
+ file again on each change.
+
+ The tokens are kept in parallel arrays, as in "TokenStream": kind, start and length, followed
+ by the end-of-input token. The lexical analyzer is in its Start state at the end of every
+ token, so after an edit it is restarted at the end of the last token that ends before the
+ edit: a token whose end is before the edit was extracted without reading any character of
+ it. Extraction stops as soon as it yields a token that starts at the start of an old token
+ after the edit, shifted by the change in length, with the same kind and length, since from
+ there the two inputs are the same and so are their tokens. The old tokens that are equal in
+ text to the new ones at either end of the changed range are kept.
+
+ Each statement that was parsed without error is recorded at the index of its first token,
+ which no other statement shares, with the index of the token after it and the index of the
+ first token of the statement containing it. A statement depends only on its own tokens and
+ the one after it (which decides, for instance, whether an "if" has an "else"), so after an
+ edit a recorded statement is still the statement parsed from its first token if it ends
+ before the first changed token, or starts after the changed tokens. statement() returns such
+ a statement as it is, skipping its tokens, instead of parsing it again.
+
+ The parse is redone from the innermost recorded statement that contains the changed tokens.
+ If it parses without error and ends at the token after the old statement, it replaces the
+ old one in the tree, by Statement.replace(). Otherwise the next containing statement is
+ tried, and at last the whole input is parsed again, still reusing the recorded statements.
+ This last parse displays the error messages; when there is one, no tree is kept and nothing
+ is recorded, so that the next edit parses the whole input again.
+
+ The tree is returned by tree(). It must not be simplified by fold() or "LoopOptimizer",
+ which change the statements in place, as these may be reused by later edits.
+
+ Usage:
+
+ java IncrementalParser inputFile editedFile outputFile
+
+ parses "inputFile", applies the edit that turns it into "editedFile", and displays the parse
+ tree or error messages of "editedFile" on "outputFile", and the work done by the edit.
+
+ **/
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class IncrementalParser extends Parser
+{
+	private static final State[] states = State.values();
+
+	// the tokens of the input, the end-of-input token last
+
+	int[] kind = new int[256];
+	int[] start = new int[256];
+	int[] length = new int[256];
+	int count;
+
+	// the recorded statements, by the index of their first token
+
+	Statement[] node = new Statement[256];
+	int[] nodeEnd = new int[256];  // index of the token after the statement
+	int[] parentAt = new int[256]; // index of the first token of the containing statement, or -1
+
+	Statement tree; // the parse tree of the input, or null if it has an error
+
+	final LexAnalyzer lexer = new LexAnalyzer();
+
+	int cur;       // index of the current token
+	int enclosing; // index of the first token of the statement being parsed, or -1
+	int errors;    // lexical and syntax errors found by the current parse
+
+	int changeStart = Integer.MAX_VALUE; // index of the first changed token of the current edit
+	int tokenDelta;                      // change in the number of tokens made by the current edit
+
+	static class Record // a statement returned by statement() during the current parse
+	{
+		int at, end, parent;
+		Statement node;
+		boolean reused;
+
+		Record(int at, int end, int parent, Statement node, boolean reused)
+		{
+			this.at = at;
+			this.end = end;
+			this.parent = parent;
+			this.node = node;
+			this.reused = reused;
+		}
+	}
+
+	final ArrayList<Record> pending = new ArrayList<Record>();
+
+	// work done by the last parse() or edit()
+
+	int lexedTokens;
+	int parsedTokens;
+	int reusedStatements;
+
+	public Statement tree()
+	{
+		return tree;
+	}
+
+	public boolean parse(byte[] src, int len)
+
+	// Parses the first "len" bytes of "src". Returns true if no error was found.
+
+	{
+		setInput(src, len);
+		count = 0;
+		Arrays.fill(node, null);
+		lexedTokens = parsedTokens = reusedStatements = 0;
+		lexer.setInput(src, len);
+		int k;
+		while ( (k = lexer.nextKind()) != -1 )
+			addToken(k, lexer.tStart, lexer.tLen);
+		addToken(State.Start.ordinal(), len, 0);
+		lexedTokens = count;
+		changeStart = Integer.MAX_VALUE;
+		return parseAll();
+	}
+
+	public boolean edit(int from, int to, byte[] text)
+
+	// Replaces the bytes from .. to-1 of the input by "text" and updates the tokens and the tree.
+	// Returns true if the new input has no error.
+
+	{
+		byte[] old = inBuf;
+		int oldLen = inLen;
+		int newLen = oldLen - (to - from) + text.length;
+		int delta = newLen - oldLen;
+		byte[] buf = new byte[newLen];
+		System.arraycopy(old, 0, buf, 0, from);
+		System.arraycopy(text, 0, buf, from, text.length);
+		System.arraycopy(old, to, buf, from + text.length, oldLen - to);
+		lexedTokens = parsedTokens = reusedStatements = 0;
+
+		// extract the new tokens from the last token that ends before the edit, up to one
+		// that is also an old token after the edit
+
+		int f = firstEndingAt(from);
+		lexer.setInput(buf, newLen);
+		lexer.restartAt( f > 0 ? start[f-1] + length[f-1] : 0 );
+		int[] newKind = new int[16], newStart = new int[16], newLength = new int[16];
+		int m = 0;
+		int j = f;
+		while ( true )
+		{
+			int k = lexer.nextKind();
+			int s = lexer.tStart, len = lexer.tLen;
+			if ( k == -1 )
+			{
+				k = State.Start.ordinal();
+				s = newLen;
+				len = 0;
+			}
+			lexedTokens++;
+			while ( j < count && (start[j] < to || start[j] + delta < s) )
+				j++;
+			if ( j < count && start[j] + delta == s && kind[j] == k && length[j] == len )
+				break;
+			if ( m == newKind.length )
+			{
+				newKind = Arrays.copyOf(newKind, 2*m);
+				newStart = Arrays.copyOf(newStart, 2*m);
+				newLength = Arrays.copyOf(newLength, 2*m);
+			}
+			newKind[m] = k;
+			newStart[m] = s;
+			newLength[m++] = len;
+		}
+
+		// the changed tokens are the old ones f .. j-1, replaced by the new ones lo .. m-1; the new
+		// tokens at either end that equal old ones in text and place are kept as old ones
+
+		int lo = 0;
+		while ( lo < m && f < j && sameToken(old, f, 0, buf, newKind[lo], newStart[lo], newLength[lo]) )
+		{
+			lo++;
+			f++;
+		}
+		while ( m > lo && j > f && sameToken(old, j-1, delta, buf, newKind[m-1], newStart[m-1], newLength[m-1]) )
+		{
+			m--;
+			j--;
+		}
+
+		// the innermost recorded statement containing the changed tokens, and those containing it
+
+		ArrayList<Record> containing = new ArrayList<Record>();
+		if ( tree != null )
+		{
+			int i = Math.min(f, count-1);
+			while ( i >= 0 && (node[i] == null || nodeEnd[i] < j) )
+				i--;
+			for ( ; i >= 0 && parentAt[i] >= 0; i = parentAt[i] )
+				containing.add( new Record(i, nodeEnd[i], parentAt[i], node[i], false) );
+		}
+
+		boolean unchanged = lo == m && f == j;
+		setInput(buf, newLen);
+		splice(f, j, newKind, newStart, newLength, lo, m, delta);
+		changeStart = f;
+		if ( unchanged && tree != null )
+			return true;
+
+		PrintWriter out = outStream;
+		outStream = new PrintWriter( Writer.nullWriter() );
+		try
+		{
+			for ( Record c : containing )
+			{
+				Statement s = parseFrom(c.at, c.parent);
+				if ( s != null && errors == 0 && cur == c.end + tokenDelta )
+				{
+					commit(c.at, cur);
+					node[c.parent].replace(c.node, s);
+					for ( int q = c.parent; q >= 0; q = parentAt[q] )
+						nodeEnd[q] += tokenDelta;
+					return true;
+				}
+			}
+		}
+		finally
+		{
+			outStream = out;
+		}
+		return parseAll();
+	}
+
+	boolean parseAll()
+
+	// Parses the whole input, displaying the error messages. Returns true if none was found.
+
+	{
+		Statement s = parseFrom(0, -1);
+		if ( tLen != 0 )
+		{
+			displayln(token() + " : Syntax Error, unexpected symbol");
+			errors++;
+		}
+		if ( s == null || errors > 0 )
+		{
+			Arrays.fill(node, 0, count, null);
+			tree = null;
+			return false;
+		}
+		commit(0, count-1);
+		tree = s;
+		return true;
+	}
+
+	Statement parseFrom(int at, int parent)
+
+	// Parses the statement whose first token has index "at", inside the statement at "parent".
+
+	{
+		pending.clear();
+		errors = 0;
+		cur = at-1;
+		enclosing = parent;
+		getToken();
+		return statement();
+	}
+
+	void commit(int from, int to)
+
+	// Records the statements returned by the last parse, which covered tokens from .. to-1,
+	// and forgets the other statements recorded in that range, which are no longer in the tree.
+
+	{
+		pending.sort( (x, y) -> x.at - y.at );
+		int next = from; // tokens before "next" have been done
+		for ( Record r : pending )
+		{
+			for ( ; next < r.at; next++ )
+				node[next] = null;
+			node[r.at] = r.node;
+			nodeEnd[r.at] = r.end;
+			parentAt[r.at] = r.parent;
+			next = r.reused ? r.end : r.at+1; // keep the statements inside a reused statement
+		}
+		for ( ; next < to; next++ )
+			node[next] = null;
+	}
+
+	public Statement statement()
+
+	// Returns the recorded statement at the current token if it is still valid, after skipping its tokens;
+	// else parses a statement, and records it if it has no error.
+
+	{
+		int at = cur;
+		int parent = enclosing;
+		Statement s = node[at];
+		if ( s != null && (at >= changeStart || nodeEnd[at] < changeStart) )
+		{
+			reusedStatements++;
+			cur = nodeEnd[at] - 1;
+			getToken();
+			pending.add( new Record(at, cur, parent, s, true) );
+			return s;
+		}
+
+		int before = errors;
+		enclosing = at;
+		s = super.statement();
+		enclosing = parent;
+		if ( s != null && errors == before )
+			pending.add( new Record(at, cur, parent, s, false) );
+		return s;
+	}
+
+	public void getToken()
+
+	// Moves to the next token of the arrays; the end-of-input token is the last and stays current.
+
+	{
+		if ( cur < count-1 )
+			cur++;
+		parsedTokens++;
+		int k = kind[cur];
+		state = states[ k & ~TokenStream.INVALID ];
+		tStart = start[cur];
+		tLen = length[cur];
+		if ( (k & TokenStream.INVALID) != 0 )
+			lexicalError();
+	}
+
+	void lexicalError()
+	{
+		errors++;
+		super.lexicalError();
+	}
+
+	public void errorMsg(int i)
+	{
+		errors++;
+		super.errorMsg(i);
+	}
+
+	int firstEndingAt(int pos)
+
+	// Returns the index of the first token that ends at or after index "pos" of the input.
+
+	{
+		int lo = 0, hi = count-1; // the end-of-input token ends at the end of the input
+		while ( lo < hi )
+		{
+			int mid = (lo + hi) >>> 1;
+			if ( start[mid] + length[mid] >= pos )
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	boolean sameToken(byte[] old, int i, int shift, byte[] buf, int k, int s, int len)
+
+	// Returns true if old token i, in "old", moved by "shift" bytes, is the token of kind "k"
+	// and "len" bytes at "s" of "buf".
+
+	{
+		return kind[i] == k && start[i] + shift == s && length[i] == len
+		       && Arrays.equals(old, start[i], start[i] + len, buf, s, s + len);
+	}
+
+	void splice(int f, int j, int[] newKind, int[] newStart, int[] newLength, int lo, int m, int delta)
+
+	// Replaces tokens f .. j-1 by the new tokens lo .. m-1, moving the tokens after them by
+	// "delta" bytes, and their recorded statements with them.
+
+	{
+		tokenDelta = (m - lo) - (j - f);
+		int newCount = count + tokenDelta;
+		ensureCapacity(newCount);
+		System.arraycopy(kind, j, kind, f + m - lo, count - j);
+		System.arraycopy(start, j, start, f + m - lo, count - j);
+		System.arraycopy(length, j, length, f + m - lo, count - j);
+		System.arraycopy(node, j, node, f + m - lo, count - j);
+		System.arraycopy(nodeEnd, j, nodeEnd, f + m - lo, count - j);
+		System.arraycopy(parentAt, j, parentAt, f + m - lo, count - j);
+		for ( int i = f + m - lo; i < newCount; i++ )
+		{
+			start[i] += delta;
+			nodeEnd[i] += tokenDelta;
+			if ( parentAt[i] >= j )
+				parentAt[i] += tokenDelta;
+		}
+		for ( int i = lo; i < m; i++ )
+		{
+			kind[f + i - lo] = newKind[i];
+			start[f + i - lo] = newStart[i];
+			length[f + i - lo] = newLength[i];
+			node[f + i - lo] = null;
+		}
+		if ( tokenDelta < 0 )
+			Arrays.fill(node, newCount, count, null);
+		count = newCount;
+	}
+
+	void addToken(int k, int s, int len)
+	{
+		ensureCapacity(count+1);
+		kind[count] = k;
+		start[count] = s;
+		length[count] = len;
+		node[count] = null;
+		count++;
+	}
+
+	void ensureCapacity(int n)
+	{
+		if ( n <= kind.length )
+			return;
+		int cap = Math.max(n, 2*kind.length);
+		kind = Arrays.copyOf(kind, cap);
+		start = Arrays.copyOf(start, cap);
+		length = Arrays.copyOf(length, cap);
+		node = Arrays.copyOf(node, cap);
+		nodeEnd = Arrays.copyOf(nodeEnd, cap);
+		parentAt = Arrays.copyOf(parentAt, cap);
+	}
+
+	public static void main(String argv[])
+	{
+		// argv[0]: input file containing a statement
+		// argv[1]: the input file after an edit
+		// argv[2]: output file displaying the parse tree or error messages of the edited file
+
+		IncrementalParser p = new IncrementalParser();
+		p.setIO(argv[0], argv[2]);
+		byte[] before = p.inBuf;
+		byte[] after;
+		try
+		{
+			after = Files.readAllBytes( Paths.get(argv[1]) );
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			after = new byte[0];
+		}
+
+		PrintWriter out = p.outStream;
+		p.outStream = new PrintWriter( Writer.nullWriter() );
+		p.parse(before, before.length);
+		p.outStream = out;
+
+		int prefix = 0;
+		while ( prefix < before.length && prefix < after.length && before[prefix] == after[prefix] )
+			prefix++;
+		int suffix = 0;
+		while ( suffix < before.length - prefix && suffix < after.length - prefix
+		        && before[before.length-1-suffix] == after[after.length-1-suffix] )
+			suffix++;
+
+		if ( p.edit(prefix, before.length - suffix, Arrays.copyOfRange(after, prefix, after.length - suffix)) )
+		{
+			TreePrinter tp = new TreePrinter(p);
+			p.tree().printParseTree(0, tp);
+			tp.flush();
+		}
+		p.closeIO();
+		System.out.println( p.lexedTokens + " tokens lexed, " + p.parsedTokens + " tokens parsed, "
+		                    + p.reusedStatements + " statements reused" );
+	}
+}
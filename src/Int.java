@@ -7,9 +7,19 @@ class Int extends Primary
         val = i;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln(" " + val);
+        super.printParseTree(depth, p);
+        p.end(val);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return TypeInference.INT;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        c.code.emit(Op.intpush, val);
     }
 }
\ No newline at end of file
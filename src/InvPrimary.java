@@ -7,11 +7,48 @@ class InvPrimary extends Primary
         primary = p;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln("");
-        IO.displayln(indent + indent.length() + " !");
-        primary.printParseTree(indent+" ");
+        super.printParseTree(depth, p);
+        p.end();
+        p.line(depth, "!");
+        primary.printParseTree(depth+1, p);
+    }
+
+    Primary fold()
+    {
+        primary = primary.fold();
+        Primary k = Fold.unary(Op.inv, primary);
+        return k != null ? k : this;
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        return primary.scan(o);
+    }
+
+    int hoist(LoopOptimizer o)
+    {
+        return primary.hoist(o);
+    }
+
+    byte infer(TypeInference t)
+    {
+        primary.infer(t);
+        return TypeInference.BOOL;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        primary.emitInstructions(c);
+        c.code.emit(Op.inv);
+    }
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+
+    // !p jumps when p does not.
+
+    {
+        primary.emitBranch(c, ! onTrue, target);
     }
 }
\ No newline at end of file
@@ -7,8 +7,8 @@ class Label
         val = i;
     }
 
-    void printParseTree()
+    void printParseTree(TreePrinter p)
     {
-        IO.displayln(" " + val);
+        p.end(val);
     }
 }
\ No newline at end of file
@@ -9,12 +9,15 @@ class LabeledCase extends Case
         sList = sl;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
+        p.start(depth, "case :");
+        label.printParseTree(p);
+        sList.printParseTree(depth+1, p);
+    }
 
-        IO.display(indent + indent.length() + " case :");
-        label.printParseTree();
-        sList.printParseTree(indent1);
+    void emitInstructions(Compiler c)
+    {
+        sList.emitInstructions(c);
     }
 }
\ No newline at end of file
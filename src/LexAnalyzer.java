@@ -34,9 +34,11 @@
 
  There are also special states for the keywords:
  "if", "else", "switch", "case", "default", "while", "do", "for", "print", "false", "true".
- The keywords are initially extracted as identifiers.
- The keywordCheck() function checks if the extracted token is a keyword,
- and if so, moves the DFA to the corresponding special state.
+ The keywords are extracted as identifiers. While an identifier is being scanned,
+ the driver also walks the keyword trie "keywordNext", built from "keywordMap", one
+ character at a time. The keywordCheck() function then checks if the trie ended on a
+ keyword, and if so, moves the DFA to the corresponding special state; no String is
+ built or hashed for this.
 
  The states are represented by the Enum type called "State".
  The function "driver" is the driver to operate the DFA.
@@ -47,23 +49,67 @@
  the enum type "State" need to be modified.
  The function "driver" and the other utility functions remain the same.
 
+ The driver does not read "nextState" directly. setDfaTables() compresses it once:
+ characters whose columns are identical in every state are merged into one equivalence
+ class ("charClass", which also maps every non-ASCII byte to a class with no transitions),
+ the transitions are stored in the flat byte array "transition" indexed by
+ state ordinal * "classCount" + class, and the final states are kept in the bitmask "finalMask".
+ Only "nextState" has to be edited when the token set changes.
+
+ The tables "nextState", "keywordMap", the keyword trie and the compressed DFA are immutable once built and are shared by
+ all instances. The extracted token, the current state and the I/O state are held per
+ instance, so each compilation uses its own LexAnalyzer (or subclass) object.
+
  **/
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
-public abstract class LexAnalyzer extends IO
+public class LexAnalyzer extends IO
 {
-	public static String t; // holds an extracted token
-	public static State state; // the current state of the FA
+	public int tStart; // index in "inBuf" of the first character of the extracted token
+	public int tLen; // length of the extracted token; 0 if no token was found
+	public State state; // the current state of the FA
+	private int keywordNode; // node of the keyword trie reached by the identifier being extracted
+
+	public TokenStream tokens; // if not null, getToken() takes the tokens from this stream
+
+	static final int THREADED_LEXING_SIZE = 1 << 20; // inputs of at least this many bytes are lexed on their own thread
+	static final int LOOKAHEAD = 256; // capacity of the token stream
 
-	private static State[][] nextState = new State[30][128];
+	private static final State[][] nextState = new State[30][128];
 
 	// This array implements the state transition function
 	// State x (ASCII char set) --> State.
 	// The state argument is converted to its ordinal number used as
 	// the first array index from 0 through 29.
 
-	private static HashMap<String, State> keywordMap = new HashMap<String, State>();
+	private static final HashMap<String, State> keywordMap = new HashMap<String, State>();
+
+	private static int[] keywordNext;
+	private static State[] keywordState;
+
+	// The keyword trie. Node 0 is a dead node that loops to itself and node 1 is the root.
+	// keywordNext[(n << 7) + ch] is the node reached from node n on the ASCII character ch,
+	// and keywordState[n] is the keyword state accepted at node n, or null.
+
+	private static final byte[] charClass = new byte[256]; // input byte --> character class
+	private static int classCount;      // number of character classes
+	private static byte[] transition;   // state ordinal * classCount + class --> next state ordinal
+	private static long finalMask;      // bit i is set if the state with ordinal i is final
+	private static final State[] states = State.values();
+
+	private static final int START = State.Start.ordinal();
+	private static final int ID    = State.Id.ordinal();
+	private static final int UNDEF = State.UNDEF.ordinal();
+
+	static
+	{
+		setNextState();
+		setKeywordMap();
+		setKeywordTrie();
+		setDfaTables();
+	}
 
 	private static void setKeywordMap()
 	{
@@ -80,50 +126,134 @@ public abstract class LexAnalyzer extends IO
 		keywordMap.put("true",    State.Keyword_true);
 	}
 
-	private static int driver()
+	private static void setKeywordTrie()
+	{
+		int nodes = 2;
+		for ( String k : keywordMap.keySet() )
+			nodes += k.length();
+
+		keywordNext = new int[nodes << 7];
+		keywordState = new State[nodes];
+
+		int last = 1;
+		for ( Map.Entry<String, State> e : keywordMap.entrySet() )
+		{
+			int n = 1;
+			for ( char ch : e.getKey().toCharArray() )
+			{
+				if ( keywordNext[(n << 7) + ch] == 0 )
+					keywordNext[(n << 7) + ch] = ++last;
+				n = keywordNext[(n << 7) + ch];
+			}
+			keywordState[n] = e.getValue();
+		}
+	}
+
+	private static void setDfaTables()
+
+	// Builds "charClass", "transition" and "finalMask" from "nextState".
+
+	{
+		int rows = nextState.length;
+		int[] representative = new int[129]; // a character of each class; 128 stands for the non-ASCII class
+
+		classCount = 1; // class 0: non-ASCII bytes, and ASCII characters with no transition in any state
+		representative[0] = 128;
+		for ( int ch = 0; ch < 128; ch++ )
+		{
+			int cls = -1;
+			for ( int k = 0; k < classCount && cls < 0; k++ )
+				if ( sameColumn(ch, representative[k]) )
+					cls = k;
+			if ( cls < 0 )
+			{
+				cls = classCount++;
+				representative[cls] = ch;
+			}
+			charClass[ch] = (byte) cls;
+		}
+		// charClass[128..255] stay 0
+
+		transition = new byte[rows * classCount];
+		for ( int s = 0; s < rows; s++ )
+			for ( int k = 0; k < classCount; k++ )
+				transition[s*classCount + k] = (byte)
+					( representative[k] == 128 ? UNDEF : nextState[s][representative[k]].ordinal() );
+
+		for ( State st : states )
+			if ( st.isFinal() )
+				finalMask |= 1L << st.ordinal();
+	}
+
+	private static boolean sameColumn(int ch1, int ch2)
+
+	// Returns true if characters "ch1" and "ch2" have the same transitions in every state.
+	// The value 128 stands for a non-ASCII byte, which has no transition in any state.
+
+	{
+		for ( int s = 0; s < nextState.length; s++ )
+		{
+			State t1 = ch1 == 128 ? State.UNDEF : nextState[s][ch1];
+			State t2 = ch2 == 128 ? State.UNDEF : nextState[s][ch2];
+			if ( t1 != t2 )
+				return false;
+		}
+		return true;
+	}
+
+	private int driver()
 
 	// This is the driver of the FA.
-	// If a valid token is found, assigns it to "t" and returns 1.
-	// If an invalid token is found, assigns it to "t" and returns 0.
+	// If a valid token is found, sets its span "tStart", "tLen" and returns 1.
+	// If an invalid token is found, sets its span "tStart", "tLen" and returns 0.
 	// If end-of-stream is reached without finding any non-whitespace character, returns -1.
 
 	{
-		State nextSt; // the next state of the FA
+		int st = START; // ordinal of the current state of the FA
+		int nextSt; // ordinal of the next state of the FA
 
-		t = "";
-		state = State.Start;
+		tLen = 0;
+		keywordNode = 1;
 
 		if ( Character.isWhitespace((char) a) )
 			a = getChar(); // get the next non-whitespace character
 		if ( a == -1 ) // end-of-stream is reached
+		{
+			state = State.Start;
 			return -1;
+		}
+		tStart = inPos-1; // "a" was read from inBuf[inPos-1]
 
 		while ( a != -1 ) // do the body if "a" is not end-of-stream
 		{
 			c = (char) a;
-			nextSt = nextState[state.ordinal()][a];
-			if ( nextSt == State.UNDEF ) // The FA will halt.
+			nextSt = transition[st*classCount + charClass[a]];
+			if ( nextSt == UNDEF ) // The FA will halt.
 			{
-				if ( state.isFinal() )
+				state = states[st];
+				if ( (finalMask >>> st & 1) != 0 )
 					return 1; // valid token extracted
 				else // "c" is an unexpected character
 				{
-					t = t+c;
+					tLen++;
 					a = getNextChar();
 					return 0; // invalid token found
 				}
 			}
 			else // The FA will go on.
 			{
-				state = nextSt;
-				t = t+c;
+				if ( nextSt == ID )
+					keywordNode = keywordNext[(keywordNode << 7) + a];
+				st = nextSt;
+				tLen++;
 				a = getNextChar();
 			}
 		}
 
 		// end-of-stream is reached while a token is being extracted
 
-		if ( state.isFinal() )
+		state = states[st];
+		if ( (finalMask >>> st & 1) != 0 )
 			return 1; // valid token extracted
 		else
 			return 0; // invalid token found
@@ -186,52 +316,154 @@ public abstract class LexAnalyzer extends IO
 
 		nextState[State.Int.ordinal()]['.'] = State.Float;
 
-		nextState[State.Float.ordinal()]['E'] = state.E;
-		nextState[State.Float.ordinal()]['e'] = state.E;
+		nextState[State.Float.ordinal()]['E'] = State.E;
+		nextState[State.Float.ordinal()]['e'] = State.E;
 
 		nextState[State.E.ordinal()]['+'] = State.EPlusMinus;
 		nextState[State.E.ordinal()]['-'] = State.EPlusMinus;
 
 	} // end setNextState
 
-	private static void keywordCheck()
+	private void keywordCheck()
+	{
+		State keyword = keywordState[keywordNode];
+		if ( keyword != null ) // the token is a keyword
+			state = keyword;
+	}
+
+	public String token()
+
+	// Returns the extracted token as a String.
+	// The token is kept as a span of "inBuf" and only converted when a caller needs the text.
+
+	{
+		return new String(inBuf, tStart, tLen, StandardCharsets.ISO_8859_1);
+	}
+
+	public int tokenInt()
+
+	// Returns the value of the extracted <int> token without converting it to a String.
+
 	{
-		State keywordState = keywordMap.get(t);
-		if ( keywordState != null ) // "t" has a keyword
-			state = keywordState;
+		if ( tLen > 9 ) // may overflow int; let parseInt detect it
+			return Integer.parseInt(token());
+
+		int val = 0;
+		for ( int i = tStart; i < tStart+tLen; i++ )
+			val = val*10 + (inBuf[i] - '0');
+		return val;
 	}
 
-	public static void getToken()
+	public void getToken()
 
 	// Extract the next token using the driver of the FA.
 	// If an invalid token is found, issue an error message.
 
 	{
+		if ( tokens != null )
+		{
+			if ( ! tokens.next(this) )
+				lexicalError();
+			return;
+		}
+
 		int i = driver();
 		if ( state == State.Id )
 			keywordCheck();
 		else if ( i == 0 )
-			displayln( t+" : Lexical Error, invalid token");
+			lexicalError();
 	}
 
-	public static void setLex()
+	public State peek(int k)
 
-	// Sets the nextState array and keywordMap.
+	// Returns the category of the k-th token after the current one without extracting it.
+	// Requires the token stream opened by openTokenStream(); k may be at most LOOKAHEAD.
 
 	{
-		setNextState();
-		setKeywordMap();
+		return tokens.peek(k);
 	}
 
-	public static void main(String argv[])
+	public void openTokenStream()
 
-	// argv[0]: input file containing source code using tokens defined above
-	// argv[1]: output file displaying a list of the tokens
+	// Makes getToken() take tokens from a token stream over the current input.
+	// Large inputs are lexed ahead on a separate thread, overlapping lexing with parsing.
 
 	{
-		setIO( argv[0], argv[1] );
-		setLex();
+		LexAnalyzer producer = new LexAnalyzer();
+		producer.setInput(inBuf, inLen);
+		tokens = new TokenStream(producer, LOOKAHEAD, inLen >= THREADED_LEXING_SIZE);
+	}
+
+	void lexInto(TokenStream ts, long max)
 
+	// Extracts up to "max" tokens and puts them into "ts".
+	// When the input is exhausted, puts the end-of-stream token and ends "ts".
+
+	{
+		for ( long n = 0; n < max; n++ )
+		{
+			int k = nextKind();
+			if ( k == -1 )
+			{
+				ts.put(State.Start.ordinal(), inPos, 0);
+				ts.end();
+				return;
+			}
+			if ( ! ts.put(k, tStart, tLen) )
+				return; // the stream was cancelled
+		}
+		ts.publish();
+	}
+
+	int nextKind()
+
+	// Extracts the next token, setting "tStart" and "tLen", and returns its kind as kept by
+	// TokenStream: its State ordinal, with TokenStream.INVALID for an invalid token.
+	// Returns -1 if the input is exhausted.
+
+	{
+		int i = driver();
+		if ( i == -1 )
+			return -1;
+		if ( state == State.Id )
+			keywordCheck();
+		return state.ordinal() | (i == 0 ? TokenStream.INVALID : 0);
+	}
+
+	void restartAt(int pos)
+
+	// Restarts extraction at index "pos" of the input, which must be the end of a token or 0:
+	// the DFA is in its Start state there, so the tokens extracted are those of a full scan.
+
+	{
+		inPos = pos;
+		a = getNextChar();
+	}
+
+	public void closeIO()
+	{
+		if ( tokens != null )
+			tokens.cancel();
+		super.closeIO();
+	}
+
+	void lexicalError()
+
+	// Issues an error message for the invalid token just extracted.
+
+	{
+		int last = inBuf[tStart+tLen-1] & 0xFF; // the character that made the token invalid
+		if ( last > 127 )
+			displayln( "0x"+Integer.toHexString(last)+" : Lexical Error, non-ASCII character" );
+		else
+			displayln( token()+" : Lexical Error, invalid token");
+	}
+
+	public void listTokens()
+
+	// Extracts all tokens on the input stream and displays each one with its category.
+
+	{
 		int i;
 
 		while ( a != -1 ) // while "a" is not end-of-stream
@@ -241,12 +473,23 @@ public abstract class LexAnalyzer extends IO
 			{
 				if ( state == State.Id )
 					keywordCheck();
-				displayln( t+"   : "+state.toString() );
+				displayln( token()+"   : "+state.toString() );
 			}
 			else if ( i == 0 )
-				displayln( t+" : Lexical Error, invalid token");
+				lexicalError();
 		}
+	}
+
+	public static void main(String argv[])
+
+	// argv[0]: input file containing source code using tokens defined above
+	// argv[1]: output file displaying a list of the tokens
+
+	{
+		LexAnalyzer lex = new LexAnalyzer();
 
-		closeIO();
+		lex.setIO( argv[0], argv[1] );
+		lex.listTokens();
+		lex.closeIO();
 	}
 }
\ No newline at end of file
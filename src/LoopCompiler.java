@@ -0,0 +1,645 @@
+/**
+
+ This class is the second tier of "VM": it translates a hot loop of the VM code into JVM
+ bytecode, defines it as a hidden class, and returns a handle to its static method
+
+ int run(int[] intVar, float[] floatVar, byte[] typeVar)
+
+ which runs the loop on the variables of the VM and returns the VM code index at which the
+ interpreter continues: the target of the jump that left the loop.
+
+ A loop is the code from the target "head" of a backward jump to that jump, "backEdge".
+ The translation is specialized on the types the variables hold when the loop gets hot:
+ each variable used in the loop lives in an int or a float local of the generated method
+ and must keep its type throughout the loop. On entry, the method checks that the variables
+ still have these types and returns "head" otherwise, so the interpreter runs the loop.
+ Variables stored by the loop are written back on every exit, and also when an exception
+ such as an int division by zero leaves the method. A type-specialized instruction, like iadd,
+ is translated as the operator it is specialized from, as the operand types are known here.
+
+ compile() returns null, and the loop stays interpreted, if the loop cannot be translated:
+ a variable changes type, an operator gets an operand the interpreter would convert (a bool
+ in arithmetic, a float as a condition or tableswitch value), the loop prints, or the method
+ would be too large.
+
+ The class file has version 49, so the JVM verifies it by type inference and no stack map
+ frames have to be generated.
+
+ **/
+
+import java.lang.invoke.*;
+import java.util.*;
+
+class LoopCompiler
+{
+	static final int MAX_CODE = 1 << 15; // keeps every branch offset within 16 bits
+
+	final int[] code;     // VM code
+	final int head;       // index in "code" of the first instruction of the loop
+	final int backEdge;   // index in "code" of the backward jump closing the loop
+	final byte[] varType; // type of each variable on entry, from VM.typeVar
+
+	int[] local;          // JVM local of each variable used by the loop, or -1
+	boolean[] stored;     // true for each variable stored by the loop
+	int tempLocal;        // float local used to convert the lower operand of a binary operator
+	int maxLocals;
+	int maxDepth;         // largest operand stack depth of the loop
+
+	byte[] leftType, rightType; // operand types of each instruction, indexed by code index / 2
+
+	// class file
+
+	ByteVector pool = new ByteVector();
+	int poolCount = 1;
+	HashMap<String,Integer> poolIndex = new HashMap<String,Integer>();
+
+	// bytecode of the generated method
+
+	ByteVector bc = new ByteVector();
+	int[] offset;                          // bytecode offset of each instruction, indexed by code index / 2
+	ArrayList<int[]> fixups = new ArrayList<int[]>(); // { position of the branch opcode, code index of the target }
+	ArrayList<int[]> tableFixups = new ArrayList<int[]>(); // { position of the tableswitch opcode, position of the offset, code index of the target }
+	TreeMap<Integer,Integer> exits = new TreeMap<Integer,Integer>(); // code index of each exit target -> bytecode offset of its stub
+
+	LoopCompiler(int[] code, int head, int backEdge, byte[] varType)
+	{
+		this.code = code;
+		this.head = head;
+		this.backEdge = backEdge;
+		this.varType = varType;
+	}
+
+	static MethodHandle compile(int[] code, int head, int backEdge, byte[] varType)
+
+	// Returns a handle to the translated loop, or null if it cannot be translated.
+
+	{
+		LoopCompiler lc = new LoopCompiler(code, head, backEdge, varType);
+		if ( ! lc.inferTypes() )
+			return null;
+		byte[] classFile = lc.generate();
+		if ( classFile == null )
+			return null;
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+			return lookup.findStatic( lookup.lookupClass(), "run",
+			                          MethodType.methodType(int.class, int[].class, float[].class, byte[].class) );
+		}
+		catch ( ReflectiveOperationException | LinkageError e )
+		{
+			return null;
+		}
+	}
+
+	boolean inferTypes()
+
+	// Walks the loop once, computing the type of every operand and assigning a local to every variable.
+	// Returns false if the loop cannot be translated. As the loop is built from statements,
+	// the operand stack must be empty at every jump and at every jump target.
+
+	{
+		int n = (backEdge - head)/2 + 1;
+		leftType = new byte[n];
+		rightType = new byte[n];
+		local = new int[varType.length];
+		Arrays.fill(local, -1);
+		stored = new boolean[varType.length];
+		boolean[] target = new boolean[n];
+		for ( int pc = head; pc <= backEdge; pc += 2 )
+			if ( isJump(code[pc]) && code[pc+1] >= head && code[pc+1] <= backEdge )
+				target[(code[pc+1] - head)/2] = true;
+
+		int nextLocal = 3;
+		byte[] stack = new byte[16];
+		int sp = 0;
+
+		for ( int pc = head; pc <= backEdge; pc += 2 )
+		{
+			int i = (pc - head)/2;
+			int o = VM.generic(code[pc]), x = code[pc+1];
+			if ( target[i] && sp != 0 )
+				return false;
+			if ( sp+1 >= stack.length )
+				stack = Arrays.copyOf(stack, stack.length*2);
+
+			switch ( o )
+			{
+				case VM.INTPUSH:   stack[sp++] = VM.INT; break;
+				case VM.FLOATPUSH: stack[sp++] = VM.FLOAT; break;
+				case VM.BOOLPUSH:  stack[sp++] = VM.BOOL; break;
+
+				case VM.LOAD:
+				case VM.STORE:
+					if ( local[x] < 0 )
+					{
+						if ( nextLocal > 250 )
+							return false;
+						local[x] = nextLocal++;
+					}
+					if ( o == VM.LOAD )
+						stack[sp++] = varType[x];
+					else
+					{
+						if ( stack[--sp] != varType[x] )
+							return false;
+						stored[x] = true;
+					}
+					break;
+
+				case VM.ADD: case VM.SUB: case VM.MUL: case VM.DIV:
+				{
+					byte b = stack[--sp], a = stack[--sp];
+					if ( a == VM.BOOL || b == VM.BOOL )
+						return false;
+					leftType[i] = a;
+					rightType[i] = b;
+					stack[sp++] = a == VM.FLOAT || b == VM.FLOAT ? VM.FLOAT : VM.INT;
+					break;
+				}
+
+				case VM.NEG:
+					if ( stack[sp-1] == VM.BOOL )
+						return false;
+					leftType[i] = stack[sp-1];
+					break;
+
+				case VM.AND: case VM.OR:
+					if ( stack[--sp] != VM.BOOL || stack[sp-1] != VM.BOOL )
+						return false;
+					break;
+
+				case VM.INV:
+					if ( stack[sp-1] != VM.BOOL )
+						return false;
+					break;
+
+				case VM.LT: case VM.LE: case VM.GT: case VM.GE: case VM.EQ: case VM.NEQ:
+				{
+					byte b = stack[--sp], a = stack[--sp];
+					if ( (a == VM.BOOL || b == VM.BOOL) && (a != b || o != VM.EQ && o != VM.NEQ) )
+						return false;
+					leftType[i] = a;
+					rightType[i] = b;
+					stack[sp++] = VM.BOOL;
+					break;
+				}
+
+				case VM.I2F:
+					stack[sp-1] = VM.FLOAT;
+					break;
+
+				case VM.GOTO:
+					if ( sp != 0 )
+						return false;
+					break;
+
+				case VM.IFTRUE: case VM.IFFALSE:
+					if ( stack[--sp] == VM.FLOAT || sp != 0 )
+						return false;
+					break;
+
+				case VM.TABLESWITCH:
+					sp -= 2;
+					if ( stack[sp] == VM.FLOAT || stack[sp+1] != VM.INT || sp != 0 || x == 0 )
+						return false;
+					break;
+
+				default: // VM.PRINT
+					return false;
+			}
+			maxDepth = Math.max(maxDepth, sp);
+		}
+
+		tempLocal = nextLocal;
+		maxLocals = nextLocal + 1;
+		return true;
+	}
+
+	static boolean isJump(int o)
+	{
+		return o == VM.GOTO || o == VM.IFTRUE || o == VM.IFFALSE;
+	}
+
+	byte[] generate()
+
+	// Returns the class file of the translated loop, or null if its method would be too large.
+
+	{
+		int n = (backEdge - head)/2 + 1;
+		offset = new int[n];
+
+		// entry: check the types, then load the variables into their locals
+
+		for ( int v = 0; v < local.length; v++ )
+			if ( local[v] >= 0 )
+			{
+				bc.op(0x2c); // aload_2
+				pushInt(v);
+				bc.op(0x33); // baload
+				pushInt(varType[v]);
+				branch(0xa0, -1); // if_icmpne: types changed, let the interpreter run the loop
+			}
+		for ( int v = 0; v < local.length; v++ )
+			if ( local[v] >= 0 )
+			{
+				loadArray(v);
+				storeLocal(v);
+			}
+
+		int bodyStart = bc.size;
+		for ( int pc = head; pc <= backEdge; pc += 2 )
+		{
+			offset[(pc - head)/2] = bc.size;
+			if ( bc.size > MAX_CODE - 4096 )
+				return null;
+			translate(pc);
+		}
+		exit(backEdge + 2); // falling out of the loop
+		int bodyEnd = bc.size;
+
+		// one stub per exit target: write back the stored variables and return the target
+
+		for ( Map.Entry<Integer,Integer> e : exits.entrySet() )
+		{
+			e.setValue(bc.size);
+			writeBack();
+			pushInt(e.getKey());
+			bc.op(0xac); // ireturn
+		}
+		int bailOut = bc.size;
+		pushInt(head);
+		bc.op(0xac); // ireturn
+
+		int handler = bc.size;
+		writeBack();
+		bc.op(0xbf); // athrow
+
+		if ( bc.size > MAX_CODE )
+			return null;
+
+		for ( int[] f : fixups )
+		{
+			int t = f[1];
+			int to = t == -1 ? bailOut
+			       : t >= head && t <= backEdge ? offset[(t - head)/2]
+			       : exits.get(t);
+			bc.putShort(f[0] + 1, to - f[0]);
+		}
+		for ( int[] f : tableFixups )
+			bc.setInt(f[1], offset[(f[2] - head)/2] - f[0]);
+
+		return classFile(bodyStart, bodyEnd, handler);
+	}
+
+	void translate(int pc)
+
+	// Appends the bytecode of the VM instruction at "pc".
+
+	{
+		int i = (pc - head)/2;
+		int o = VM.generic(code[pc]), x = code[pc+1];
+
+		switch ( o )
+		{
+			case VM.INTPUSH:
+			case VM.BOOLPUSH:
+				pushInt(x);
+				break;
+
+			case VM.FLOATPUSH:
+				pushFloat(Float.intBitsToFloat(x));
+				break;
+
+			case VM.LOAD:
+				bc.op(varType[x] == VM.FLOAT ? 0x17 : 0x15, local[x]); // fload, iload
+				break;
+
+			case VM.STORE:
+				storeLocal(x);
+				break;
+
+			case VM.ADD: case VM.SUB: case VM.MUL: case VM.DIV:
+			{
+				boolean f = promote(i);
+				int base = o == VM.ADD ? 0x60 : o == VM.SUB ? 0x64 : o == VM.MUL ? 0x68 : 0x6c; // iadd, isub, imul, idiv
+				bc.op(f ? base+2 : base); // fadd, fsub, fmul, fdiv
+				break;
+			}
+
+			case VM.NEG:
+				bc.op(leftType[i] == VM.FLOAT ? 0x76 : 0x74); // fneg, ineg
+				break;
+
+			case VM.I2F: bc.op(0x86); break; // i2f
+
+			case VM.AND: bc.op(0x7e); break; // iand
+			case VM.OR:  bc.op(0x80); break; // ior
+
+			case VM.INV:
+				bc.op(0x04); // iconst_1
+				bc.op(0x82); // ixor
+				break;
+
+			case VM.LT: case VM.LE: case VM.GT: case VM.GE: case VM.EQ: case VM.NEQ:
+			{
+				// the branch is taken when the relation holds: push 1 there and 0 otherwise
+				int branch = compare(i, o);
+				bc.op(branch); bc.putShort(bc.size, 7); bc.size += 2;
+				bc.op(0x03); // iconst_0
+				bc.op(0xa7); bc.putShort(bc.size, 4); bc.size += 2; // goto past iconst_1
+				bc.op(0x04); // iconst_1
+				break;
+			}
+
+			case VM.GOTO:
+				branch(0xa7, target(x));
+				break;
+
+			case VM.IFTRUE:
+				branch(0x9a, target(x)); // ifne
+				break;
+
+			case VM.IFFALSE:
+				branch(0x99, target(x)); // ifeq
+				break;
+
+			case VM.TABLESWITCH:
+			{
+				// a - low selects one of the x+1 gotos that follow; it cannot wrap into 0 .. x-1
+				// as the labels of a table are small
+				bc.op(0x64); // isub
+				int at = bc.size;
+				bc.op(0xaa); // tableswitch
+				while ( bc.size % 4 != 0 )
+					bc.op(0);
+				tableFixups.add( new int[] { at, bc.size, pc + 2 + 2*x } ); // default
+				bc.putInt(0);
+				bc.putInt(0);   // low
+				bc.putInt(x-1); // high
+				for ( int k = 0; k < x; k++ )
+				{
+					tableFixups.add( new int[] { at, bc.size, pc + 2 + 2*k } );
+					bc.putInt(0);
+				}
+				break;
+			}
+		}
+	}
+
+	boolean promote(int i)
+
+	// Converts the int operand of a binary operator with one float operand; returns true if the operation is on floats.
+
+	{
+		if ( leftType[i] != VM.FLOAT && rightType[i] != VM.FLOAT )
+			return false;
+		if ( rightType[i] != VM.FLOAT )
+			bc.op(0x86); // i2f
+		else if ( leftType[i] != VM.FLOAT )
+		{
+			bc.op(0x38, tempLocal); // fstore
+			bc.op(0x86);            // i2f
+			bc.op(0x17, tempLocal); // fload
+		}
+		return true;
+	}
+
+	int compare(int i, int o)
+
+	// Emits the comparison of the two operands, if needed, and returns the opcode of the branch taken when relation "o" holds.
+
+	{
+		if ( ! promote(i) )
+			switch ( o )
+			{
+				case VM.LT: return 0xa1; // if_icmplt
+				case VM.LE: return 0xa4; // if_icmple
+				case VM.GT: return 0xa3; // if_icmpgt
+				case VM.GE: return 0xa2; // if_icmpge
+				case VM.EQ: return 0x9f; // if_icmpeq
+				default:    return 0xa0; // if_icmpne
+			}
+
+		// fcmpg gives 1 and fcmpl gives -1 for NaN, so that every relation but != is false for NaN
+		bc.op(o == VM.LT || o == VM.LE ? 0x96 : 0x95);
+		switch ( o )
+		{
+			case VM.LT: return 0x9b; // iflt
+			case VM.LE: return 0x9e; // ifle
+			case VM.GT: return 0x9d; // ifgt
+			case VM.GE: return 0x9c; // ifge
+			case VM.EQ: return 0x99; // ifeq
+			default:    return 0x9a; // ifne
+		}
+	}
+
+	int target(int x)
+
+	// Returns the code index of the jump target "x", registering an exit if it is outside the loop.
+
+	{
+		if ( x < head || x > backEdge )
+			exits.put(x, 0);
+		return x;
+	}
+
+	void exit(int x)
+	{
+		branch(0xa7, target(x)); // goto
+	}
+
+	void branch(int opcode, int target)
+	{
+		fixups.add( new int[] { bc.size, target } );
+		bc.op(opcode);
+		bc.size += 2;
+		bc.ensure(0);
+	}
+
+	void loadArray(int v)
+	{
+		bc.op(varType[v] == VM.FLOAT ? 0x2b : 0x2a); // aload_1, aload_0
+		pushInt(v);
+		bc.op(varType[v] == VM.FLOAT ? 0x30 : 0x2e); // faload, iaload
+	}
+
+	void storeLocal(int v)
+	{
+		bc.op(varType[v] == VM.FLOAT ? 0x38 : 0x36, local[v]); // fstore, istore
+	}
+
+	void writeBack()
+	{
+		for ( int v = 0; v < local.length; v++ )
+			if ( stored[v] )
+			{
+				boolean f = varType[v] == VM.FLOAT;
+				bc.op(f ? 0x2b : 0x2a); // aload_1, aload_0
+				pushInt(v);
+				bc.op(f ? 0x17 : 0x15, local[v]); // fload, iload
+				bc.op(f ? 0x51 : 0x4f); // fastore, iastore
+			}
+	}
+
+	void pushInt(int x)
+	{
+		if ( x >= -1 && x <= 5 )
+			bc.op(0x03 + x); // iconst_<x>
+		else if ( x >= Byte.MIN_VALUE && x <= Byte.MAX_VALUE )
+			bc.op(0x10, x & 0xFF); // bipush
+		else if ( x >= Short.MIN_VALUE && x <= Short.MAX_VALUE )
+		{
+			bc.op(0x11); // sipush
+			bc.putShort(bc.size, x);
+			bc.size += 2;
+		}
+		else
+			ldc( constant(3, x) ); // CONSTANT_Integer
+	}
+
+	void pushFloat(float f)
+	{
+		if ( Float.floatToRawIntBits(f) == 0 || f == 1 || f == 2 )
+			bc.op(0x0b + (int) f); // fconst_<f>
+		else
+			ldc( constant(4, Float.floatToRawIntBits(f)) ); // CONSTANT_Float
+	}
+
+	void ldc(int index)
+	{
+		bc.op(0x13); // ldc_w
+		bc.putShort(bc.size, index);
+		bc.size += 2;
+	}
+
+	int constant(int tag, int bits)
+	{
+		String key = tag + ":" + bits;
+		Integer index = poolIndex.get(key);
+		if ( index == null )
+		{
+			pool.op(tag);
+			pool.putInt(bits);
+			index = poolCount++;
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	int utf8(String s)
+	{
+		Integer index = poolIndex.get("utf8:" + s);
+		if ( index == null )
+		{
+			pool.op(1);
+			pool.putShort(pool.size, s.length());
+			pool.size += 2;
+			for ( int i = 0; i < s.length(); i++ )
+				pool.op(s.charAt(i));
+			index = poolCount++;
+			poolIndex.put("utf8:" + s, index);
+		}
+		return index;
+	}
+
+	int classRef(String name)
+	{
+		int nameIndex = utf8(name);
+		pool.op(7);
+		pool.putShort(pool.size, nameIndex);
+		pool.size += 2;
+		return poolCount++;
+	}
+
+	byte[] classFile(int bodyStart, int bodyEnd, int handler)
+	{
+		int thisClass = classRef("VMLoop");
+		int superClass = classRef("java/lang/Object");
+		int name = utf8("run");
+		int descriptor = utf8("([I[F[B)I");
+		int codeAttribute = utf8("Code");
+
+		ByteVector cf = new ByteVector();
+		cf.putInt(0xCAFEBABE);
+		cf.putInt(49); // minor 0, major 49
+		cf.putShort(cf.size, poolCount); cf.size += 2;
+		cf.append(pool);
+		cf.putShort(cf.size, 0x0031); cf.size += 2; // public final super
+		cf.putShort(cf.size, thisClass); cf.size += 2;
+		cf.putShort(cf.size, superClass); cf.size += 2;
+		cf.putInt(0); // no interfaces, no fields
+		cf.putShort(cf.size, 1); cf.size += 2; // one method
+		cf.putShort(cf.size, 0x0009); cf.size += 2; // public static
+		cf.putShort(cf.size, name); cf.size += 2;
+		cf.putShort(cf.size, descriptor); cf.size += 2;
+		cf.putShort(cf.size, 1); cf.size += 2; // one attribute
+
+		cf.putShort(cf.size, codeAttribute); cf.size += 2;
+		cf.putInt(2 + 2 + 4 + bc.size + 2 + 8 + 2);
+		cf.putShort(cf.size, Math.max(maxDepth + 2, 4)); cf.size += 2;
+		cf.putShort(cf.size, maxLocals); cf.size += 2;
+		cf.putInt(bc.size);
+		cf.append(bc);
+		cf.putShort(cf.size, 1); cf.size += 2; // one exception handler, for any exception
+		cf.putShort(cf.size, bodyStart); cf.size += 2;
+		cf.putShort(cf.size, bodyEnd); cf.size += 2;
+		cf.putShort(cf.size, handler); cf.size += 2;
+		cf.putShort(cf.size, 0); cf.size += 2;
+		cf.putShort(cf.size, 0); cf.size += 2; // no attributes of Code
+
+		cf.putShort(cf.size, 0); cf.size += 2; // no attributes of the class
+		return Arrays.copyOf(cf.data, cf.size);
+	}
+
+	static class ByteVector
+	{
+		byte[] data = new byte[256];
+		int size;
+
+		void ensure(int more)
+		{
+			if ( size + more > data.length )
+				data = Arrays.copyOf(data, Math.max(data.length*2, size + more));
+		}
+
+		void op(int b)
+		{
+			ensure(1);
+			data[size++] = (byte) b;
+		}
+
+		void op(int b, int operand)
+		{
+			op(b);
+			op(operand);
+		}
+
+		void putShort(int at, int s)
+		{
+			ensure(at + 2 - size);
+			data[at] = (byte) (s >> 8);
+			data[at+1] = (byte) s;
+		}
+
+		void putInt(int i)
+		{
+			ensure(4);
+			setInt(size, i);
+			size += 4;
+		}
+
+		void setInt(int at, int i)
+		{
+			putShort(at, i >> 16);
+			putShort(at+2, i);
+		}
+
+		void append(ByteVector v)
+		{
+			ensure(v.size);
+			System.arraycopy(v.data, 0, data, size, v.size);
+			size += v.size;
+		}
+	}
+}
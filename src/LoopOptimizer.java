@@ -0,0 +1,279 @@
+/**
+
+ This class optimizes the object tree of a statement after fold(): it removes dead stores and
+ moves loop-invariant subexpressions out of loops.
+
+ A dead store is an assignment to a variable that is read nowhere in the statement. It is
+ removed unless its expression may stop the program, by an int division by zero. The reads of
+ a removed expression are subtracted at once, and removal is repeated until a pass removes
+ nothing, as a removal can leave another variable unread.
+
+ A subexpression is invariant in a loop if the loop assigns no variable it reads; it is then
+ invariant in the loops nested in that loop too. The level of a subexpression is the index,
+ among the loops around it from the outermost, of the outermost loop it is invariant in, or the
+ number of those loops if it is not invariant in the innermost one. A subexpression that may
+ fail has that highest level, since evaluating it when the loop would not could stop the
+ program. A subexpression whose level is lower than that of the expression containing it is
+ evaluated once into a temporary just before the loop of its level, and replaced by a "Temp"
+ primary that loads the temporary. Since the operands have no side effects, this is the same
+ as evaluating it on each iteration. As the operators associate to left, a leading run of at
+ least two operands of lower level is hoisted as one temporary, at the highest level among
+ them. A subexpression that is a single push or load is not hoisted.
+
+ The levels are computed in one walk of the tree: the assignments are numbered in the order
+ of scan(), each loop holds the range of the numbers of its assignments, and the level of a
+ variable is found by binary search on the loops around it, each a binary search on the
+ numbers of the assignments of the variable.
+
+ **/
+
+import java.util.*;
+
+class LoopOptimizer
+{
+	final HashMap<String,Integer> reads = new HashMap<String,Integer>(); // reads of each variable
+	final HashMap<String,ArrayList<Integer>> assignments = new HashMap<String,ArrayList<Integer>>(); // numbers of the assignments to each variable
+	int assignmentCount; // assignments numbered so far
+	int sign = 1;        // 1 while counting reads, -1 while subtracting those of a removed store
+	int removed;         // dead stores removed by the last pass
+
+	final ArrayList<int[]> loops = new ArrayList<int[]>(); // the loops around the current node: the range of their assignment numbers
+	final ArrayList<List<Temp>> hoisted = new ArrayList<List<Temp>>(); // the temporaries of each of these loops
+
+	static Statement optimize(Statement s)
+
+	// Returns "s" optimized; "s" is changed in place.
+
+	{
+		LoopOptimizer o = new LoopOptimizer();
+		do
+		{
+			o.reads.clear();
+			o.assignments.clear();
+			o.assignmentCount = 0;
+			o.removed = 0;
+			s.scan(o);
+			s = s.prune(o);
+		}
+		while ( o.removed > 0 );
+		s.hoist(o);
+		return s;
+	}
+
+	void read(String id)
+	{
+		reads.merge(id, sign, Integer::sum);
+	}
+
+	void assign(String id)
+	{
+		assignments.computeIfAbsent(id, k -> new ArrayList<Integer>()).add(assignmentCount++);
+	}
+
+	boolean isRead(String id)
+	{
+		return reads.getOrDefault(id, 0) > 0;
+	}
+
+	// Each of the following returns true if the evaluation of its node may fail.
+
+	static boolean mayFail(Expr e)
+	{
+		return e.scan( new LoopOptimizer() );
+	}
+
+	static boolean mayFail(BoolTerm bt)
+	{
+		return bt.scan( new LoopOptimizer() );
+	}
+
+	static boolean mayFail(BoolPrimary bp)
+	{
+		return bp.scan( new LoopOptimizer() );
+	}
+
+	void remove(Expr e)
+
+	// Subtracts the reads of "e", the expression of a removed store.
+
+	{
+		removed++;
+		sign = -1;
+		e.scan(this);
+		sign = 1;
+	}
+
+	static boolean isSafeDivisor(Primary p)
+
+	// Returns true if a division by "p" cannot be an int division by zero.
+
+	{
+		return p instanceof Int ? ((Int) p).val != 0 : p instanceof Floatp || p instanceof Bool && ((Bool) p).val;
+	}
+
+	void enter(int firstAssignment, int endAssignment, List<Temp> temps)
+
+	// Enters a loop whose assignments are numbered firstAssignment .. endAssignment-1,
+	// whose hoisted subexpressions are to be added to "temps".
+
+	{
+		loops.add( new int[] { firstAssignment, endAssignment } );
+		hoisted.add(temps);
+	}
+
+	void exit()
+	{
+		loops.remove(loops.size() - 1);
+		hoisted.remove(hoisted.size() - 1);
+	}
+
+	int depth()
+
+	// Returns the number of loops around the current node, the level of a node that cannot be hoisted.
+
+	{
+		return loops.size();
+	}
+
+	int level(String id)
+
+	// Returns the level of variable "id": one more than the index of the innermost loop around the
+	// current node that assigns it, or 0 if none does.
+
+	{
+		ArrayList<Integer> a = assignments.get(id);
+		if ( a == null )
+			return 0;
+		int lo = 0, hi = loops.size() - 1;
+		int found = -1;
+		while ( lo <= hi )
+		{
+			int mid = (lo + hi) >>> 1;
+			int[] range = loops.get(mid);
+			int i = Collections.binarySearch(a, range[0]);
+			if ( i < 0 )
+				i = -i - 1;
+			if ( i < a.size() && a.get(i) < range[1] )
+			{
+				found = mid;
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+		return found + 1;
+	}
+
+	static boolean isLeaf(Primary p)
+
+	// Returns true if "p" is emitted as a single push or load, so that hoisting it saves nothing.
+	// "p" is null for a node with an operator.
+
+	{
+		if ( p instanceof Parenthesized )
+			return isLeaf( ((Parenthesized) p).expr.primary() );
+		return p instanceof Id || p instanceof Temp || p != null && Fold.isLiteral(p);
+	}
+
+	Temp temp(Expr e, int level)
+
+	// Returns a new temporary holding the value of "e", evaluated before the loop of "level".
+
+	{
+		Temp t = new Temp(e);
+		hoisted.get(level).add(t);
+		return t;
+	}
+
+	// Each of the following returns the node to use in place of a node of lower level than the
+	// node containing it: a temporary, unless the node is a leaf.
+
+	Primary hoisted(Primary p, int level)
+	{
+		return isLeaf(p) ? p : temp( expr(p), level );
+	}
+
+	Term hoisted(Term t, int level)
+	{
+		return isLeaf(t.primary()) ? t : term( temp(expr(t), level) );
+	}
+
+	E hoisted(E e, int level)
+	{
+		return isLeaf(e.primary()) ? e : e( term(temp(expr(e), level)) );
+	}
+
+	BoolPrimary hoisted(BoolPrimary bp, int level)
+	{
+		return isLeaf(bp.primary()) ? bp : boolPrimary( temp(expr(bp), level) );
+	}
+
+	BoolTerm hoisted(BoolTerm bt, int level)
+	{
+		return isLeaf(bt.primary()) ? bt : boolTerm( boolPrimary(temp(expr(bt), level)) );
+	}
+
+	Expr hoist(Expr x)
+
+	// Returns the expression of a statement to use in its place, hoisting from it.
+
+	{
+		int level = x.hoist(this);
+		return level < depth() && ! isLeaf(x.primary()) ? expr( temp(x, level) ) : x;
+	}
+
+	// Each of the following wraps a parse tree node into a node of the level above, adding no operator.
+
+	static Term term(Primary p)
+	{
+		LinkedList<PrimaryItem> l = new LinkedList<PrimaryItem>();
+		l.add( new SinglePrimaryItem(p) );
+		return new Term(l);
+	}
+
+	static E e(Term t)
+	{
+		LinkedList<TermItem> l = new LinkedList<TermItem>();
+		l.add( new SingleTermItem(t) );
+		return new E(l);
+	}
+
+	static BoolPrimary boolPrimary(Primary p)
+	{
+		return new SingleE( e(term(p)) );
+	}
+
+	static BoolTerm boolTerm(BoolPrimary bp)
+	{
+		LinkedList<BoolPrimaryItem> l = new LinkedList<BoolPrimaryItem>();
+		l.add( new SingleBoolPrimaryItem(bp) );
+		return new BoolTerm(l);
+	}
+
+	static Expr expr(BoolTerm bt)
+	{
+		LinkedList<BoolTermItem> l = new LinkedList<BoolTermItem>();
+		l.add( new SingleBoolTermItem(bt) );
+		return new Expr(l);
+	}
+
+	static Expr expr(BoolPrimary bp)
+	{
+		return expr( boolTerm(bp) );
+	}
+
+	static Expr expr(E e)
+	{
+		return expr( new SingleE(e) );
+	}
+
+	static Expr expr(Term t)
+	{
+		return expr( e(t) );
+	}
+
+	static Expr expr(Primary p)
+	{
+		return expr( term(p) );
+	}
+}
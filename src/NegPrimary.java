@@ -7,11 +7,39 @@ class NegPrimary extends Primary
         primary = p;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln("");
-        IO.displayln(indent + indent.length() + " -");
-        primary.printParseTree(indent+" ");
+        super.printParseTree(depth, p);
+        p.end();
+        p.line(depth, "-");
+        primary.printParseTree(depth+1, p);
+    }
+
+    Primary fold()
+    {
+        primary = primary.fold();
+        Primary k = Fold.unary(Op.neg, primary);
+        return k != null ? k : this;
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        return primary.scan(o);
+    }
+
+    int hoist(LoopOptimizer o)
+    {
+        return primary.hoist(o);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return TypeInference.negation( primary.infer(t) );
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        primary.emitInstructions(c);
+        c.code.emit(Op.neg);
     }
 }
\ No newline at end of file
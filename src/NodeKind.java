@@ -0,0 +1,46 @@
+public enum NodeKind
+{
+// node kind       val              children
+
+    assignment,    // name index    <expr>
+    if1,           //               <expr> <statement>
+    if2,           //               <expr> <statement> <statement>
+    switch_,       //               <expr> <case> ...
+    whileLoop,     //               <expr> <statement>
+    doLoop,        //               <statement> <expr>
+    forLoop,       //               <assign> <expr> <assign> <statement>
+    print,         //               <expr>
+    block,         //               <statement> ...
+
+    assign,        // name index    <expr>
+    labeledCase,   // label         <statement> ...
+    defaultCase,   //               <statement> ...
+
+    expr,          //               <boolTerm> ...
+    boolTerm,      //               <boolPrimary> ...
+    singleE,       //               <E>
+    relPrimary,    // relop Op      <E> <E>
+    e,             //               <term> ...
+    term,          //               <primary> ...
+
+    id,            // name index
+    int_,          // int literal
+    float_,        // float bits
+    bool,          // 0 or 1
+    parenthesized, //               <expr>
+    negPrimary,    //               <primary>
+    invPrimary,    //               <primary>
+
+    binary,        // Op            <operand> <operand>
+    unary;         // neg or inv Op <operand>
+
+    boolean isStatement()
+    {
+        return this.compareTo(block) <= 0;
+    }
+}
+
+// binary and unary are built instead of the list kinds expr through invPrimary when expressions
+// are parsed by precedence climbing; their operands are binary, unary or leaf (id through bool) nodes.
+// The item wrappers of the object tree (SingleTermItem, AddTermItem, ...) have no node kind:
+// the operator joining an item to its predecessor is kept as the "op" of the item's own node.
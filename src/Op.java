@@ -0,0 +1,76 @@
+public enum Op
+{
+// instruction     operand          effect on the operand stack
+
+    intpush,       // int literal   push the literal
+    floatpush,     // float literal push the literal
+    boolpush,      // 0 or 1        push false or true
+    load,          // var number    push the value of the variable
+    store,         // var number    pop a value into the variable
+
+    add,           //               pop b, pop a, push a+b
+    sub,           //               pop b, pop a, push a-b
+    mul,           //               pop b, pop a, push a*b
+    div,           //               pop b, pop a, push a/b
+    neg,           //               pop a, push -a
+    and,           //               pop b, pop a, push a && b
+    or,            //               pop b, pop a, push a || b
+    inv,           //               pop a, push !a
+
+    lt,            //               pop b, pop a, push a < b
+    le,            //               pop b, pop a, push a <= b
+    gt,            //               pop b, pop a, push a > b
+    ge,            //               pop b, pop a, push a >= b
+    eq,            //               pop b, pop a, push a == b
+    neq,           //               pop b, pop a, push a != b
+
+    goto_,         // label         jump to the label
+    iftrue,        // label         pop a, jump to the label if a is true
+    iffalse,       // label         pop a, jump to the label if a is false
+
+    print,         //               pop a and print it
+
+    tableswitch,   // entry count n pop low, pop a; if a == low+i for some 0 <= i < n, continue at the i-th
+                   //               of the n+1 goto instructions that follow, else at the last one
+
+    // type-specialized instructions, emitted where the types of the operands are known
+
+    iadd, isub, imul, idiv,          // like add, sub, mul, div on two int or bool operands
+    ilt, ile, igt, ige, ieq, ineq,   // like lt .. neq on two int or bool operands
+    fadd, fsub, fmul, fdiv,          // like add, sub, mul, div on two float operands
+    flt, fle, fgt, fge, feq, fneq,   // like lt .. neq on two float operands
+    i2f,           //               pop a, an int or bool, push it as a float
+
+    label;         // label         not an instruction; marks the position of the label
+
+    String mnemonic()
+    {
+        return this == goto_ ? "goto" : name();
+    }
+
+    Op specialized(boolean onFloats)
+
+    // Returns the instruction for this arithmetic or relational operator on two ints, or on two floats.
+
+    {
+        int i = compareTo(lt) >= 0 ? 4 + ordinal() - lt.ordinal() : ordinal() - add.ordinal();
+        return values()[ (onFloats ? fadd : iadd).ordinal() + i ];
+    }
+
+    boolean onFloats()
+    {
+        return compareTo(fadd) >= 0 && compareTo(fneq) <= 0;
+    }
+
+    boolean hasVarOperand()
+    {
+        return this == load || this == store;
+    }
+
+    boolean hasLabelOperand()
+    {
+        return this.compareTo(goto_) >= 0 && this.compareTo(iffalse) <= 0 || this == label;
+    }
+}
+
+// "goto" is a reserved word in Java, so the enum literal is goto_; mnemonic() returns the instruction name.
@@ -10,9 +10,15 @@ class OrBoolTermItem extends BoolTermItem
         boolTerm = bt;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " ||");
-        boolTerm.printParseTree(indent);
+        p.line(depth, "||");
+        boolTerm.printParseTree(depth, p);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        boolTerm.emitInstructions(c);
+        c.code.emit(Op.or);
     }
 }
\ No newline at end of file
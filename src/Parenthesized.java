@@ -7,10 +7,42 @@ class Parenthesized extends Primary
         expr = e;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        IO.displayln("");
-        expr.printParseTree(indent+" ");
+        super.printParseTree(depth, p);
+        p.end();
+        expr.printParseTree(depth+1, p);
+    }
+
+    Primary fold()
+    {
+        expr.fold();
+        Primary k = expr.constant();
+        return k != null ? k : this;
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        return expr.scan(o);
+    }
+
+    int hoist(LoopOptimizer o)
+    {
+        return expr.hoist(o);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return expr.infer(t);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        expr.emitInstructions(c);
+    }
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+    {
+        expr.emitBranch(c, onTrue, target);
     }
 }
\ No newline at end of file
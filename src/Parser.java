@@ -27,35 +27,41 @@ This class is a top-down, recursive-descent parser for the following syntactic c
 
 NOTE: In the 2-branch conditionals, each "else" matches the closest preceding unmatched "if".
 NOTE: The binary operators +, -, *, /, ||, && associate to left.
+NOTE: The labels of the cases of a switch must be distinct.
 
 The definitions of the tokens are given in the lexical analyzer class file "LexAnalyzer.java".
 
 The following variables and functions of the "LexAnalyzer" class are used:
 
-static String t // holds an extracted token
-static State state // the current state of the finite automaton
-static int getToken() // extracts the next token
-static void display(String s)
-static void displayln(String s)
-static void setIO(String inFile, String outFile)
-static void closeIO()
+String token() // returns the extracted token
+State state // the current state of the finite automaton
+void getToken() // extracts the next token
+void display(String s)
+void displayln(String s)
+void setIO(String inFile, String outFile)
+void closeIO()
+
+All parser state is held per instance; each compilation uses its own Parser object.
 
 The program will display the parse tree in linearly indented form.
 Each syntactic category name labeling a node is displayed on a separate line,
 prefixed with the integer i representing the node's depth and indented by i blanks.
-The string variable "indent" will keep track of the correct number of blanks for indentation and
-will be passed to parse functions corresponding to syntactic categories.
+The tree is displayed once it is built, by the printParseTree(int depth, TreePrinter p) function
+of each node, which passes the depth of its children as an int; "TreePrinter" writes the blanks
+of each line from its buffer of spaces.
 
 **/
 
+import java.nio.file.*;
 import java.util.*;
 
-public abstract class Parser extends LexAnalyzer
+public class Parser extends LexAnalyzer
 {
-	static boolean syntaxErrorFound = false;
+	boolean syntaxErrorFound = false;
+	public boolean compactTree = false; // if true, parse() and Compiler.compile() build an "Ast" instead of the object tree
 
 
-	public static Statement statement()
+	public Statement statement()
 
 	// <statement> --> <assignment> | <cond> | <switch> | <while loop> | <do lpop> | <for loop> | <print> | <block>
 
@@ -76,12 +82,12 @@ public abstract class Parser extends LexAnalyzer
 		}
 	}
 
-	public static Assignment assignment()
+	public Assignment assignment()
 
 	// <assignment> --> <id> "=" <expr> ";"
 
 	{
-		String id = t;
+		String id = token();
 		getToken();
 
 		if ( state == State.Assign )
@@ -101,7 +107,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static Cond cond()
+	public Cond cond()
 
 	// <cond> --> "if" "(" <expr> ")" <statement> [ "else" <statement> ]
 
@@ -132,7 +138,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static Switch switchStatement()
+	public Switch switchStatement()
 
 	// <switch> --> "switch" "(" <expr> ")" "{" <case list> "}"
 
@@ -168,29 +174,33 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static CaseList caseList()
+	public CaseList caseList()
 
 	// <case list> --> { <case> }+
 
 	{
 		LinkedList<Case> caseList = new LinkedList<Case>();
+		HashSet<Integer> labels = new HashSet<Integer>(); // labels seen so far, to reject duplicates
 
 		while ( state == State.Keyword_case || state == State.Keyword_default )
 		{
-			Case case_ = case_();
+			Case case_ = case_(labels);
 			caseList.add(case_);
 		}
 		return new CaseList(caseList);
 	}
 
-	public static Case case_()
+	public Case case_(HashSet<Integer> labels)
 
 	// <case> --> "case" <label> ":" <s list> | "default" ":" <s list>
+	// "labels" holds the labels of the preceding cases of the switch; a repeated label is an error.
 
 	{
 		if ( state == State.Keyword_case )
 		{
 			getToken();
+			if ( state == State.Int && ! labels.add(tokenInt()) )
+				errorMsg(13);
 			Label label = label();
 			if ( state == State.Colon )
 			{
@@ -216,14 +226,14 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static Label label()
+	public Label label()
 
 	// <label> --> <int>
 
 	{
 		if ( state == State.Int )
 		{
-			Label label = new Label(Integer.parseInt(t));
+			Label label = new Label(tokenInt());
 			getToken();
 			return label;
 		}
@@ -232,7 +242,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static WhileLoop whileLoop()
+	public WhileLoop whileLoop()
 
 	// <while loop> --> "while" "(" <expr> ")" <statement>
 
@@ -256,7 +266,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static DoLoop doLoop()
+	public DoLoop doLoop()
 
 	// <do loop> --> "do" <statement> "while" "(" <expr> ")" ";"
 
@@ -292,7 +302,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static ForLoop forLoop()
+	public ForLoop forLoop()
 
 	// <for loop> --> "for" "(" <assign> ";" <expr> ";" <assign> ")" <statement>
 
@@ -330,12 +340,12 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static Assign assign()
+	public Assign assign()
 
 	// <assign> --> <id> "=" <expr>
 
 	{
-		String id = t;
+		String id = token();
 		getToken();
 
 		if ( state == State.Assign )
@@ -349,7 +359,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static Print print()
+	public Print print()
 
 	// <print> --> "print" <expr> ";"
 
@@ -366,7 +376,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static Block block()
+	public Block block()
 
 	// <block> --> "{" <s list> "}"
 
@@ -383,7 +393,7 @@ public abstract class Parser extends LexAnalyzer
 		return null;
 	}
 
-	public static SList sList()
+	public SList sList()
 
 	// <s list> --> { <statement> }
 
@@ -398,7 +408,7 @@ public abstract class Parser extends LexAnalyzer
 		return new SList(sList);
 	}
 
-	static boolean beginsStatement()
+	boolean beginsStatement()
 	{
 		return
 		state == State.Id || state == State.Keyword_if || state == State.Keyword_switch ||
@@ -407,7 +417,7 @@ public abstract class Parser extends LexAnalyzer
 		;
 	}
 
-	public static Expr expr()
+	public Expr expr()
 
 	// <expr> --> <boolTerm> { "||" <boolTerm> }
 
@@ -425,7 +435,7 @@ public abstract class Parser extends LexAnalyzer
 		return new Expr(boolTermItemList);
 	}
 
-	public static BoolTerm boolTerm()
+	public BoolTerm boolTerm()
 
 	// <boolTerm> --> <boolPrimary> { "&&" <boolPrimary> }
 
@@ -443,7 +453,7 @@ public abstract class Parser extends LexAnalyzer
 		return new BoolTerm(boolPrimaryItemList);
 	}
 
-	public static BoolPrimary boolPrimary()
+	public BoolPrimary boolPrimary()
 
 	// <boolPrimary> --> <E> [ <relop> <E> ]
 	// <rel op> --> "<" | "<=" | ">" | ">=" | "==" | "!="
@@ -462,7 +472,7 @@ public abstract class Parser extends LexAnalyzer
 			return new SingleE(e1);
 	}
 
-	public static E E()
+	public E E()
 
 	// <E> --> <term> { (+|-) <term> }
 
@@ -484,7 +494,7 @@ public abstract class Parser extends LexAnalyzer
 		return new E(termItemList);
 	}
 
-	public static Term term()
+	public Term term()
 
 	// <term> --> <primary> { (*|/) <primary> }
 
@@ -506,7 +516,7 @@ public abstract class Parser extends LexAnalyzer
 		return new Term(primaryItemList);
 	}
 
-	public static Primary primary()
+	public Primary primary()
 
 	// <primary> --> <id> | <int> | <float> | <floatE> | <boolLiteral> | "(" <expr> ")" | - <primary> | ! <primary>
 	// <boolLiteral> --> "false" | "true"
@@ -516,19 +526,19 @@ public abstract class Parser extends LexAnalyzer
 		{
 			case Id:
 
-				Id id = new Id(t);
+				Id id = new Id(token());
 				getToken();
 				return id;
 
 			case Int:
 
-				Int intElem = new Int(Integer.parseInt(t));
+				Int intElem = new Int(tokenInt());
 				getToken();
 				return intElem;
 
 			case Float: case FloatE:
 
-				Floatp floatElem = new Floatp(Float.parseFloat(t));
+				Floatp floatElem = new Floatp(Float.parseFloat(token()));
 				getToken();
 				return floatElem;
 
@@ -579,11 +589,11 @@ public abstract class Parser extends LexAnalyzer
 		}
 	}
 
-	public static void errorMsg(int i)
+	public void errorMsg(int i)
 	{
 		syntaxErrorFound = true;
 
-		display(t + " : Syntax Error, unexpected symbol where");
+		display(token() + " : Syntax Error, unexpected symbol where");
 
 		switch( i )
 		{
@@ -599,26 +609,77 @@ public abstract class Parser extends LexAnalyzer
 		case 10: displayln(" integer label expected"); return;
 		case 11: displayln(" { expected"); return;
 		case 12: displayln(" while expected"); return;
-		case 13: displayln(" "); return;
+		case 13: displayln(" label not used by another case expected"); return;
 		case 14: displayln(" "); return;
 		}
 	}
 
-	public static void main(String argv[])
+	public void parse(String inFile, String outFile)
+
+	// Parses the statement on "inFile" and displays its parse tree or error messages on "outFile".
+
 	{
-		// argv[0]: input file containing a statement
-		// argv[1]: output file displaying the parse tree or error messages
+		setIO( inFile, outFile );
+		parseInput();
+		closeIO();
+	}
+
+	public boolean parseInput()
 
-		setIO( argv[0], argv[1] );
-		setLex();
+	// Parses the statement on the input and displays its parse tree or error messages on the output stream.
+	// Returns true if no syntax error was found.
+
+	{
+		openTokenStream();
 
 		getToken();
-		Statement statement = statement(); // build a parse tree
-		if ( ! t.isEmpty() )
-			displayln(t + " : Syntax Error, unexpected symbol");
-		else if ( ! syntaxErrorFound )
-			statement.printParseTree("");
+		if ( compactTree )
+		{
+			Ast ast = new Ast();
+			int root = new AstParser(this, ast).statement();
+			if ( tLen != 0 )
+				displayln(token() + " : Syntax Error, unexpected symbol");
+			else if ( ! syntaxErrorFound )
+			{
+				TreePrinter p = new TreePrinter(this);
+				ast.printParseTree(root, 0, p);
+				p.flush();
+			}
+		}
+		else
+		{
+			Statement statement = statement(); // build a parse tree
+			if ( tLen != 0 )
+				displayln(token() + " : Syntax Error, unexpected symbol");
+			else if ( ! syntaxErrorFound )
+			{
+				TreePrinter p = new TreePrinter(this);
+				statement.printParseTree(0, p);
+				p.flush();
+			}
+		}
 
-		closeIO();
+		return tLen == 0 && ! syntaxErrorFound;
+	}
+
+	public static void main(String argv[])
+	{
+		// argv[0]: input file containing a statement
+		// argv[1]: output file displaying the parse tree or error messages
+		// an optional leading "-compact" builds the compact parse tree "Ast"
+		// an optional leading "-cache" cacheDir takes the output from "CompilationCache" in cacheDir if it is there
+
+		Parser p = new Parser();
+		Path cacheDir = null;
+		int i = 0;
+		for ( ; argv[i].startsWith("-"); i++ )
+			if ( argv[i].equals("-compact") )
+				p.compactTree = true;
+			else if ( argv[i].equals("-cache") )
+				cacheDir = Paths.get(argv[++i]);
+		if ( cacheDir != null )
+			new CompilationCache(cacheDir, 0).run( "parse", p.compactTree, argv[i], argv[i+1] );
+		else
+			p.parse( argv[i], argv[i+1] );
 	}
 }
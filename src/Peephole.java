@@ -0,0 +1,236 @@
+/**
+
+ This class is a peephole optimizer for the instruction stream in "Code". It runs between code
+ generation and output, and rewrites short windows of instructions by the rules of "Rule",
+ counting how often each rule applied in "count".
+
+ Each pass copies the stream into new arrays, applying every rule that matches at the current
+ instruction; passes are repeated until one changes nothing, as a rewrite can expose another
+ (a removed goto makes its label unused, a retargeted jump makes a goto unreachable). The label
+ and load counts the rules rely on are taken at the start of each pass, and only decrease
+ during it, so a rule never acts on a count that has become too high.
+
+ A tableswitch and the n+1 gotos that follow it are kept as a unit: their gotos are retargeted
+ like any jump, but never removed, since their positions are the table.
+
+ The rewrites do not change what a program prints; see "Compiler" for the final values of
+ the variables.
+
+ **/
+
+class Peephole
+{
+	enum Rule
+	{
+		storeLoad   ("store x; load x       -> (nothing), if this is the only load of x"),
+		loadStore   ("load x; store x       -> (nothing)"),
+		invBranch   ("inv; iftrue L         -> iffalse L, and inv; iffalse L -> iftrue L"),
+		constBranch ("push k; iftrue L      -> goto L if k is true, else nothing; likewise for iffalse"),
+		jumpToJump  ("jump L, where L: goto M -> jump M"),
+		gotoNext    ("goto L; L:            -> L:"),
+		unreachable ("goto L; instructions  -> goto L, up to the next label"),
+		unusedLabel ("L: with no jump to L  -> (nothing)");
+
+		final String rewrite;
+
+		Rule(String r)
+		{
+			rewrite = r;
+		}
+	}
+
+	static final int LABEL = Op.label.ordinal(), GOTO = Op.goto_.ordinal(),
+	                 IFTRUE = Op.iftrue.ordinal(), IFFALSE = Op.iffalse.ordinal(),
+	                 LOAD = Op.load.ordinal(), STORE = Op.store.ordinal(), INV = Op.inv.ordinal(),
+	                 INTPUSH = Op.intpush.ordinal(), FLOATPUSH = Op.floatpush.ordinal(),
+	                 BOOLPUSH = Op.boolpush.ordinal(), TABLESWITCH = Op.tableswitch.ordinal();
+
+	final Code code;
+	final int[] count = new int[Rule.values().length]; // applications of each rule
+
+	int[] loads;   // loads of each variable
+	int[] jumps;   // jumps to each label
+	int[] labelAt; // index of each label in the stream
+
+	int[] op, arg; // the stream being copied by a pass
+	int n;
+
+	Peephole(Code code, int varNum)
+	{
+		this.code = code;
+		loads = new int[varNum];
+		jumps = new int[code.labelCount];
+		labelAt = new int[code.labelCount];
+	}
+
+	static Peephole optimize(Code code, int varNum)
+
+	// Rewrites "code", whose variables are 0 .. varNum-1, until no rule applies.
+
+	{
+		Peephole p = new Peephole(code, varNum);
+		while ( p.pass() )
+			;
+		return p;
+	}
+
+	static boolean isJump(int o)
+	{
+		return o == GOTO || o == IFTRUE || o == IFFALSE;
+	}
+
+	boolean pass()
+
+	// Returns true if some rule applied.
+
+	{
+		op = code.op;
+		arg = code.arg;
+		n = code.size;
+		int[] outOp = new int[Math.max(n, 16)], outArg = new int[Math.max(n, 16)];
+
+		java.util.Arrays.fill(loads, 0);
+		java.util.Arrays.fill(jumps, 0);
+		for ( int i = 0; i < n; i++ )
+			if ( op[i] == LOAD )
+				loads[arg[i]]++;
+			else if ( op[i] == LABEL )
+				labelAt[arg[i]] = i;
+			else if ( isJump(op[i]) )
+				jumps[arg[i]]++;
+
+		int before = total();
+		int j = 0; // output index
+		int i = 0;
+		while ( i < n )
+		{
+			int o = op[i], x = arg[i];
+			int o2 = i+1 < n ? op[i+1] : -1, x2 = i+1 < n ? arg[i+1] : 0;
+
+			if ( o == TABLESWITCH )
+			{
+				outOp[j] = o;
+				outArg[j++] = x;
+				for ( int k = 1; k <= x+1; k++ )
+				{
+					outOp[j] = GOTO;
+					outArg[j++] = resolve(arg[i+k]);
+				}
+				i += x+2;
+			}
+			else if ( o == STORE && o2 == LOAD && x2 == x && loads[x] == 1 )
+			{
+				count[Rule.storeLoad.ordinal()]++;
+				i += 2;
+			}
+			else if ( o == LOAD && o2 == STORE && x2 == x )
+			{
+				count[Rule.loadStore.ordinal()]++;
+				i += 2;
+			}
+			else if ( o == INV && (o2 == IFTRUE || o2 == IFFALSE) )
+			{
+				// the jump is rewritten in place and handled as a jump next
+				count[Rule.invBranch.ordinal()]++;
+				op[i+1] = o2 == IFTRUE ? IFFALSE : IFTRUE;
+				i++;
+			}
+			else if ( (o == INTPUSH || o == BOOLPUSH || o == FLOATPUSH) && (o2 == IFTRUE || o2 == IFFALSE) )
+			{
+				count[Rule.constBranch.ordinal()]++;
+				boolean truth = o == FLOATPUSH ? Float.intBitsToFloat(x) != 0 : x != 0;
+				if ( truth == (o2 == IFTRUE) )
+				{
+					op[i+1] = GOTO; // handled as a jump next
+					i++;
+				}
+				else
+					i += 2;
+			}
+			else if ( isJump(o) )
+			{
+				int t = resolve(x);
+				if ( t != x )
+					count[Rule.jumpToJump.ordinal()]++;
+				i++;
+				if ( o == GOTO && labelFollows(i, t) )
+				{
+					count[Rule.gotoNext.ordinal()]++;
+					continue;
+				}
+				outOp[j] = o;
+				outArg[j++] = t;
+				if ( o == GOTO && i < n && op[i] != LABEL )
+				{
+					count[Rule.unreachable.ordinal()]++;
+					while ( i < n && op[i] != LABEL )
+						i++;
+				}
+			}
+			else if ( o == LABEL && jumps[x] == 0 )
+			{
+				count[Rule.unusedLabel.ordinal()]++;
+				i++;
+			}
+			else
+			{
+				outOp[j] = o;
+				outArg[j++] = x;
+				i++;
+			}
+		}
+		code.op = outOp;
+		code.arg = outArg;
+		code.size = j;
+		return total() != before;
+	}
+
+	int resolve(int l)
+
+	// Returns the label that a jump to "l" ends at after following gotos.
+	// Returns "l" if the gotos do not end within a few hops, as they do in a cycle of gotos.
+
+	{
+		int start = l;
+		for ( int hops = 0; hops < 64; hops++ )
+		{
+			int i = labelAt[l];
+			while ( i < n && op[i] == LABEL )
+				i++;
+			if ( i == n || op[i] != GOTO )
+				return l;
+			l = arg[i];
+		}
+		return start;
+	}
+
+	boolean labelFollows(int i, int l)
+
+	// Returns true if label "l" is among the labels starting at index i.
+
+	{
+		for ( ; i < n && op[i] == LABEL; i++ )
+			if ( arg[i] == l )
+				return true;
+		return false;
+	}
+
+	int total()
+	{
+		int t = 0;
+		for ( int c : count )
+			t += c;
+		return t;
+	}
+
+	String report()
+
+	// Returns one line per rule: its count and its rewrite.
+
+	{
+		StringBuilder b = new StringBuilder();
+		for ( Rule r : Rule.values() )
+			b.append(String.format("%8d  %-12s %s%n", count[r.ordinal()], r.name(), r.rewrite));
+		return b.toString();
+	}
+}
@@ -1,7 +1,45 @@
 abstract class Primary
 {
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.display(indent + indent.length() + " <primary>");
+        p.start(depth, "<primary>");
+    }
+
+    Primary fold()
+
+    // Returns the primary with its constant subexpressions evaluated; a literal, or this primary.
+
+    {
+        return this;
+    }
+
+    boolean scan(LoopOptimizer o)
+
+    // Reports the variables this primary reads to "o". Returns true if its evaluation may fail.
+
+    {
+        return false;
+    }
+
+    int hoist(LoopOptimizer o)
+
+    // Returns the level of this primary in the loops of "o", as described in LoopOptimizer,
+    // replacing its subexpressions of lower level by temporaries.
+
+    {
+        return 0;
+    }
+
+    abstract byte infer(TypeInference t); // returns the type of this primary, as described in TypeInference
+
+    abstract void emitInstructions(Compiler c);
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+
+    // Same as Expr.emitBranch(): computes the value and jumps on it.
+
+    {
+        emitInstructions(c);
+        c.code.emit(onTrue ? Op.iftrue : Op.iffalse, target);
     }
 }
\ No newline at end of file
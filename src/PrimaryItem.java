@@ -1,6 +1,9 @@
 abstract class PrimaryItem
 {
     Primary primary;
+    byte type; // the type of "primary", given by TypeInference
 
-    abstract void printParseTree(String indent);
+    abstract void printParseTree(int depth, TreePrinter p);
+
+    abstract byte emitInstructions(Compiler c, byte left); // emits the item after an operand of type "left"; returns the type of the result
 }
\ No newline at end of file
@@ -7,12 +7,37 @@ class Print extends Statement
         expr = e;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<print>");
+        expr.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+    {
+        expr.fold();
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        expr.scan(o);
+    }
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <print>");
-        expr.printParseTree(indent1+" ");
+    void hoist(LoopOptimizer o)
+    {
+        expr = o.hoist(expr);
+    }
+
+    void infer(TypeInference t)
+    {
+        expr.infer(t);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        expr.emitInstructions(c);
+        c.code.emit(Op.print);
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/**
+
+ This class generates valid but pathological programs for measuring how compile time grows with input size.
+ Each shape stresses one dimension of the lexer, parser or tree printer:
+
+ longId   an assignment whose identifiers are "size" characters long
+ longNum  an assignment of a float literal with "size" digits
+ nestIf   "size" nested if statements
+ nestWhile "size" nested while loops
+ nestBlock "size" nested blocks
+ switch   a switch statement with "size" labeled cases
+ addChain an assignment of a sum of "size" terms
+ mulChain an assignment of a product of "size" factors
+ stmts    a block of "size" assignment statements
+
+ Usage:
+
+ java ProgramGenerator shape size outputFileName
+
+ **/
+
+import java.io.*;
+
+public class ProgramGenerator
+{
+	static final String[] shapes = { "longId", "longNum", "nestIf", "nestWhile", "nestBlock", "switch", "addChain", "mulChain", "stmts" };
+
+	public static String generate(String shape, int size)
+	{
+		StringBuilder b = new StringBuilder();
+
+		if ( shape.equals("longId") )
+		{
+			String id = identifier(size);
+			b.append(id).append(" = ").append(id).append(" + 1;\n");
+		}
+		else if ( shape.equals("longNum") )
+		{
+			b.append("x = ");
+			for ( int i = 0; i < size; i++ )
+				b.append( (char) ('1' + i % 9) );
+			b.append(".5;\n");
+		}
+		else if ( shape.equals("nestIf") )
+		{
+			for ( int i = 0; i < size; i++ )
+				b.append("if (x").append(i % 10).append(" < 3)\n");
+			b.append("y = 1;\n");
+		}
+		else if ( shape.equals("nestWhile") )
+		{
+			for ( int i = 0; i < size; i++ )
+				b.append("while (x").append(i % 10).append(" != 0)\n");
+			b.append("x0 = x0 - 1;\n");
+		}
+		else if ( shape.equals("nestBlock") )
+		{
+			for ( int i = 0; i < size; i++ )
+				b.append('{');
+			b.append("\nx = 1;\n");
+			for ( int i = 0; i < size; i++ )
+				b.append('}');
+			b.append('\n');
+		}
+		else if ( shape.equals("switch") )
+		{
+			b.append("switch (state)\n{\n");
+			for ( int i = 0; i < size; i++ )
+				b.append("case ").append(i).append(": state = ").append(i+1).append(";\n");
+			b.append("default: state = 0;\n}\n");
+		}
+		else if ( shape.equals("addChain") || shape.equals("mulChain") )
+		{
+			String op = shape.equals("addChain") ? " + " : " * ";
+			b.append("x = a");
+			for ( int i = 1; i < size; i++ )
+				b.append(op).append( i % 2 == 0 ? "a" : "2" );
+			b.append(";\n");
+		}
+		else if ( shape.equals("stmts") )
+		{
+			b.append("{\n");
+			for ( int i = 0; i < size; i++ )
+				b.append("x").append(i % 100).append(" = x").append((i+1) % 100).append(" * 3 + ").append(i).append(";\n");
+			b.append("}\n");
+		}
+		else
+			throw new IllegalArgumentException("unknown shape " + shape);
+
+		return b.toString();
+	}
+
+	static String identifier(int length)
+	{
+		StringBuilder b = new StringBuilder(length);
+		b.append('v');
+		for ( int i = 1; i < length; i++ )
+			b.append( (char) ('a' + i % 26) );
+		return b.toString();
+	}
+
+	public static void main(String argv[]) throws IOException
+	{
+		// argv[0]: shape of the program
+		// argv[1]: size of the program
+		// argv[2]: output file receiving the program
+
+		if ( argv.length != 3 )
+		{
+			System.err.println("usage: java ProgramGenerator shape size outputFileName");
+			System.err.println("shapes: " + String.join(" ", shapes));
+			System.exit(2);
+		}
+
+		Writer w = new FileWriter(argv[2]);
+		w.write( generate(argv[0], Integer.parseInt(argv[1])) );
+		w.close();
+	}
+}
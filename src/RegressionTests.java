@@ -0,0 +1,1071 @@
+/**
+
+ This class runs the regression tests of the compiler, one or more per feature.
+
+ A golden test runs one of the tools on an input file of the folder "tests" and compares what
+ it displays with the expected output stored next to the input, as output1.txt is stored next
+ to input1.txt: the expected output of "tests/name.txt" is "tests/name.out". A differential
+ test compares two ways of computing the same result, like the compiled program run with and
+ without an optimization, over the inputs of "tests" or over generated programs.
+
+ Usage:
+
+ java RegressionTests [-update] [test ...]
+
+ runs the given tests, or all of them, from the src folder, and displays the name and result
+ of each. -update rewrites the expected output of the golden tests that fail, to be reviewed
+ before it is committed. The exit status is 1 if any test fails.
+
+ **/
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RegressionTests
+{
+	static final Path dir = Paths.get("tests");
+	static final long STACK_SIZE = 1L << 28; // the parser is recursive
+
+	static boolean update = false;
+
+	static abstract class Test
+	{
+		String name;
+
+		Test(String n)
+		{
+			name = n;
+		}
+
+		abstract void run() throws Exception; // throws an AssertionError if the test fails
+	}
+
+	static byte[] input(String name) throws IOException
+	{
+		return Files.readAllBytes( dir.resolve(name + ".txt") );
+	}
+
+	static void golden(String name, String got) throws IOException
+
+	// Compares "got" with the expected output of input "name".
+
+	{
+		Path expected = dir.resolve(name + ".out");
+		String want = Files.exists(expected) ? new String(Files.readAllBytes(expected), StandardCharsets.ISO_8859_1) : null;
+		if ( got.equals(want) )
+			return;
+		if ( update )
+		{
+			Files.write( expected, got.getBytes(StandardCharsets.ISO_8859_1) );
+			return;
+		}
+		throw new AssertionError( name + ".out differs; displayed:" + System.lineSeparator() + got );
+	}
+
+	static void expect(String what, Object want, Object got)
+	{
+		if ( ! Objects.equals(want, got) )
+			throw new AssertionError( what + ": expected " + want + ", got " + got );
+	}
+
+	// VM
+
+	static final Test vmRunTimeError = new Test("vm-runtime-error")
+	{
+		void run() throws IOException
+		{
+			// the values printed before a division by zero are displayed before the error
+			for ( boolean tiered : new boolean[] { true, false } )
+			{
+				StringWriter w = new StringWriter();
+				expect( "run result", false, VM.runProgram(input(name), tiered, true, new PrintWriter(w)) );
+				String all = w.toString();
+				golden(name, all);
+
+				// the default pipeline prints the same, without the variables
+				w = new StringWriter();
+				expect( "run result", false, VM.runProgram(input(name), tiered, false, new PrintWriter(w)) );
+				expect( "without -vars", all.replaceAll("(?m)^\\w+ = .*\\R", ""), w.toString() );
+			}
+		}
+	};
+
+	static String vmOutput(byte[] src, boolean tiered) throws IOException
+
+	// Returns what the VM displays for "src" with the final values of the variables.
+
+	{
+		StringWriter w = new StringWriter();
+		VM.runProgram(src, tiered, true, new PrintWriter(w));
+		return w.toString();
+	}
+
+	// LoopCompiler
+
+	static final Test tiered = new Test("tiered")
+	{
+		void run() throws IOException
+		{
+			// hot loops over int, float and bool values, with a switch, nested loops and a division
+			// by zero in a translated loop, give what the interpreter gives
+			String got = vmOutput(input(name), true);
+			golden(name, got);
+			expect( "interpreted", vmOutput(input(name), false), got );
+
+			// the four loops that get hot are translated, with the do loop whose condition ends
+			// in a backward iffalse
+			Compiler c = new Compiler();
+			c.reuseSlots = c.optimizeLoops = c.peephole = false;
+			byte[] src = input(name);
+			c.setInput(src, src.length);
+			c.outStream = new PrintWriter( new StringWriter() );
+			c.translate();
+			c.tokens.cancel();
+			VM vm = new VM(c);
+			try
+			{
+				vm.run(c);
+			}
+			catch ( ArithmeticException e )
+			{
+			}
+			int translated = 0;
+			for ( Object loop : vm.loops )
+				if ( loop != null )
+					translated++;
+			expect( "loops translated", 4, translated );
+
+			// the programs of VMBenchmark, with fewer iterations
+			for ( String[] p : VMBenchmark.programs )
+			{
+				src = p[1].replaceAll("\\d{4,}", "3000").getBytes(StandardCharsets.ISO_8859_1);
+				expect( p[0], vmOutput(src, false), vmOutput(src, true) );
+			}
+		}
+	};
+
+	static String runProgram(String name, boolean foldConstants, boolean compact) throws IOException
+
+	// Returns what the VM displays for input "name", compiled without the passes that change the
+	// final values of the variables.
+
+	{
+		Compiler c = new Compiler();
+		c.reuseSlots = c.optimizeLoops = c.peephole = false;
+		c.foldConstants = foldConstants;
+		c.compactTree = compact;
+		StringWriter w = new StringWriter();
+		VM.runProgram(c, input(name), true, true, new PrintWriter(w));
+		return w.toString();
+	}
+
+	static final List<Path> tempDirs = new ArrayList<Path>(); // deleted when the tests are done
+
+	static Path tempDir() throws IOException
+	{
+		Path d = Files.createTempDirectory("tests");
+		tempDirs.add(d);
+		return d;
+	}
+
+	static void delete(Path p) throws IOException
+	{
+		if ( Files.isDirectory(p) )
+			try ( DirectoryStream<Path> s = Files.newDirectoryStream(p) )
+			{
+				for ( Path q : s )
+					delete(q);
+			}
+		Files.deleteIfExists(p);
+	}
+
+	static String output(String kind, byte[] src)
+
+	// Returns the output of Compiler.run(kind, false, src): that of Compiler.compile(),
+	// Parser.parse() or LexAnalyzer.listTokens() for "src".
+
+	{
+		StringWriter w = new StringWriter();
+		Compiler.run( kind, false, src, new PrintWriter(w) );
+		return w.toString();
+	}
+
+	static String compile(Compiler c, byte[] src)
+
+	// Returns the output of c.compileInput() for "src".
+
+	{
+		StringWriter w = new StringWriter();
+		c.setInput(src, src.length);
+		c.outStream = new PrintWriter(w);
+		c.compileInput();
+		c.closeIO();
+		return w.toString();
+	}
+
+	static Compiler unoptimized()
+
+	// Returns a compiler that emits the instructions of each node as they are, without any pass.
+
+	{
+		Compiler c = new Compiler();
+		c.foldConstants = c.optimizeLoops = c.inferTypes = c.peephole = c.reuseSlots = false;
+		return c;
+	}
+
+	static String read(File f) throws IOException
+	{
+		return new String( Files.readAllBytes(f.toPath()), StandardCharsets.ISO_8859_1 );
+	}
+
+	// per-instance compiler state
+
+	static final Test reentrant = new Test("reentrant")
+	{
+		void run() throws Exception
+		{
+			// compilers and parsers on many threads at once give the outputs of one at a time
+			final List<byte[]> inputs = new ArrayList<byte[]>();
+			inputs.add( Files.readAllBytes(Paths.get("input1.txt")) );
+			inputs.add( Files.readAllBytes(Paths.get("input2.txt")) );
+			for ( String shape : ProgramGenerator.shapes )
+				inputs.add( ProgramGenerator.generate(shape, 200).getBytes(StandardCharsets.ISO_8859_1) );
+
+			final String[] kinds = { "compile", "parse", "lex" };
+			List<String> want = new ArrayList<String>();
+			for ( int i = 0; i < 4 * inputs.size(); i++ )
+				want.add( output(kinds[i % 3], inputs.get(i % inputs.size())) );
+
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			try
+			{
+				List<Future<String>> got = new ArrayList<Future<String>>();
+				for ( int i = 0; i < want.size(); i++ )
+				{
+					final int r = i;
+					got.add( pool.submit( new Callable<String>()
+					{
+						public String call()
+						{
+							return output( kinds[r % 3], inputs.get(r % inputs.size()) );
+						}
+					} ) );
+				}
+				for ( int i = 0; i < want.size(); i++ )
+					expect( "request " + i, want.get(i), got.get(i).get() );
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+	};
+
+	// IO
+
+	static final Test byteInput = new Test("byte-input")
+	{
+		void run() throws IOException
+		{
+			// every byte above 127 is one character, reported as a lexical error
+			byte[] src = input(name);
+			String listed = output("lex", src);
+			golden(name, listed);
+
+			// the input read from a file is the same
+			Path out = tempDir().resolve(name + ".out");
+			LexAnalyzer lex = new LexAnalyzer();
+			lex.setIO( dir.resolve(name + ".txt").toString(), out.toString() );
+			lex.listTokens();
+			lex.closeIO();
+			expect( "from a file", listed, read(out.toFile()) );
+
+			// only the first "len" bytes of the buffer are input
+			byte[] longer = Arrays.copyOf(src, src.length + 10);
+			Arrays.fill(longer, src.length, longer.length, (byte) 'x');
+			StringWriter w = new StringWriter();
+			lex = new LexAnalyzer();
+			lex.setInput(longer, src.length);
+			lex.outStream = new PrintWriter(w);
+			lex.listTokens();
+			lex.closeIO();
+			expect( "prefix of a buffer", listed, w.toString() );
+		}
+	};
+
+	// LexAnalyzer
+
+	static final Test tokenSpan = new Test("token-span")
+	{
+		void run() throws IOException
+		{
+			// tokens not separated by white space, and one longer than any fixed buffer
+			byte[] src = input(name);
+			golden( name, output("lex", src) );
+
+			// the value of an <int> read from its span is that of its text
+			LexAnalyzer lex = new LexAnalyzer();
+			lex.setInput(src, src.length);
+			for ( int k; (k = lex.nextKind()) != -1; )
+				if ( lex.state == State.Int )
+					expect( "value of " + lex.token(), Integer.parseInt(lex.token()), lex.tokenInt() );
+		}
+	};
+
+	static final Test keywords = new Test("keywords")
+	{
+		void run() throws IOException
+		{
+			// keywords next to other tokens, and identifiers that differ from a keyword by a character
+			golden( name, output("lex", input(name)) );
+
+			// each keyword is recognized, and its proper prefixes, its extensions and its capitals are identifiers
+			Set<String> keywords = new HashSet<String>();
+			StringBuilder b = new StringBuilder();
+			for ( State s : State.values() )
+				if ( s.name().startsWith("Keyword_") )
+				{
+					String k = s.name().substring(8);
+					keywords.add(k);
+					for ( int i = 1; i <= k.length(); i++ )
+						b.append( k, 0, i ).append(' ');
+					b.append(k).append("x ").append(k).append("1 x").append(k).append(' ').append( k.toUpperCase() ).append('\n');
+				}
+			byte[] src = b.toString().getBytes(StandardCharsets.ISO_8859_1);
+			LexAnalyzer lex = new LexAnalyzer();
+			lex.setInput(src, src.length);
+			for ( int k; (k = lex.nextKind()) != -1; )
+				expect( lex.token(), keywords.contains(lex.token()) ? "Keyword_" + lex.token() : "Id", lex.state.name() );
+		}
+	};
+
+	static final Test dfaClasses = new Test("dfa-classes")
+	{
+		void run() throws IOException
+		{
+			// every printable or non-ASCII byte alone, every pair of the characters that start or continue a token,
+			// and floats and operators cut at every state of the DFA
+			golden( name, output("lex", input(name)) );
+		}
+	};
+
+	// TokenStream
+
+	static final Test tokenStream = new Test("token-stream")
+	{
+		void run()
+		{
+			// the tokens of a plain scan, then the end-of-stream token
+			byte[] src = ProgramGenerator.generate("stmts", 100).getBytes(StandardCharsets.ISO_8859_1);
+			List<State> kinds = new ArrayList<State>();
+			LexAnalyzer lex = new LexAnalyzer();
+			lex.setInput(src, src.length);
+			for ( int k; (k = lex.nextKind()) != -1; )
+				kinds.add( State.values()[k & ~TokenStream.INVALID] );
+			kinds.add(State.Start);
+
+			// every lookahead at every position, as the ring wraps around many times
+			for ( boolean threaded : new boolean[] { false, true } )
+			{
+				LexAnalyzer producer = new LexAnalyzer();
+				producer.setInput(src, src.length);
+				TokenStream ts = new TokenStream(producer, TokenStream.BATCH, threaded);
+				LexAnalyzer consumer = new LexAnalyzer();
+				try
+				{
+					for ( int i = 0; i < kinds.size() + 2; i++ )
+					{
+						ts.next(consumer);
+						int current = Math.min( i, kinds.size()-1 ); // the end-of-stream token is returned again
+						expect( "token " + i, kinds.get(current), consumer.state );
+						for ( int k = 1; k <= TokenStream.BATCH; k++ )
+							expect( "peek(" + k + ") at token " + i, current+k < kinds.size() ? kinds.get(current+k) : State.Start, ts.peek(k) );
+					}
+					boolean rejected = false;
+					try
+					{
+						ts.peek(TokenStream.BATCH + 1);
+					}
+					catch ( IllegalArgumentException e )
+					{
+						rejected = true;
+					}
+					expect( "peek beyond the ring rejected", true, rejected );
+				}
+				finally
+				{
+					ts.cancel();
+				}
+			}
+		}
+	};
+
+	// BatchCompiler
+
+	static final Test batchCompile = new Test("batch-compile")
+	{
+		void run() throws IOException, InterruptedException
+		{
+			// inputs with the same output file are found before any is compiled
+			List<File> clash = Arrays.asList( new File("d1/p.txt"), new File("d1/p.src"), new File("d2/p.txt"), new File("d2/q.txt") );
+			expect( "conflicts", 2, BatchCompiler.conflicts(clash, new File("out")).size() );
+
+			// a file the parser cannot handle fails alone, and the others are compiled as by Compiler
+			Path in = tempDir(), out = tempDir();
+			Files.write( in.resolve("deep.txt"), ProgramGenerator.generate("nestBlock", 1000000).getBytes(StandardCharsets.ISO_8859_1) );
+			Files.copy( Paths.get("input1.txt"), in.resolve("input1.txt") );
+			Files.copy( Paths.get("input2.txt"), in.resolve("input2.txt") );
+			List<BatchCompiler.Result> results = BatchCompiler.compileAll( BatchCompiler.collectInputs(new String[] { in.toString() }, 0), out.toFile(), 2 );
+			expect( "files", 3, results.size() );
+			for ( BatchCompiler.Result r : results )
+			{
+				String name = r.inFile.getName();
+				if ( name.equals("deep.txt") )
+					expect( "deep.txt failure", true, r.failure != null && r.failure.contains("StackOverflowError") );
+				else
+					expect( name, output( "compile", Files.readAllBytes(r.inFile.toPath()) ), read(BatchCompiler.outputFor(r.inFile, out.toFile())) );
+			}
+		}
+	};
+
+	// Benchmark
+
+	static final Test benchmark = new Test("benchmark")
+	{
+		void run() throws IOException
+		{
+			// the checked-in corpus parses, and every stage counts the units it processes
+			Benchmark.load(Benchmark.DEFAULT_CORPUS);
+			long tokens = 0;
+			for ( byte[] src : Benchmark.corpus )
+			{
+				LexAnalyzer lex = new LexAnalyzer();
+				lex.setInput(src, src.length);
+				while ( lex.nextKind() != -1 )
+					tokens++;
+			}
+			expect( "lex", tokens, Benchmark.stage("lex").getAsLong() );
+			long nodes = Benchmark.stage("parse").getAsLong();
+			expect( "ast", nodes, Benchmark.stage("ast").getAsLong() );
+			expect( "print", nodes, Benchmark.stage("print").getAsLong() );
+			expect( "compile", (long) Benchmark.corpus.length, Benchmark.stage("compile").getAsLong() );
+		}
+	};
+
+	// ProgramGenerator
+
+	static final Test programGenerator = new Test("program-generator")
+	{
+		void run()
+		{
+			// every shape is a valid program, from the smallest size up
+			for ( String shape : ProgramGenerator.shapes )
+				for ( int size : new int[] { 1, 2, 3, 1000, 2000 } )
+				{
+					byte[] src = ProgramGenerator.generate(shape, size).getBytes(StandardCharsets.ISO_8859_1);
+					for ( String kind : new String[] { "parse", "compile" } )
+						expect( kind + " " + shape + " " + size, true, Compiler.run(kind, false, src, new PrintWriter(new StringWriter())) );
+				}
+
+			// the length of a program is linear in its size, which ScalingCheck assumes
+			for ( String shape : ProgramGenerator.shapes )
+			{
+				double ratio = (double) ProgramGenerator.generate(shape, 20000).length() / ProgramGenerator.generate(shape, 10000).length();
+				expect( "length ratio of " + shape + " in [1.9, 2.2]", true, ratio >= 1.9 && ratio <= 2.2 );
+			}
+		}
+	};
+
+	// Compiler
+
+	static final Test emit = new Test("emit")
+	{
+		void run() throws IOException
+		{
+			// every statement and operator, emitted without the passes
+			golden( name, compile(unoptimized(), input(name)) );
+		}
+	};
+
+	// TreePrinter
+
+	static final Test parseTree = new Test("parse-tree")
+	{
+		void run() throws IOException
+		{
+			// the sample inputs, and every statement and operator
+			for ( int i = 1; i <= 2; i++ )
+				expect( "input" + i, read(new File("output" + i + ".txt")), output( "parse", Files.readAllBytes(Paths.get("input" + i + ".txt")) ) );
+			golden( name, output("parse", input(name)) );
+
+			// a line is indented by the depth of its node, also deeper than the spaces kept by TreePrinter
+			String tree = output( "parse", ProgramGenerator.generate("nestBlock", 300).getBytes(StandardCharsets.ISO_8859_1) );
+			for ( String line : tree.split("\\R") )
+			{
+				String depth = line.trim().split(" ")[0];
+				expect( "indentation of " + line.trim(), depth, Integer.toString( line.indexOf(depth) ) );
+			}
+		}
+	};
+
+	// Ast
+
+	static List<byte[]> samples() throws IOException
+
+	// Returns the sample inputs, those of the golden tests, one program of each generated shape
+	// and a few programs with syntax errors.
+
+	{
+		List<byte[]> inputs = new ArrayList<byte[]>();
+		inputs.add( Files.readAllBytes(Paths.get("input1.txt")) );
+		inputs.add( Files.readAllBytes(Paths.get("input2.txt")) );
+		try ( DirectoryStream<Path> s = Files.newDirectoryStream(dir, "*.txt") )
+		{
+			for ( Path p : s )
+				inputs.add( Files.readAllBytes(p) );
+		}
+		for ( String shape : ProgramGenerator.shapes )
+			inputs.add( ProgramGenerator.generate(shape, 1000).getBytes(StandardCharsets.ISO_8859_1) );
+		for ( String error : new String[] { "{ x = ; }", "if (x) else y = 1;", "switch (x) { case 1: case 1: }", "x = 1", "{ x = (1 + 2; }", "print 1; print 2;" } )
+			inputs.add( error.getBytes(StandardCharsets.ISO_8859_1) );
+		return inputs;
+	}
+
+	static final Test compactTree = new Test("compact-tree")
+	{
+		void run() throws IOException
+		{
+			// the Ast prints the parse tree, or the syntax errors, of the object tree
+			for ( byte[] src : samples() )
+			{
+				StringWriter w = new StringWriter();
+				Compiler.run( "parse", true, src, new PrintWriter(w) );
+				expect( "-compact parse of " + new String(src, 0, Math.min(src.length, 40), StandardCharsets.ISO_8859_1), output("parse", src), w.toString() );
+			}
+		}
+	};
+
+	// AstParser
+
+	static final Test precedence = new Test("precedence")
+	{
+		void run() throws IOException
+		{
+			// left associativity and the precedence of each operator, in the code of -compact
+			Compiler c = unoptimized();
+			c.compactTree = true;
+			golden( name, compile(c, input(name)) );
+
+			// -compact emits the code of the object tree without the passes it does not run
+			for ( byte[] src : samples() )
+			{
+				c = new Compiler();
+				c.compactTree = true;
+				Compiler tree = new Compiler();
+				tree.foldConstants = tree.optimizeLoops = tree.inferTypes = false;
+				expect( "-compact compile of " + new String(src, 0, Math.min(src.length, 40), StandardCharsets.ISO_8859_1), compile(tree, src), compile(c, src) );
+			}
+		}
+	};
+
+	// Fold
+
+	static final Test fold =new Test("fold")
+	{
+		void run() throws IOException
+		{
+			// constant subexpressions and decided conditionals, with fold() alone
+			Compiler c = unoptimized();
+			c.foldConstants = true;
+			golden( name, compile(c, input(name)) );
+
+			// operations left to run time fail there as they do without folding
+			expect( "without folding", runProgram(name, true, false), runProgram(name, false, false) );
+		}
+	};
+
+	static final Test foldMayFail = new Test("fold-may-fail")
+	{
+		void run() throws IOException
+		{
+			// an && or || operand that may divide by zero is evaluated, as it is without folding
+			for ( String op : new String[] { "and", "or" } )
+			{
+				String in = name + "-" + op;
+				String folded = runProgram(in, true, false);
+				golden(in, folded);
+				expect( in + " without folding", folded, runProgram(in, false, false) );
+				expect( in + " with -compact", folded, runProgram(in, true, true) );
+			}
+		}
+	};
+
+	static String printed(Compiler c, byte[] src) throws IOException
+
+	// Returns what the VM displays for "src" compiled by "c", without the values of the variables.
+
+	{
+		StringWriter w = new StringWriter();
+		VM.runProgram(c, src, true, false, new PrintWriter(w));
+		return w.toString();
+	}
+
+	// SlotAllocator
+
+	static final Test slots = new Test("slots")
+	{
+		void run() throws IOException
+		{
+			// variables share a slot when their live ranges do not overlap, and those live in a loop
+			// keep theirs for the whole loop
+			Compiler c = unoptimized();
+			c.reuseSlots = true;
+			golden( name, compile(c, input(name)) );
+
+			// programs print the same with and without slot reuse
+			for ( byte[] src : samples() )
+			{
+				Compiler off = new Compiler();
+				off.reuseSlots = false;
+				expect( "without slot reuse", printed(off, src), printed(new Compiler(), src) );
+			}
+		}
+	};
+
+	// SwitchLowering
+
+	static final Test switchLowering = new Test("switch-lowering")
+	{
+		void run() throws IOException
+		{
+			// a few labels compared in turn; a jump table, binary search and a label beyond MAX_LABEL
+			golden( name, compile(unoptimized(), input(name)) );
+
+			// every value, int or float, reaches the case an if-else chain reaches
+			int[][] labelSets = { { 14, 10, 11, 12, 15, 0, 1000, 5000, 70000 }, { 1, 2, 3, 4, SwitchLowering.MAX_LABEL + 1 } };
+			for ( int[] labels : labelSets )
+			{
+				StringBuilder sw = new StringBuilder("switch (v) {"), chain = new StringBuilder();
+				for ( int l : labels )
+				{
+					sw.append(" case ").append(l).append(": print ").append(l).append(';');
+					chain.append(" if (v == ").append(l).append(") print ").append(l).append("; else");
+				}
+				sw.append(" default: print -1; }");
+				chain.append(" print -1;");
+
+				StringBuilder values = new StringBuilder();
+				for ( String v : new String[] { "4999", "5000", "5001", "69999", "70000", "16777216", "16777217", "16777218", "12.0", "12.5", "1000.0" } )
+					values.append(" v = ").append(v).append("; @");
+				String program = "{ v = -3; while (v < 1003) { @ v = v + 1; }" + values + " }";
+				byte[] withSwitch = program.replace("@", sw).getBytes(StandardCharsets.ISO_8859_1);
+				byte[] withChain = program.replace("@", chain).getBytes(StandardCharsets.ISO_8859_1);
+				for ( boolean tiered : new boolean[] { true, false } )
+					expect( Arrays.toString(labels) + (tiered ? " tiered" : " interpreted"), vmOutput(withChain, tiered), vmOutput(withSwitch, tiered) );
+			}
+		}
+	};
+
+	// emitBranch()
+
+	static final Test shortCircuit = new Test("short-circuit")
+	{
+		void run() throws IOException
+		{
+			// conditions of every statement as jumps, whose operands that would fail are not reached
+			golden( name, compile(unoptimized(), input(name)) );
+			String want = String.join( System.lineSeparator(), "1", "3", "3", "2", "0", "1", "" );
+			expect( "printed", want, printed(unoptimized(), input(name)) );
+			expect( "printed with the passes", want, printed(new Compiler(), input(name)) );
+		}
+	};
+
+	// Peephole
+
+	static final Test peephole = new Test("peephole")
+	{
+		void run() throws IOException
+		{
+			// every rule, with the count of each
+			Compiler c = unoptimized();
+			c.peephole = true;
+			String code = compile(c, input(name));
+			golden( name, code + c.peepholeStats.report() );
+
+			// programs print the same with and without the rewrites
+			for ( byte[] src : samples() )
+			{
+				Compiler off = new Compiler();
+				off.peephole = false;
+				expect( "without peephole", printed(off, src), printed(new Compiler(), src) );
+			}
+		}
+	};
+
+	// LoopOptimizer
+
+	static final Test loopOptimizer = new Test("loop-optimizer")
+	{
+		void run() throws IOException
+		{
+			// dead stores and invariant subexpressions hoisted out of nested loops
+			Compiler c = unoptimized();
+			c.optimizeLoops = true;
+			golden( name, compile(c, input(name)) );
+
+			// programs print the same with and without the pass
+			for ( byte[] src : samples() )
+			{
+				Compiler off = new Compiler();
+				off.optimizeLoops = false;
+				expect( "without optimizeLoops", printed(off, src), printed(new Compiler(), src) );
+			}
+		}
+	};
+
+	// TypeInference
+
+	static final Test typeInference = new Test("type-inference")
+	{
+		void run() throws IOException
+		{
+			// int, float and bool operands, int operands of float operators, variables of two
+			// types and variables read before they are assigned
+			Compiler c = unoptimized();
+			c.inferTypes = true;
+			byte[] src = input(name);
+			golden( name, compile(c, src) );
+			c = unoptimized();
+			c.inferTypes = true;
+			expect( "without inferTypes", printed(unoptimized(), src), printed(c, src) );
+
+			// programs print the same with and without the typed instructions
+			for ( byte[] s : samples() )
+			{
+				Compiler off = new Compiler();
+				off.inferTypes = false;
+				expect( "without inferTypes", printed(off, s), printed(new Compiler(), s) );
+			}
+		}
+	};
+
+	// IncrementalParser
+
+	static String edit(IncrementalParser p, int from, int to, byte[] text)
+
+	// Applies the edit to "p" and returns what it displays: the parse tree or the error messages.
+
+	{
+		StringWriter w = new StringWriter();
+		p.outStream = new PrintWriter(w);
+		if ( p.edit(from, to, text) )
+		{
+			TreePrinter tp = new TreePrinter(p);
+			p.tree().printParseTree(0, tp);
+			tp.flush();
+		}
+		p.outStream.flush();
+		return w.toString();
+	}
+
+	static final Test incremental = new Test("incremental")
+	{
+		void run() throws IOException
+		{
+			// each edit replaces the first occurrence of a text, and displays the work it did
+			String[][] edits = {
+				{ "b = 2", "b = 20" },
+				{ "c = a + b", "c = a + b * 2" },
+				{ "print a * b;", "print a * b; print c;" },
+				{ "a = a + 1", "a = a +" },
+				{ "a = a +", "a = a + 1" },
+				{ "\tif ( a < b )\n", "" },
+				{ "while ( a < 10 )", "do" },
+				{ "a = a + 1;", "a = a + 1; while ( a < 10 );" },
+			};
+			String src = new String(input(name), StandardCharsets.ISO_8859_1);
+			IncrementalParser p = new IncrementalParser();
+			p.outStream = new PrintWriter( Writer.nullWriter() );
+			p.parse( input(name), src.length() );
+			StringBuilder work = new StringBuilder();
+			for ( String[] e : edits )
+			{
+				int from = src.indexOf(e[0]);
+				String got = edit( p, from, from + e[0].length(), e[1].getBytes(StandardCharsets.ISO_8859_1) );
+				src = src.substring(0, from) + e[1] + src.substring(from + e[0].length());
+				expect( "parse after edit", output("parse", src.getBytes(StandardCharsets.ISO_8859_1)), got );
+				work.append( e[0].trim() + " -> " + e[1].trim() + ": " + p.lexedTokens + " tokens lexed, "
+				             + p.parsedTokens + " tokens parsed, " + p.reusedStatements + " statements reused"
+				             + System.lineSeparator() );
+			}
+			golden( name, work.toString() );
+
+			// random edits of the samples, each followed by the edit that undoes it, display what a
+			// parse of the whole edited input displays: a range replaced by a random text, which
+			// mostly gives a syntax error, a number replaced, or a statement inserted after a ; or {
+			String[] texts = { "", " ", "x", "12", "2.5", "+", "*", "<", "!", ";", "a = 2;", "{", "}",
+			                   "( ", " )", "if ( x ) ", "else ", "print y;", "while ( a < 3 ) ", "do ", "case 1:" };
+			Random random = new Random(1);
+			List<byte[]> inputs = new ArrayList<byte[]>();
+			inputs.add( Files.readAllBytes(Paths.get("input1.txt")) );
+			inputs.add( Files.readAllBytes(Paths.get("input2.txt")) );
+			inputs.add( input("emit") );
+			for ( String shape : ProgramGenerator.shapes )
+				inputs.add( ProgramGenerator.generate(shape, 200).getBytes(StandardCharsets.ISO_8859_1) );
+			for ( byte[] in : inputs )
+			{
+				p = new IncrementalParser();
+				p.outStream = new PrintWriter( Writer.nullWriter() );
+				p.parse(in, in.length);
+				String want = output("parse", in);
+				for ( int i = 0; i < 100; i++ )
+				{
+					int from = random.nextInt(in.length + 1);
+					int to;
+					String text;
+					if ( i % 3 == 0 )
+					{
+						to = Math.min( in.length, from + random.nextInt(8) );
+						text = texts[ random.nextInt(texts.length) ];
+					}
+					else if ( i % 3 == 1 )
+					{
+						while ( from < in.length && ! Character.isDigit(in[from]) )
+							from++;
+						for ( to = from; to < in.length && Character.isDigit(in[to]); to++ )
+							;
+						text = "7";
+					}
+					else
+					{
+						while ( from < in.length && in[from] != ';' && in[from] != '{' )
+							from++;
+						from = to = Math.min( in.length, from + 1 );
+						text = " print y;";
+					}
+					byte[] t = text.getBytes(StandardCharsets.ISO_8859_1);
+					byte[] edited = new byte[in.length - (to - from) + t.length];
+					System.arraycopy(in, 0, edited, 0, from);
+					System.arraycopy(t, 0, edited, from, t.length);
+					System.arraycopy(in, to, edited, from + t.length, in.length - to);
+					String parsed;
+					try
+					{
+						parsed = output("parse", edited);
+					}
+					catch ( NumberFormatException e ) // an int past the range of int stops both parsers
+					{
+						continue;
+					}
+					expect( "parse after edit", parsed, edit(p, from, to, t) );
+					expect( "parse after undo", want, edit(p, from, from + t.length, Arrays.copyOfRange(in, from, to)) );
+				}
+			}
+		}
+	};
+
+	// CompilerServer
+
+	static final Test compilerServer = new Test("compiler-server")
+	{
+		void run() throws IOException
+		{
+			byte[] src = Files.readAllBytes( Paths.get("input1.txt") );
+			ByteArrayOutputStream requests = new ByteArrayOutputStream();
+			for ( String header : new String[] { "compile " + src.length, "", "bogus", "compile -compact " + src.length, "lex x1" } )
+			{
+				requests.write( (header + "\n").getBytes(StandardCharsets.ISO_8859_1) );
+				if ( header.startsWith("compile") )
+					requests.write(src);
+			}
+			requests.write( ("compile " + src.length + "\n").getBytes(StandardCharsets.ISO_8859_1) ); // after a bad length: not served
+			requests.write(src);
+
+			ByteArrayOutputStream responses = new ByteArrayOutputStream();
+			new CompilerServer(null).serve( new ByteArrayInputStream(requests.toByteArray()), responses );
+
+			// a header without a length is answered and skipped; a bad length ends the connection
+			InputStream in = new ByteArrayInputStream( responses.toByteArray() );
+			List<String> statuses = new ArrayList<String>();
+			List<String> outputs = new ArrayList<String>();
+			for ( String header; (header = CompilerServer.readLine(in)) != null; )
+			{
+				String[] w = header.split(" ");
+				statuses.add(w[0]);
+				outputs.add( new String( in.readNBytes(Integer.parseInt(w[1])), StandardCharsets.ISO_8859_1 ) );
+			}
+			expect( "statuses", Arrays.asList("ok", "fail", "fail", "ok", "fail"), statuses );
+			expect( "compile", output("compile", src), outputs.get(0) );
+			StringWriter w = new StringWriter();
+			Compiler.run( "compile", true, src, new PrintWriter(w) );
+			expect( "compile -compact", w.toString(), outputs.get(3) );
+
+			// each sample is served as Compiler, Parser and LexAnalyzer give it, and counted
+			requests = new ByteArrayOutputStream();
+			List<byte[]> samples = samples();
+			for ( byte[] s : samples )
+				for ( String kind : CompilerServer.kinds )
+				{
+					requests.write( (kind + " " + s.length + "\n").getBytes(StandardCharsets.ISO_8859_1) );
+					requests.write(s);
+				}
+			requests.write( "stats\n".getBytes(StandardCharsets.ISO_8859_1) );
+			responses = new ByteArrayOutputStream();
+			new CompilerServer(null).serve( new ByteArrayInputStream(requests.toByteArray()), responses );
+			in = new ByteArrayInputStream( responses.toByteArray() );
+			for ( byte[] s : samples )
+				for ( String kind : CompilerServer.kinds )
+				{
+					String[] h = CompilerServer.readLine(in).split(" ");
+					String served = new String( in.readNBytes(Integer.parseInt(h[1])), StandardCharsets.ISO_8859_1 );
+					w = new StringWriter();
+					boolean ok = Compiler.run( kind, false, s, new PrintWriter(w) );
+					expect( kind + " status", ok ? "ok" : "error", h[0] );
+					expect( kind, w.toString(), served );
+				}
+			String[] h = CompilerServer.readLine(in).split(" ");
+			String stats = new String( in.readNBytes(Integer.parseInt(h[1])), StandardCharsets.ISO_8859_1 );
+			for ( String kind : CompilerServer.kinds )
+				if ( ! stats.matches( "(?s)(.*\\R)?" + kind + " +" + samples.size() + " requests, .*" ) )
+					throw new AssertionError( kind + " requests not counted: " + stats );
+		}
+	};
+
+	// CompilationCache
+
+	static final Test compilationCache = new Test("compilation-cache")
+	{
+		void run() throws IOException
+		{
+			// a miss gives what Compiler.run() gives, and a second request of the same output a
+			// memory hit, for each kind and option
+			Path d = tempDir();
+			CompilationCache cache = new CompilationCache(d, CompilationCache.DEFAULT_MEMORY_LIMIT);
+			List<byte[]> samples = samples();
+			int outputs = 0;
+			for ( byte[] s : samples )
+				for ( String kind : CompilerServer.kinds )
+					for ( boolean compact : new boolean[] { false, true } )
+					{
+						StringWriter w = new StringWriter();
+						boolean ok = Compiler.run( kind, compact, s, new PrintWriter(w) );
+						long hits = cache.memoryHits;
+						CompilationCache.Entry e = cache.get(kind, compact, s);
+						expect( kind + " ok", ok, e.ok );
+						expect( kind, w.toString(), new String(e.output, StandardCharsets.ISO_8859_1) );
+						if ( cache.memoryHits == hits ) // the sample was not requested before
+							outputs++;
+						hits = cache.memoryHits;
+						expect( "second " + kind, e, cache.get(kind, compact, s) );
+						expect( "memory hits", hits + 1, cache.memoryHits );
+					}
+			expect( "disk hits", 0L, cache.diskHits );
+			expect( "misses", (long) outputs, cache.misses );
+
+			// another cache on the same directory reads the outputs back from disk
+			cache = new CompilationCache(d, CompilationCache.DEFAULT_MEMORY_LIMIT);
+			for ( byte[] s : samples )
+				for ( String kind : CompilerServer.kinds )
+				{
+					StringWriter w = new StringWriter();
+					boolean ok = Compiler.run( kind, true, s, new PrintWriter(w) );
+					CompilationCache.Entry e = cache.get(kind, true, s);
+					expect( "disk " + kind + " ok", ok, e.ok );
+					expect( "disk " + kind, w.toString(), new String(e.output, StandardCharsets.ISO_8859_1) );
+				}
+			expect( "misses from disk", 0L, cache.misses );
+
+			// the kind, the options and every byte of the input are in the key
+			byte[] src = Files.readAllBytes( Paths.get("input1.txt") );
+			byte[] changed = src.clone();
+			changed[changed.length - 1] ^= 1;
+			Set<String> keys = new HashSet<String>();
+			for ( String kind : CompilerServer.kinds )
+				for ( boolean compact : new boolean[] { false, true } )
+				{
+					keys.add( CompilationCache.key(kind, compact, src) );
+					keys.add( CompilationCache.key(kind, compact, changed) );
+				}
+			expect( "distinct keys", 12, keys.size() );
+
+			// outputs beyond the memory limit are evicted, least recently used first
+			byte[] src2 = Files.readAllBytes( Paths.get("input2.txt") );
+			long limit = cache.get("compile", false, src).output.length
+			             + Math.max( cache.get("compile", false, src2).output.length, cache.get("parse", false, src).output.length );
+			cache = new CompilationCache(null, limit);
+			cache.get("compile", false, src);
+			cache.get("compile", false, src2);
+			cache.get("compile", false, src);
+			cache.get("parse", false, src); // evicts src2, used least recently
+			cache.get("compile", false, src);
+			cache.get("compile", false, src2);
+			expect( "memory hits with eviction", 2L, cache.memoryHits );
+			expect( "misses with eviction", 4L, cache.misses );
+
+			// run() writes the output file as Compiler.compile() does
+			Path in = d.resolve("in.txt"), out = d.resolve("out.txt"), want = d.resolve("want.txt");
+			Files.write(in, src);
+			new Compiler().compile( in.toString(), want.toString() );
+			expect( "run", true, new CompilationCache(d, 0).run("compile", false, in.toString(), out.toString()) );
+			expect( "run output", read(want.toFile()), read(out.toFile()) );
+		}
+	};
+
+	static final Test[] tests = { reentrant, batchCompile, byteInput, tokenSpan, keywords, dfaClasses, tokenStream, benchmark, programGenerator, emit, parseTree, compactTree, precedence, fold, foldMayFail, vmRunTimeError, tiered, slots, switchLowering, shortCircuit, peephole, loopOptimizer, typeInference, incremental, compilerServer, compilationCache };
+
+	static boolean runAll(List<String> names)
+	{
+		boolean ok = true;
+		for ( Test t : tests )
+		{
+			if ( ! names.isEmpty() && ! names.contains(t.name) )
+				continue;
+			String result = "ok";
+			try
+			{
+				t.run();
+			}
+			catch ( Throwable e )
+			{
+				result = "FAILED: " + (e instanceof AssertionError ? e.getMessage() : e.toString());
+				ok = false;
+			}
+			System.out.printf( "%-28s %s%n", t.name, result );
+		}
+		for ( Path d : tempDirs )
+		{
+			try
+			{
+				delete(d);
+			}
+			catch ( IOException e )
+			{
+				System.err.println("cannot delete " + d + " : " + e);
+			}
+		}
+		return ok;
+	}
+
+	public static void main(String argv[]) throws InterruptedException
+	{
+		final List<String> names = new ArrayList<String>( Arrays.asList(argv) );
+		update = names.remove("-update");
+		final boolean[] ok = { true };
+
+		Thread t = new Thread( null, new Runnable()
+		{
+			public void run()
+			{
+				ok[0] = runAll(names);
+			}
+		}, "tests", STACK_SIZE );
+		t.start();
+		t.join();
+
+		if ( ! ok[0] )
+			System.exit(1);
+	}
+}
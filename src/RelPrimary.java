@@ -1,11 +1,12 @@
 class RelPrimary extends BoolPrimary
 {
     static String[] relop_st = { "<", "<=", ">", ">=", "==", "!=" };
-    static String[] relop_instruction = { "lt", "le", "gt", "ge", "eq", "neq" };
+    static Op[] relop_instruction = { Op.lt, Op.le, Op.gt, Op.ge, Op.eq, Op.neq };
 
     E e1;
     E e2;
     State relop;
+    byte type; // the type in which e1 and e2 are compared, given by TypeInference
 
     RelPrimary(E e_1, E e_2, State rel)
     {
@@ -14,13 +15,63 @@ class RelPrimary extends BoolPrimary
         relop = rel;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
+        super.printParseTree(depth, p);
+        e1.printParseTree(depth+1, p);
+        p.line(depth+1, relop_st[relop.ordinal()-7]);
+        e2.printParseTree(depth+1, p);
+    }
+
+    BoolPrimary fold()
+
+    // Returns a <boolPrimary> holding the bool literal if both operands fold to literals.
+
+    {
+        e1.fold();
+        e2.fold();
+        Primary a = e1.constant(), b = e2.constant();
+        Primary k = a == null || b == null ? null : Fold.binary(a, relop_instruction[relop.ordinal()-7], b);
+        if ( k == null )
+            return this;
+        e1.termItemList.getFirst().term.primaryItemList.getFirst().primary = k;
+        return new SingleE(e1);
+    }
 
-        super.printParseTree(indent);
-        e1.printParseTree(indent1);
-        IO.displayln(indent1 + indent1.length() + " " + relop_st[relop.ordinal()-7]);
-        e2.printParseTree(indent1);
+    Primary constant()
+    {
+        return null;
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        return e1.scan(o) | e2.scan(o);
+    }
+
+    int hoist(LoopOptimizer o)
+    {
+        int a = e1.hoist(o), b = e2.hoist(o);
+        int level = Math.max(a, b);
+        if ( a < level )
+            e1 = o.hoisted(e1, a);
+        if ( b < level )
+            e2 = o.hoisted(e2, b);
+        return level;
+    }
+
+    byte infer(TypeInference t)
+    {
+        type = TypeInference.arithmetic( e1.infer(t), e2.infer(t) );
+        return TypeInference.BOOL;
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        Op o = TypeInference.operator(relop_instruction[relop.ordinal()-7], e1.type, e2.type);
+        e1.emitInstructions(c);
+        TypeInference.convert(c.code, o, e1.type);
+        e2.emitInstructions(c);
+        TypeInference.convert(c.code, o, e2.type);
+        c.code.emit(o);
     }
 }
\ No newline at end of file
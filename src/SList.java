@@ -9,10 +9,56 @@ class SList
         sList = sl;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <s list>");
+        p.line(depth, "<s list>");
         for ( Statement s : sList )
-            s.printParseTree(indent+" ");
+            s.printParseTree(depth+1, p);
+    }
+
+    void fold()
+    {
+        ListIterator<Statement> i = sList.listIterator();
+        while ( i.hasNext() )
+            i.set( i.next().fold() );
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        for ( Statement s : sList )
+            s.scan(o);
+    }
+
+    void prune(LoopOptimizer o)
+    {
+        ListIterator<Statement> i = sList.listIterator();
+        while ( i.hasNext() )
+            i.set( i.next().prune(o) );
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        for ( Statement s : sList )
+            s.hoist(o);
+    }
+
+    void infer(TypeInference t)
+    {
+        for ( Statement s : sList )
+            s.infer(t);
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        ListIterator<Statement> i = sList.listIterator();
+        while ( i.hasNext() )
+            if ( i.next() == old )
+                i.set(s);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        for ( Statement s : sList )
+            s.emitInstructions(c);
     }
 }
\ No newline at end of file
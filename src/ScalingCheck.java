@@ -0,0 +1,157 @@
+/**
+
+ This class checks that compile time and parse-tree printing scale linearly with the work done.
+
+ For each shape of ProgramGenerator, programs of sizes n, 2n, 4n and 8n go through the parse and
+ the compile requests of Compiler.run(), the whole pipeline of "Parser" and of "Compiler" with
+ its default passes, writing the parse tree or the instruction stream to a writer that only
+ counts characters. For each size, the best time of several runs and the bytes allocated by
+ one run are recorded.
+
+ The work of a run is the size of its input plus the size of its output. It grows as the input
+ for most shapes, but the printed tree of a nested shape indents each line by its depth, so its
+ size grows as the square of the input, and no printer can be faster than that. The growth
+ exponent from size n to size 8n is log(m(8n)/m(n)) / log(w(8n)/w(n)) for each measure m, where w
+ is the work; it is about 1 for linear growth and about 2 for quadratic growth.
+
+ A shape fails when its allocation exponent exceeds ALLOC_LIMIT or its time exponent exceeds
+ TIME_LIMIT. Allocation is deterministic; the time limit leaves a margin for timer noise and
+ for caches that hold the small sizes but not the large ones. The time of a run is the CPU time
+ of the measuring thread, which leaves out the threads of the garbage collector: each young
+ collection copies the part of the tree built so far, so with a fixed young generation the
+ collections of a run grow as the square of its size whatever the compiler does.
+
+ The checks run on a thread with a large stack, since the parser and the passes are recursive
+ and the nesting shapes are thousands of levels deep.
+
+ Usage:
+
+ java ScalingCheck [shape ...]
+
+ The exit status is 1 if any shape fails.
+
+ **/
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+
+public class ScalingCheck
+{
+	static final double ALLOC_LIMIT = 1.3;
+	static final double TIME_LIMIT = 1.25;
+	static final int RUNS = 7;
+	static final int WARMUP_RUNS = 10; // runs of the smallest size before any is timed, to let the JIT settle
+	static final long STACK_SIZE = 1L << 30;
+
+	static final String[] kinds = { "parse", "compile" };
+
+	static long outputChars; // characters written by the last run()
+
+	static final Writer countingWriter = new Writer()
+	{
+		public void write(char[] buf, int off, int len)
+		{
+			outputChars += len;
+		}
+		public void flush() {}
+		public void close() {}
+	};
+
+	static int baseSize(String shape)
+	{
+		if ( shape.startsWith("nest") )
+			return 1000;
+		if ( shape.equals("switch") )
+			return 12500; // up to 100k labels
+		if ( shape.equals("stmts") )
+			return 10000;
+		return 20000;
+	}
+
+	static long allocatedBytes()
+	{
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+			.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	static long cpuNanos()
+	{
+		return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+	}
+
+	static void run(String kind, byte[] src)
+	{
+		outputChars = 0;
+		if ( ! Compiler.run(kind, false, src, new PrintWriter(countingWriter)) )
+			throw new IllegalStateException("generated program does not compile");
+	}
+
+	static boolean check(String shape, String kind)
+
+	// Measures request "kind" on "shape" at 4 sizes, displays the measurements and returns false
+	// if growth is super-linear.
+
+	{
+		int n = baseSize(shape);
+		double[] time = new double[4];
+		double[] alloc = new double[4];
+		double[] work = new double[4];
+
+		byte[] smallest = ProgramGenerator.generate(shape, n).getBytes(StandardCharsets.US_ASCII);
+		for ( int r = 0; r < WARMUP_RUNS; r++ )
+			run(kind, smallest);
+
+		for ( int k = 0; k < 4; k++ )
+		{
+			byte[] src = ProgramGenerator.generate(shape, n << k).getBytes(StandardCharsets.US_ASCII);
+
+			run(kind, src); // warm up at this size
+			long a0 = allocatedBytes();
+			run(kind, src);
+			alloc[k] = allocatedBytes() - a0;
+			work[k] = src.length + outputChars;
+
+			time[k] = Double.MAX_VALUE;
+			for ( int r = 0; r < RUNS; r++ )
+			{
+				long t0 = cpuNanos();
+				run(kind, src);
+				time[k] = Math.min( time[k], cpuNanos() - t0 );
+			}
+		}
+
+		double growth = Math.log(work[3] / work[0]);
+		double allocExp = Math.log(alloc[3] / alloc[0]) / growth;
+		double timeExp = Math.log(time[3] / time[0]) / growth;
+		boolean ok = allocExp <= ALLOC_LIMIT && timeExp <= TIME_LIMIT;
+
+		System.out.printf( "%-10s %-8s n=%-7d", shape, kind, n );
+		for ( int k = 0; k < 4; k++ )
+			System.out.printf( " %9.2fms %8.1fMB", time[k] / 1e6, alloc[k] / 1048576 );
+		System.out.printf( "   work x%.1f exponent time %.2f alloc %.2f  %s%n", work[3] / work[0], timeExp, allocExp, ok ? "ok" : "SUPER-LINEAR" );
+		return ok;
+	}
+
+	public static void main(final String argv[]) throws InterruptedException
+	{
+		final String[] shapes = argv.length > 0 ? argv : ProgramGenerator.shapes;
+		final boolean[] ok = { true };
+
+		Thread t = new Thread( null, new Runnable()
+		{
+			public void run()
+			{
+				for ( String shape : shapes )
+					for ( String kind : kinds )
+						if ( ! check(shape, kind) )
+							ok[0] = false;
+			}
+		}, "scaling", STACK_SIZE );
+		t.start();
+		t.join();
+
+		if ( ! ok[0] )
+			System.exit(1);
+	}
+}
@@ -10,8 +10,13 @@ class SingleBoolPrimaryItem extends BoolPrimaryItem
         boolPrimary = bp;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        boolPrimary.printParseTree(indent);
+        boolPrimary.printParseTree(depth, p);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        boolPrimary.emitInstructions(c);
     }
 }
\ No newline at end of file
@@ -10,8 +10,13 @@ class SingleBoolTermItem extends BoolTermItem
         boolTerm = bt;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        boolTerm.printParseTree(indent);
+        boolTerm.printParseTree(depth, p);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        boolTerm.emitInstructions(c);
     }
 }
\ No newline at end of file
@@ -7,9 +7,57 @@ class SingleE extends BoolPrimary
         e = e_;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        super.printParseTree(indent);
-        e.printParseTree(indent+" ");
+        super.printParseTree(depth, p);
+        e.printParseTree(depth+1, p);
+    }
+
+    BoolPrimary fold()
+    {
+        e.fold();
+        return this;
+    }
+
+    Primary constant()
+    {
+        return e.constant();
+    }
+
+    Primary primary()
+    {
+        return e.primary();
+    }
+
+    boolean scan(LoopOptimizer o)
+    {
+        return e.scan(o);
+    }
+
+    int hoist(LoopOptimizer o)
+    {
+        return e.hoist(o);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return e.infer(t);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        e.emitInstructions(c);
+    }
+
+    void emitBranch(Compiler c, boolean onTrue, int target)
+
+    // A lone primary may itself be a condition, as in (a || b) or !a.
+
+    {
+        Primary p = e.primary();
+        if ( p != null )
+            p.emitBranch(c, onTrue, target);
+        else
+            super.emitBranch(c, onTrue, target);
     }
 }
\ No newline at end of file
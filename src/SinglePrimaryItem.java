@@ -10,8 +10,14 @@ class SinglePrimaryItem extends PrimaryItem
         primary = p;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        primary.printParseTree(indent);
+        primary.printParseTree(depth, p);
+    }
+
+    byte emitInstructions(Compiler c, byte left)
+    {
+        primary.emitInstructions(c);
+        return type;
     }
 }
\ No newline at end of file
@@ -10,8 +10,14 @@ class SingleTermItem extends TermItem
         term = t;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        term.printParseTree(indent);
+        term.printParseTree(depth, p);
+    }
+
+    byte emitInstructions(Compiler c, byte left)
+    {
+        term.emitInstructions(c);
+        return term.type;
     }
 }
\ No newline at end of file
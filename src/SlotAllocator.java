@@ -0,0 +1,433 @@
+/**
+
+ This class renumbers the variables of an instruction stream so that variables whose live
+ ranges do not overlap share a slot.
+
+ A variable is live at an instruction if some path from there reaches a load of it without
+ passing a store to it. Liveness is computed on the basic blocks of the stream, one variable at
+ a time, by walking backward from each load to the stores that reach it; the cost is
+ proportional to the number of blocks the variable is live in, so the many short-lived
+ temporaries of a large program stay cheap. The live range of a variable is the interval of
+ instruction indices from its first live point or store to its last; a variable that is live on
+ entry, i.e. read before any store, starts at 0 so that it gets a slot of its own holding the
+ initial 0.
+
+ Only that interval is needed, so a loop is not walked block by block: the blocks from the
+ target of a backward jump to the jump form a region, and once the walk reaches a region with no
+ store to the variable, the whole region is taken into the interval and the walk continues from
+ the jumps into it. The outermost such region around a block is found by binary lifting on the
+ tree of regions. A temporary hoisted out of a deep loop nest, live across all of it, then
+ costs a few binary searches instead of a walk of the nest; without this, the compile time of n
+ nested loops grows as n squared. Dead code is walked block by block, as a loop that cannot be
+ entered may lie in a region that can. The interval may still be wider than the live range when
+ a region has a block that cannot reach its backward jump, which only costs a shared slot.
+
+ Slots are then assigned by a linear scan of the intervals in order of their start: a slot is
+ free again after the last instruction of the interval holding it, and the lowest free slot is
+ taken first.
+
+ **/
+
+import java.util.*;
+
+class SlotAllocator
+{
+	final Code code;
+	final int varNum;
+
+	int blockCount;
+	int[] blockStart;  // index in "code" of the first instruction of each block, plus "code.size" at the end
+	int[] blockOf;     // block of each instruction
+	int[] labelBlock;  // block starting at each label
+	int[] predFirst;   // predecessors of block b are pred[predFirst[b]] .. pred[predFirst[b+1]-1]
+	int[] pred;
+
+	int[] defFirst;    // stores to variable v are at def[defFirst[v]] .. def[defFirst[v+1]-1], in order
+	int[] def;
+	int[] useFirst;    // loads of variable v are at use[useFirst[v]] .. use[useFirst[v+1]-1]
+	int[] use;
+
+	int regionCount;   // regions, each a backward jump and the blocks from its target to it; ordered by start, outer first
+	int[] regionStart; // first block of each region
+	int[] regionEnd;   // last block of each region
+	int[][] up;        // up[k][r] is the 2^k-th region around region r, or -1
+	int[] innermost;   // innermost region around each block, or -1
+	boolean[] reachable; // true for the blocks reachable from the first one
+	int[] entryFirst;  // blocks outside region r with a successor in it are entry[entryFirst[r]] .. entry[entryFirst[r+1]-1]
+	int[] entry;
+
+	int lo, hi;        // live range of the variable being computed
+	int[] work;        // blocks at whose end the variable is live, to be walked
+	int top;
+	int[] seen;        // v+1 if block's end was reached while computing variable v
+	int[] regionSeen;  // v+1 if region was taken while computing variable v
+
+	int[] slot;        // new slot of each variable
+	int slotCount;     // number of slots used
+
+	SlotAllocator(Code code, int varNum)
+	{
+		this.code = code;
+		this.varNum = varNum;
+	}
+
+	static SlotAllocator allocate(Code code, int varNum)
+
+	// Renumbers the variables of "code", which are 0 .. varNum-1. The new slot of variable v is slot[v].
+
+	{
+		SlotAllocator a = new SlotAllocator(code, varNum);
+		a.buildBlocks();
+		a.buildRegions();
+		a.indexVariables();
+		a.assignSlots();
+		a.rewrite();
+		return a;
+	}
+
+	static boolean isJump(int o)
+	{
+		return o == Op.goto_.ordinal() || o == Op.iftrue.ordinal() || o == Op.iffalse.ordinal();
+	}
+
+	void buildBlocks()
+
+	// A block starts at the first instruction, at each label, and after each jump or tableswitch.
+	// Each goto of a table is then a block of its own, so the successors of a tableswitch block
+	// are the n+1 blocks that follow it.
+
+	{
+		int n = code.size;
+		int label = Op.label.ordinal(), tableswitch = Op.tableswitch.ordinal();
+		blockOf = new int[n];
+		blockStart = new int[n+1];
+		labelBlock = new int[code.labelCount];
+
+		int b = -1;
+		boolean startNext = true;
+		for ( int i = 0; i < n; i++ )
+		{
+			int o = code.op[i];
+			if ( startNext || o == label )
+				blockStart[++b] = i;
+			blockOf[i] = b;
+			if ( o == label )
+				labelBlock[code.arg[i]] = b;
+			startNext = isJump(o) || o == tableswitch;
+		}
+		blockCount = b+1;
+		blockStart[blockCount] = n;
+
+		// predecessors, counted in a first pass and stored in a second
+
+		predFirst = new int[blockCount+1];
+		for ( b = 0; b < blockCount; b++ )
+			for ( int k = 0, s; (s = successor(b, k)) >= 0; k++ )
+				predFirst[s+1]++;
+		for ( b = 0; b < blockCount; b++ )
+			predFirst[b+1] += predFirst[b];
+		pred = new int[predFirst[blockCount]];
+		int[] next = Arrays.copyOf(predFirst, blockCount);
+		for ( b = 0; b < blockCount; b++ )
+			for ( int k = 0, s; (s = successor(b, k)) >= 0; k++ )
+				pred[next[s]++] = b;
+	}
+
+	int successor(int b, int k)
+
+	// Returns the k-th successor of block b, or -1 if it has fewer: the jump target, and the next block
+	// unless the block ends with a goto; for a tableswitch, the blocks of its n+1 gotos.
+
+	{
+		int last = blockStart[b+1] - 1;
+		int o = code.op[last];
+		if ( o == Op.tableswitch.ordinal() )
+			return k <= code.arg[last] ? b+1+k : -1;
+		if ( isJump(o) && k-- == 0 )
+			return labelBlock[code.arg[last]];
+		return k == 0 && o != Op.goto_.ordinal() && b+1 < blockCount ? b+1 : -1;
+	}
+
+	void buildRegions()
+
+	// Finds the regions and their nesting. Regions from structured loops are nested or disjoint; a
+	// region that overlaps another without nesting in it widens it, so that they nest.
+
+	{
+		long[] jumps = new long[blockCount]; // start << 32 | ~end, so that outer regions sort first
+		int n = 0;
+		for ( int b = 0; b < blockCount; b++ )
+		{
+			int last = blockStart[b+1] - 1;
+			if ( isJump(code.op[last]) && labelBlock[code.arg[last]] <= b )
+				jumps[n++] = (long) labelBlock[code.arg[last]] << 32 | ~b & 0xffffffffL;
+		}
+		Arrays.sort(jumps, 0, n);
+
+		regionStart = new int[n];
+		regionEnd = new int[n];
+		int[] parent = new int[n];
+		int[] stack = new int[n];
+		int depth = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			int start = (int) (jumps[i] >>> 32), end = ~ (int) jumps[i];
+			while ( depth > 0 && regionEnd[stack[depth-1]] < start )
+				depth--;
+			if ( depth > 0 && regionStart[stack[depth-1]] == start && regionEnd[stack[depth-1]] >= end )
+				continue; // within a region with the same target
+			for ( int d = 0; d < depth; d++ )
+				regionEnd[stack[d]] = Math.max(regionEnd[stack[d]], end);
+			regionStart[regionCount] = start;
+			regionEnd[regionCount] = end;
+			parent[regionCount] = depth > 0 ? stack[depth-1] : -1;
+			stack[depth++] = regionCount++;
+		}
+
+		int levels = 1;
+		while ( 1 << levels < regionCount )
+			levels++;
+		up = new int[levels][];
+		up[0] = parent;
+		for ( int k = 1; k < levels; k++ )
+		{
+			up[k] = new int[regionCount];
+			for ( int r = 0; r < regionCount; r++ )
+				up[k][r] = up[k-1][r] < 0 ? -1 : up[k-1][ up[k-1][r] ];
+		}
+
+		reachable = new boolean[blockCount];
+		int[] work = new int[blockCount];
+		int top = 0;
+		if ( blockCount > 0 )
+		{
+			reachable[0] = true;
+			work[top++] = 0;
+		}
+		while ( top > 0 )
+		{
+			int b = work[--top];
+			for ( int k = 0, s; (s = successor(b, k)) >= 0; k++ )
+				if ( ! reachable[s] )
+				{
+					reachable[s] = true;
+					work[top++] = s;
+				}
+		}
+
+		innermost = new int[blockCount];
+		depth = 0;
+		for ( int b = 0, r = 0; b < blockCount; b++ )
+		{
+			while ( depth > 0 && regionEnd[stack[depth-1]] < b )
+				depth--;
+			while ( r < regionCount && regionStart[r] == b )
+				stack[depth++] = r++;
+			innermost[b] = depth > 0 ? stack[depth-1] : -1;
+		}
+
+		// entries, counted in a first pass and stored in a second
+
+		entryFirst = new int[regionCount+1];
+		for ( int s = 0; s < blockCount; s++ )
+			for ( int p = predFirst[s]; p < predFirst[s+1]; p++ )
+				for ( int r = innermost[s]; r >= 0 && ! inRegion(pred[p], r); r = parent[r] )
+					entryFirst[r+1]++;
+		for ( int r = 0; r < regionCount; r++ )
+			entryFirst[r+1] += entryFirst[r];
+		entry = new int[entryFirst[regionCount]];
+		int[] next = Arrays.copyOf(entryFirst, regionCount);
+		for ( int s = 0; s < blockCount; s++ )
+			for ( int p = predFirst[s]; p < predFirst[s+1]; p++ )
+				for ( int r = innermost[s]; r >= 0 && ! inRegion(pred[p], r); r = parent[r] )
+					entry[next[r]++] = pred[p];
+	}
+
+	boolean inRegion(int b, int r)
+	{
+		return regionStart[r] <= b && b <= regionEnd[r];
+	}
+
+	boolean storesIn(int v, int r)
+
+	// Returns true if region r holds a store to "v".
+
+	{
+		return lastDef(v, blockStart[regionStart[r]], blockStart[regionEnd[r]+1] - 1) >= 0;
+	}
+
+	void indexVariables()
+
+	// Collects the positions of the loads and stores of each variable.
+
+	{
+		int load = Op.load.ordinal(), store = Op.store.ordinal();
+		defFirst = new int[varNum+1];
+		useFirst = new int[varNum+1];
+		for ( int i = 0; i < code.size; i++ )
+			if ( code.op[i] == store )
+				defFirst[code.arg[i]+1]++;
+			else if ( code.op[i] == load )
+				useFirst[code.arg[i]+1]++;
+		for ( int v = 0; v < varNum; v++ )
+		{
+			defFirst[v+1] += defFirst[v];
+			useFirst[v+1] += useFirst[v];
+		}
+		def = new int[defFirst[varNum]];
+		use = new int[useFirst[varNum]];
+		int[] nextDef = Arrays.copyOf(defFirst, varNum);
+		int[] nextUse = Arrays.copyOf(useFirst, varNum);
+		for ( int i = 0; i < code.size; i++ )
+			if ( code.op[i] == store )
+				def[nextDef[code.arg[i]]++] = i;
+			else if ( code.op[i] == load )
+				use[nextUse[code.arg[i]]++] = i;
+	}
+
+	int lastDef(int v, int from, int to)
+
+	// Returns the index of the last store to "v" in from .. to, or -1 if there is none.
+
+	{
+		int lo = defFirst[v], hi = defFirst[v+1] - 1;
+		int found = -1;
+		while ( lo <= hi )
+		{
+			int mid = (lo + hi) >>> 1;
+			if ( def[mid] <= to )
+			{
+				found = def[mid];
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+		return found >= from ? found : -1;
+	}
+
+	void liveAtStart(int v, int b)
+
+	// Extends the live range of "v", which is live at the start of block b, with the blocks
+	// whose end reaches b, or with the outermost region around b with no store to "v".
+
+	{
+		lo = Math.min(lo, blockStart[b]);
+		int r = innermost[b];
+		if ( r >= 0 && reachable[b] && ! storesIn(v, r) )
+		{
+			for ( int k = up.length - 1; k >= 0; k-- )
+				if ( up[k][r] >= 0 && ! storesIn(v, up[k][r]) )
+					r = up[k][r];
+			if ( regionSeen[r] == v+1 )
+				return;
+			regionSeen[r] = v+1;
+			lo = Math.min(lo, blockStart[regionStart[r]]);
+			hi = Math.max(hi, blockStart[regionEnd[r]+1] - 1);
+			for ( int e = entryFirst[r]; e < entryFirst[r+1]; e++ )
+				liveAtEnd(v, entry[e]);
+			return;
+		}
+		for ( int p = predFirst[b]; p < predFirst[b+1]; p++ )
+			liveAtEnd(v, pred[p]);
+	}
+
+	void liveAtEnd(int v, int b)
+	{
+		if ( seen[b] != v+1 )
+		{
+			seen[b] = v+1;
+			work[top++] = b;
+		}
+	}
+
+	void assignSlots()
+	{
+		int[] start = new int[varNum];
+		int[] end = new int[varNum];
+		seen = new int[blockCount];
+		regionSeen = new int[regionCount];
+		work = new int[blockCount];
+
+		for ( int v = 0; v < varNum; v++ )
+		{
+			lo = Integer.MAX_VALUE;
+			hi = -1;
+			if ( defFirst[v] < defFirst[v+1] )
+			{
+				lo = def[defFirst[v]];
+				hi = def[defFirst[v+1] - 1];
+			}
+
+			top = 0;
+			for ( int k = useFirst[v]; k < useFirst[v+1]; k++ )
+			{
+				int u = use[k];
+				hi = Math.max(hi, u);
+				int b = blockOf[u];
+				int d = lastDef(v, blockStart[b], u);
+				if ( d >= 0 )
+					lo = Math.min(lo, d);
+				else
+					liveAtStart(v, b);
+			}
+
+			while ( top > 0 ) // blocks at whose end v is live
+			{
+				int b = work[--top];
+				int last = blockStart[b+1] - 1;
+				hi = Math.max(hi, last);
+				int d = lastDef(v, blockStart[b], last);
+				if ( d >= 0 )
+					lo = Math.min(lo, d);
+				else
+					liveAtStart(v, b);
+			}
+
+			start[v] = lo;
+			end[v] = hi;
+		}
+
+		// linear scan in order of start; variables that do not occur keep slot 0
+
+		long[] order = new long[varNum];
+		for ( int v = 0; v < varNum; v++ )
+			order[v] = (long) sortKey(start[v], end[v]) << 32 | v;
+		Arrays.sort(order);
+
+		slot = new int[varNum];
+		PriorityQueue<Long> active = new PriorityQueue<Long>(); // end << 32 | slot of each taken slot
+		BitSet free = new BitSet();
+		for ( long key : order )
+		{
+			int v = (int) key;
+			if ( end[v] < 0 )
+				continue;
+			while ( ! active.isEmpty() && active.peek() >> 32 < start[v] )
+				free.set( (int) (long) active.poll() );
+			int s = free.nextSetBit(0);
+			if ( s < 0 )
+				s = slotCount++;
+			else
+				free.clear(s);
+			slot[v] = s;
+			active.add( (long) end[v] << 32 | s );
+		}
+	}
+
+	private static int sortKey(int start, int end)
+
+	// Sort key of an interval: its start, with variables that do not occur last.
+
+	{
+		return end < 0 ? Integer.MAX_VALUE : start;
+	}
+
+	void rewrite()
+	{
+		int load = Op.load.ordinal(), store = Op.store.ordinal();
+		for ( int i = 0; i < code.size; i++ )
+			if ( code.op[i] == load || code.op[i] == store )
+				code.arg[i] = slot[code.arg[i]];
+	}
+}
@@ -1,7 +1,39 @@
 abstract class Statement
 {
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <statement>");
+        p.line(depth, "<statement>");
     }
+
+    Statement fold()
+
+    // Folds the constant subexpressions of this statement and returns the statement to emit,
+    // which is a replacement if a constant condition decides which parts are executed.
+
+    {
+        return this;
+    }
+
+    abstract void scan(LoopOptimizer o); // reports the variables this statement assigns and reads to "o"
+
+    Statement prune(LoopOptimizer o)
+
+    // Returns the statement to emit without the dead stores of "o", which counts the removed ones.
+
+    {
+        return this;
+    }
+
+    abstract void hoist(LoopOptimizer o); // hoists the loop-invariant subexpressions as described in LoopOptimizer
+
+    abstract void infer(TypeInference t); // infers the types of the expressions as described in TypeInference
+
+    void replace(Statement old, Statement s)
+
+    // Replaces the child statement "old" of this statement by "s", for IncrementalParser.
+
+    {
+    }
+
+    abstract void emitInstructions(Compiler c);
 }
\ No newline at end of file
@@ -9,15 +9,78 @@ class Switch extends Statement
         caseList = cl;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        String indent1 = indent + " ";
-        String indent2 = indent + "  ";
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<switch>");
+        p.line(depth+2, "switch");
+        expr.printParseTree(depth+2, p);
+        caseList.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+
+    // A switch on an int literal is replaced by the statements of the case it selects.
+
+    {
+        expr.fold();
+        for ( Case cs : caseList.caseList )
+            cs.sList.fold();
+        Primary k = expr.constant();
+        if ( ! (k instanceof Int) )
+            return this;
+        Case selected = null;
+        for ( Case cs : caseList.caseList )
+            if ( cs instanceof LabeledCase && ((LabeledCase) cs).label.val == ((Int) k).val )
+                return new Block(cs.sList);
+            else if ( cs instanceof DefaultCase )
+                selected = cs;
+        return selected != null ? new Block(selected.sList) : Fold.nothing();
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        expr.scan(o);
+        for ( Case cs : caseList.caseList )
+            cs.sList.scan(o);
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        for ( Case cs : caseList.caseList )
+            cs.sList.prune(o);
+        return this;
+    }
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <switch>");
-        IO.displayln(indent2 + indent2.length() + " switch");
-        expr.printParseTree(indent2);
-        caseList.printParseTree(indent2);
+    void hoist(LoopOptimizer o)
+    {
+        expr = o.hoist(expr);
+        for ( Case cs : caseList.caseList )
+            cs.sList.hoist(o);
+    }
+
+    void infer(TypeInference t)
+
+    // Each case is a branch; the variables it assigns are forgotten after it.
+
+    {
+        expr.infer(t);
+        int m = t.mark();
+        for ( Case cs : caseList.caseList )
+        {
+            cs.sList.infer(t);
+            t.forget(m);
+        }
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        for ( Case cs : caseList.caseList )
+            cs.sList.replace(old, s);
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        caseList.emitInstructions(expr, c);
     }
 }
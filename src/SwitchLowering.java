@@ -0,0 +1,166 @@
+/**
+
+ This class emits the dispatch of a switch statement: the instructions that compare the value
+ of the switch expression, kept in a temporary variable, with the case labels and jump to the
+ entry of the matching case or to the default entry.
+
+ With few labels, each label is compared in turn in source order. Otherwise the labels are
+ sorted and split into clusters: a run of at least MIN_TABLE labels that fills at least half
+ of its range becomes a jump table, emitted as a tableswitch whose missing labels lead to the
+ default entry, and every other label is a cluster of its own. The clusters are then found by
+ binary search on their lowest label, and the last few are tested in turn. A dispatch thus
+ takes a logarithmic number of comparisons in the number of clusters, and a dense switch
+ takes one tableswitch.
+
+ The labels are distinct, as the parser rejects duplicates. Labels beyond +-MAX_LABEL keep the
+ linear comparisons, since a float switch value compares equal to several of them; below it
+ every int converts exactly to float, so a float value matches at most one label.
+
+ **/
+
+import java.util.*;
+
+class SwitchLowering
+{
+	static final int MIN_TABLE = 4;       // fewest labels in a jump table
+	static final int MAX_LINEAR = 3;      // most labels, or clusters at a leaf of the search, tested in turn
+	static final int MAX_LABEL = 1 << 24; // largest label magnitude for tables and binary search
+
+	final Code code;
+	final int temp;         // variable holding the switch value
+	final int defaultEntry; // label of the default case, or of the end of the switch
+	int[] label;            // sorted case labels
+	int[] entry;            // entry label of each case label
+	int[] clusterFirst;     // clusters cover label[clusterFirst[k]] .. label[clusterFirst[k+1]-1]
+	boolean[] table;        // true if cluster k is a jump table
+	int clusters;
+
+	SwitchLowering(Code code, int temp, int defaultEntry)
+	{
+		this.code = code;
+		this.temp = temp;
+		this.defaultEntry = defaultEntry;
+	}
+
+	static void emitDispatch(Code code, int temp, int[] labels, int[] entries, int defaultEntry)
+
+	// Emits the dispatch on variable "temp" to entries[i] for labels[i], or to "defaultEntry" if no label matches.
+
+	{
+		SwitchLowering s = new SwitchLowering(code, temp, defaultEntry);
+		int n = labels.length;
+		boolean small = n <= MAX_LINEAR;
+		for ( int l : labels )
+			small |= l > MAX_LABEL || l < -MAX_LABEL;
+		if ( small )
+		{
+			for ( int i = 0; i < n; i++ )
+				s.compare(labels[i], entries[i]);
+			code.emit(Op.goto_, defaultEntry);
+			return;
+		}
+
+		long[] sorted = new long[n]; // label << 32 | case index
+		for ( int i = 0; i < n; i++ )
+			sorted[i] = (long) labels[i] << 32 | i;
+		Arrays.sort(sorted);
+		s.label = new int[n];
+		s.entry = new int[n];
+		for ( int i = 0; i < n; i++ )
+		{
+			s.label[i] = (int) (sorted[i] >> 32);
+			s.entry[i] = entries[(int) sorted[i]];
+		}
+		s.cluster();
+		s.search(0, s.clusters - 1);
+	}
+
+	void cluster()
+
+	// Splits the sorted labels into clusters, greedily from the lowest label.
+
+	{
+		int n = label.length;
+		clusterFirst = new int[n+1];
+		table = new boolean[n];
+		int i = 0;
+		while ( i < n )
+		{
+			int j = i;
+			while ( j+1 < n && 2L * (j+2-i) >= (long) label[j+1] - label[i] + 1 )
+				j++;
+			clusterFirst[clusters] = i;
+			if ( j+1-i >= MIN_TABLE )
+			{
+				table[clusters++] = true;
+				i = j+1;
+			}
+			else
+			{
+				clusters++;
+				i++;
+			}
+		}
+		clusterFirst[clusters] = n;
+	}
+
+	void search(int lo, int hi)
+
+	// Emits the dispatch among clusters lo .. hi, jumping to the default entry if none matches.
+
+	{
+		if ( hi - lo < MAX_LINEAR )
+		{
+			for ( int k = lo; k <= hi; k++ )
+				if ( ! table[k] )
+					compare(label[clusterFirst[k]], entry[clusterFirst[k]]);
+				else if ( k == hi )
+					jumpTable(k, defaultEntry);
+				else
+				{
+					int next = code.newLabel();
+					jumpTable(k, next);
+					code.placeLabel(next);
+				}
+			if ( ! table[hi] )
+				code.emit(Op.goto_, defaultEntry);
+			return;
+		}
+
+		int mid = (lo + hi + 1) >>> 1;
+		int upper = code.newLabel();
+		code.emit(Op.load, temp);
+		code.emit(Op.intpush, label[clusterFirst[mid]]);
+		code.emit(Op.ge);
+		code.emit(Op.iftrue, upper);
+		search(lo, mid-1);
+		code.placeLabel(upper);
+		search(mid, hi);
+	}
+
+	void compare(int l, int e)
+	{
+		code.emit(Op.load, temp);
+		code.emit(Op.intpush, l);
+		code.emit(Op.eq);
+		code.emit(Op.iftrue, e);
+	}
+
+	void jumpTable(int k, int outside)
+
+	// Emits cluster k as a tableswitch, continuing at "outside" if the value is out of its range.
+
+	{
+		int first = clusterFirst[k], last = clusterFirst[k+1] - 1;
+		int low = label[first], size = label[last] - low + 1;
+		code.emit(Op.load, temp);
+		code.emit(Op.intpush, low);
+		code.emit(Op.tableswitch, size);
+		for ( int i = first, l = low; l < low + size; l++ )
+			if ( label[i] == l )
+				code.emit(Op.goto_, entry[i++]);
+			else
+				code.emit(Op.goto_, defaultEntry);
+		code.emit(Op.goto_, outside);
+	}
+}
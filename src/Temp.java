@@ -0,0 +1,45 @@
+import java.util.*;
+
+class Temp extends Primary
+
+// Represents a loop-invariant expression hoisted by LoopOptimizer, evaluated before the loop
+
+{
+    Expr expr; // the hoisted expression
+    int var;   // the variable holding its value, numbered when the loop is emitted
+
+    Temp(Expr e)
+    {
+        expr = e;
+    }
+
+    void printParseTree(int depth, TreePrinter p)
+    {
+        super.printParseTree(depth, p);
+        p.end();
+        expr.printParseTree(depth+1, p);
+    }
+
+    byte infer(TypeInference t)
+    {
+        return expr.infer(t);
+    }
+
+    static void emitAll(List<Temp> temps, Compiler c)
+
+    // Emits the evaluation of "temps" into new variables, before the loop they were hoisted from.
+
+    {
+        for ( Temp t : temps )
+        {
+            t.expr.emitInstructions(c);
+            t.var = c.newTemp();
+            c.code.emit(Op.store, t.var);
+        }
+    }
+
+    void emitInstructions(Compiler c)
+    {
+        c.code.emit(Op.load, var);
+    }
+}
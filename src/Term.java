@@ -3,16 +3,137 @@ import java.util.*;
 class Term
 {
     LinkedList<PrimaryItem> primaryItemList;
+    byte type; // the type of the value, given by TypeInference
 
     Term(LinkedList<PrimaryItem> pItemList)
     {
         primaryItemList = pItemList;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
     {
-        IO.displayln(indent + indent.length() + " <term>");
+        p.line(depth, "<term>");
+        for ( PrimaryItem pi : primaryItemList )
+            pi.printParseTree(depth+1, p);
+    }
+
+    void fold()
+
+    // Folds each <primary>, then the leading run of literal operands into the first one.
+    // Operands after the first non-literal are left alone, since * and / associate to left.
+
+    {
+        for ( PrimaryItem pi : primaryItemList )
+            pi.primary = pi.primary.fold();
+
+        PrimaryItem first = primaryItemList.getFirst();
+        if ( ! Fold.isLiteral(first.primary) )
+            return;
+        Iterator<PrimaryItem> i = primaryItemList.listIterator(1);
+        while ( i.hasNext() )
+        {
+            PrimaryItem pi = i.next();
+            Primary k = Fold.binary(first.primary, pi instanceof MulPrimaryItem ? Op.mul : Op.div, pi.primary);
+            if ( k == null )
+                return;
+            first.primary = k;
+            i.remove();
+        }
+    }
+
+    Primary primary()
+
+    // Returns the primary of this <term> if it has no operator, or null.
+
+    {
+        return primaryItemList.size() == 1 ? primaryItemList.getFirst().primary : null;
+    }
+
+    Primary constant()
+
+    // Returns the literal value of this <term>, or null if it is not a literal.
+
+    {
+        Primary p = primaryItemList.getFirst().primary;
+        return primaryItemList.size() == 1 && Fold.isLiteral(p) ? p : null;
+    }
+
+    boolean scan(LoopOptimizer o)
+
+    // An int division by zero fails; a division by a literal other than the int 0 or false cannot.
+
+    {
+        boolean fails = false;
+        for ( PrimaryItem pi : primaryItemList )
+        {
+            fails |= pi.primary.scan(o);
+            fails |= pi instanceof DivPrimaryItem && ! LoopOptimizer.isSafeDivisor(pi.primary);
+        }
+        return fails;
+    }
+
+    int hoist(LoopOptimizer o)
+
+    // Same as Primary.hoist(). An operand of lower level than the <term> is hoisted on its own,
+    // unless it is in a leading run of at least two such operands, which is hoisted as a whole.
+    // A division that may fail has the highest level, though its operand may be hoisted.
+
+    {
+        int n = primaryItemList.size();
+        int[] level = new int[n];   // of each operand
+        int[] opLevel = new int[n]; // of each operand with its operator
+        int max = 0;
+        int i = 0;
+        for ( PrimaryItem pi : primaryItemList )
+        {
+            level[i] = pi.primary.hoist(o);
+            opLevel[i] = pi instanceof DivPrimaryItem && ! LoopOptimizer.isSafeDivisor(pi.primary) ? o.depth() : level[i];
+            max = Math.max(max, opLevel[i++]);
+        }
+
+        int k = 0, runLevel = 0; // operands in the leading run, and their highest level
+        while ( opLevel[k] < max )
+            runLevel = Math.max(runLevel, opLevel[k++]);
+        if ( k < 2 )
+            k = 0;
+        i = 0;
+        for ( PrimaryItem pi : primaryItemList )
+        {
+            if ( level[i] < max && (i >= k || level[i] < runLevel) )
+                pi.primary = o.hoisted(pi.primary, level[i]);
+            i++;
+        }
+        if ( k > 0 )
+        {
+            LinkedList<PrimaryItem> run = new LinkedList<PrimaryItem>();
+            while ( k-- > 0 )
+                run.add( primaryItemList.removeFirst() );
+            primaryItemList.addFirst( new SinglePrimaryItem( o.temp(LoopOptimizer.expr(new Term(run)), runLevel) ) );
+        }
+        return max;
+    }
+
+    byte infer(TypeInference t)
+
+    // Records and returns the type of this <term>, and records the type of each operand.
+
+    {
+        type = TypeInference.NONE;
+        for ( PrimaryItem pi : primaryItemList )
+        {
+            pi.type = pi.primary.infer(t);
+            type = pi instanceof SinglePrimaryItem ? pi.type : TypeInference.arithmetic(type, pi.type);
+        }
+        return type;
+    }
+
+    void emitInstructions(Compiler c)
+
+    // Each operator is emitted by TypeInference.operator() for the types of its operands.
+
+    {
+        byte left = TypeInference.ANY;
         for ( PrimaryItem p : primaryItemList )
-            p.printParseTree(indent+" ");
+            left = p.emitInstructions(c, left);
     }
 }
\ No newline at end of file
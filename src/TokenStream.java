@@ -0,0 +1,240 @@
+/**
+
+ This class is a stream of tokens passed from a lexical analyzer to a parser.
+
+ The tokens are kept in a ring buffer of parallel int arrays holding each token's kind
+ (its State ordinal, plus the flag INVALID for an invalid token) and its span in the input buffer.
+ The parser takes tokens with next() and can look ahead k tokens with peek(k), for k up to
+ the capacity of the ring, without lexing anything twice.
+
+ The stream is filled in one of two modes:
+
+ - synchronous: the consumer runs the producing LexAnalyzer itself whenever the ring runs dry;
+ - threaded: a lexer thread fills the ring ahead of the parser, so lexing and parsing overlap.
+   The lexer publishes tokens in batches of BATCH and blocks when the ring is full;
+   the parser blocks when it has consumed every published token.
+
+ The end of the input is represented by a token of kind Start with length 0, which is
+ returned again on every further call to next().
+
+ **/
+
+class TokenStream
+{
+	static final int INVALID = 0x80; // flag or-ed into the kind of an invalid token
+	static final int BATCH = 64;     // number of tokens published at once by a lexer thread
+
+	private static final State[] states = State.values();
+
+	private final int capacity; // a power of 2 and a multiple of BATCH
+	private final int mask;
+	private final int[] kind;
+	private final int[] start;
+	private final int[] length;
+
+	private final LexAnalyzer producer;
+	private final Thread thread; // the lexer thread, or null in synchronous mode
+
+	private long pending;            // number of tokens put, written only by the producer
+	private volatile long written;   // number of tokens published to the consumer
+	private volatile long read;      // number of tokens taken by the consumer
+	private volatile boolean done;   // true when the end-of-stream token has been published
+	private volatile boolean cancelled;
+	private volatile Throwable failure; // exception thrown on the lexer thread
+
+	TokenStream(LexAnalyzer lexer, int capacity, boolean threaded)
+
+	// Creates a stream of the tokens extracted by "lexer", which must already be set to its input.
+
+	{
+		int cap = BATCH;
+		while ( cap < capacity )
+			cap <<= 1;
+		this.capacity = cap;
+		mask = cap-1;
+		kind = new int[cap];
+		start = new int[cap];
+		length = new int[cap];
+		producer = lexer;
+
+		if ( threaded )
+		{
+			thread = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						producer.lexInto(TokenStream.this, Long.MAX_VALUE);
+					}
+					catch ( Throwable e )
+					{
+						failure = e;
+						synchronized ( TokenStream.this )
+						{
+							done = true;
+							TokenStream.this.notifyAll();
+						}
+					}
+				}
+			}, "lexer" );
+			thread.setDaemon(true);
+			thread.start();
+		}
+		else
+			thread = null;
+	}
+
+	// functions called by the producer
+
+	boolean put(int k, int st, int len)
+
+	// Appends a token. Returns false if the stream has been cancelled.
+
+	{
+		if ( pending - read == capacity ) // the ring is full
+		{
+			publish();
+			synchronized ( this )
+			{
+				while ( pending - read == capacity && ! cancelled )
+					waitHere();
+			}
+		}
+		if ( cancelled )
+			return false;
+
+		int i = (int) pending & mask;
+		kind[i] = k;
+		start[i] = st;
+		length[i] = len;
+		pending++;
+
+		if ( thread != null && (pending & (BATCH-1)) == 0 )
+			publish();
+		return true;
+	}
+
+	void publish()
+	{
+		written = pending;
+		if ( thread != null )
+			synchronized ( this )
+			{
+				notifyAll();
+			}
+	}
+
+	void end()
+
+	// Publishes the end-of-stream token, which must be the last token put.
+
+	{
+		written = pending;
+		synchronized ( this )
+		{
+			done = true;
+			notifyAll();
+		}
+	}
+
+	// functions called by the consumer
+
+	boolean next(LexAnalyzer lex)
+
+	// Moves to the next token and sets "lex.state", "lex.tStart" and "lex.tLen" to it.
+	// Returns false if the token is invalid.
+
+	{
+		long n = read;
+		boolean more = available(n);
+		if ( ! more ) // only the end-of-stream token remains; keep returning it
+			n--;
+
+		int i = (int) n & mask;
+		int k = kind[i];
+		lex.state = states[ k & ~INVALID ];
+		lex.tStart = start[i];
+		lex.tLen = length[i];
+
+		if ( more ) // the slot may be reused only after it has been copied
+		{
+			read = n+1;
+			if ( thread != null && (read & (BATCH-1)) == 0 ) // let a blocked lexer thread go on
+				synchronized ( this )
+				{
+					notifyAll();
+				}
+		}
+		return ( k & INVALID ) == 0;
+	}
+
+	State peek(int k)
+
+	// Returns the kind of the k-th token after the current one, 1 <= k <= capacity.
+	// Beyond the end of the input, returns Start, the kind of the end-of-stream token.
+
+	{
+		if ( k < 1 || k > capacity )
+			throw new IllegalArgumentException("lookahead " + k + " out of range 1.." + capacity);
+
+		long n = read-1+k;
+		if ( ! available(n) )
+			return State.Start;
+		return states[ kind[(int) n & mask] & ~INVALID ];
+	}
+
+	void cancel()
+
+	// Stops a lexer thread that is still filling the stream.
+
+	{
+		synchronized ( this )
+		{
+			cancelled = true;
+			notifyAll();
+		}
+	}
+
+	private boolean available(long n)
+
+	// Returns true if the token with index "n" is in the ring, waiting for or lexing it if necessary.
+	// Returns false if the stream ends before it.
+
+	{
+		if ( n < written )
+			return true;
+
+		if ( thread == null )
+		{
+			while ( n >= written && ! done )
+				producer.lexInto(this, capacity - (pending - read));
+		}
+		else
+			synchronized ( this )
+			{
+				// next() wakes a lexer blocked on a full ring only once per batch, but peek() may
+				// need a token it can only put in a slot freed since
+				notifyAll();
+				while ( n >= written && ! done )
+					waitHere();
+			}
+
+		if ( failure != null )
+			throw new RuntimeException("lexer thread failed", failure);
+		return n < written;
+	}
+
+	private void waitHere()
+	{
+		try
+		{
+			wait();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+
+ This class collects the linearly indented parse tree displayed by "Parser".
+
+ Each node is displayed on a separate line, prefixed with its depth i and indented by i blanks.
+ The parse functions pass the depth as an int; the blanks are copied from a preallocated
+ buffer of spaces and every line is appended to one output buffer, so no String is built
+ per node. The buffer is written to the output stream in one call whenever it grows past
+ FLUSH_LIMIT characters, since the indentation makes the output of deep nests quadratic
+ in size, and once more by flush() at the end.
+
+ **/
+
+class TreePrinter
+{
+	private static final int FLUSH_LIMIT = 1 << 16;
+
+	private static final String newline = System.lineSeparator(); // as used by PrintWriter.println
+
+	private static volatile char[] spaces = new char[256];
+
+	static
+	{
+		java.util.Arrays.fill(spaces, ' ');
+	}
+
+	private final IO io;
+	private final StringBuilder b;
+
+	TreePrinter(IO io)
+	{
+		this.io = io;
+		b = IO.pooledBuffer();
+	}
+
+	void start(int depth, String s)
+
+	// Starts the line of a node at "depth" with the text "s"; the line is ended by one of the end functions.
+
+	{
+		if ( b.length() > FLUSH_LIMIT )
+		{
+			io.displayBuffer(b);
+			b.setLength(0);
+		}
+		char[] sp = spaces;
+		if ( depth > sp.length )
+			sp = growSpaces(depth);
+		b.append(sp, 0, depth).append(depth).append(' ').append(s);
+	}
+
+	void line(int depth, String s)
+
+	// Displays the node "s" at "depth" on a line by itself.
+
+	{
+		start(depth, s);
+		b.append(newline);
+	}
+
+	void end()
+	{
+		b.append(newline);
+	}
+
+	void end(String s)
+	{
+		b.append(' ').append(s).append(newline);
+	}
+
+	void end(int i)
+	{
+		b.append(' ').append(i).append(newline);
+	}
+
+	void end(float f)
+	{
+		b.append(' ').append(f).append(newline);
+	}
+
+	void end(boolean v)
+	{
+		b.append(' ').append(v).append(newline);
+	}
+
+	void flush()
+
+	// Writes the lines not yet written to the output stream.
+
+	{
+		io.displayBuffer(b);
+	}
+
+	private static synchronized char[] growSpaces(int depth)
+	{
+		if ( depth > spaces.length )
+		{
+			char[] sp = new char[ Math.max(depth, spaces.length*2) ];
+			java.util.Arrays.fill(sp, ' ');
+			spaces = sp;
+		}
+		return spaces;
+	}
+}
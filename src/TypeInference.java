@@ -0,0 +1,179 @@
+/**
+
+ This class infers the types of the expressions of a statement at compile time, after fold()
+ and LoopOptimizer, so that their operators can be emitted as type-specialized instructions.
+
+ The type of a value is INT, FLOAT or BOOL, as in "VM". The type of a variable is the type of
+ all the values it may hold: those of the expressions assigned to it, and the int 0 if it may be
+ read before it is assigned. It is ANY, unknown, if they differ. The types are taken over the
+ whole statement rather than at each point, so they are sound wherever the variable is read.
+ An expression takes its type from its operands by the rules of "Fold": two int or bool
+ operands give an int, a float operand gives a float, and the relational and bool operators
+ give a bool. NONE is the type of a variable no value of which has been seen yet.
+
+ Whether a read may come before any assignment is decided by definite assignment: a variable
+ is assigned at a point if every path to it assigns the variable. The variables assigned by a
+ branch or a loop body are forgotten after it, except those assigned by both branches of an
+ if-else and by the body of a do loop, which runs at least once.
+
+ The types of the variables depend on one another through the expressions assigned, so the
+ statement is walked until no type changes. A type only rises, from NONE to a type to ANY, so
+ the walks end; the last one records the final types on the nodes.
+
+ Each E, Term and RelPrimary records the type of its value, or, for a RelPrimary, the type in
+ which its operands are compared; each PrimaryItem records the type of its operand. Their
+ emitInstructions() then pick the instruction by operator(): iadd for two ints, fadd for two
+ floats with an i2f after each int operand, or the generic add if an operand type is unknown.
+
+ **/
+
+import java.util.*;
+
+class TypeInference
+{
+	static final byte ANY = 0, INT = 1, FLOAT = 2, BOOL = 3, NONE = 4; // ANY is the type of a node not inferred
+
+	final HashMap<String,Byte> varType = new HashMap<String,Byte>(); // type of each variable
+	boolean changed; // a variable type rose in the current walk
+
+	final HashSet<String> assigned = new HashSet<String>(); // variables definitely assigned at the current node
+	final ArrayList<String> assignedOrder = new ArrayList<String>(); // "assigned" in the order they were added
+
+	static void infer(Statement s)
+	{
+		TypeInference t = new TypeInference();
+		do
+		{
+			t.changed = false;
+			t.assigned.clear();
+			t.assignedOrder.clear();
+			s.infer(t);
+		}
+		while ( t.changed );
+	}
+
+	byte read(String id)
+
+	// Returns the type of variable "id", read at the current node.
+
+	{
+		if ( ! assigned.contains(id) )
+			rise(id, INT);
+		return varType.getOrDefault(id, NONE);
+	}
+
+	void assign(String id, byte type)
+
+	// Records the assignment of a value of "type" to variable "id" at the current node.
+
+	{
+		rise(id, type);
+		define(id);
+	}
+
+	void rise(String id, byte type)
+	{
+		byte old = varType.getOrDefault(id, NONE);
+		byte t = join(old, type);
+		if ( t != old )
+		{
+			varType.put(id, t);
+			changed = true;
+		}
+	}
+
+	void define(String id)
+	{
+		if ( assigned.add(id) )
+			assignedOrder.add(id);
+	}
+
+	int mark()
+
+	// Returns a mark of the variables assigned so far, to forget those assigned after it by forget().
+
+	{
+		return assignedOrder.size();
+	}
+
+	List<String> forget(int mark)
+
+	// Forgets the variables assigned since "mark" and returns them.
+
+	{
+		List<String> tail = assignedOrder.subList(mark, assignedOrder.size());
+		ArrayList<String> since = new ArrayList<String>(tail);
+		assigned.removeAll(since);
+		tail.clear();
+		return since;
+	}
+
+	void defineBoth(List<String> a, List<String> b)
+
+	// Defines the variables that are in both "a" and "b", assigned by both branches of an if-else.
+
+	{
+		HashSet<String> inB = new HashSet<String>(b);
+		for ( String id : a )
+			if ( inB.contains(id) )
+				define(id);
+	}
+
+	static byte join(byte a, byte b)
+
+	// Returns the type of a variable that may hold a value of type "a" or one of type "b".
+
+	{
+		return a == NONE ? b : b == NONE || a == b ? a : ANY;
+	}
+
+	static byte arithmetic(byte a, byte b)
+
+	// Returns the type of "a op b" for an arithmetic operator op.
+
+	{
+		if ( a == NONE || b == NONE )
+			return NONE;
+		if ( a == FLOAT || b == FLOAT )
+			return FLOAT;
+		return a == ANY || b == ANY ? ANY : INT;
+	}
+
+	static byte negation(byte a)
+	{
+		return a == BOOL ? INT : a;
+	}
+
+	static boolean isKnown(byte t)
+	{
+		return t == INT || t == FLOAT || t == BOOL;
+	}
+
+	static Op operator(Op o, byte a, byte b)
+
+	// Returns the instruction for arithmetic or relational operator "o" on operands of types "a" and "b".
+
+	{
+		if ( ! isKnown(a) || ! isKnown(b) )
+			return o;
+		return o.specialized(a == FLOAT || b == FLOAT);
+	}
+
+	static void convert(Code code, Op o, byte t)
+
+	// Emits the conversion of an operand of type "t" for instruction "o", after the operand.
+	// A literal operand, which is emitted as one push, is pushed as a float instead.
+
+	{
+		if ( ! o.onFloats() || t == FLOAT )
+			return;
+		int last = code.size - 1;
+		if ( code.op[last] == Op.intpush.ordinal() || code.op[last] == Op.boolpush.ordinal() )
+		{
+			code.op[last] = Op.floatpush.ordinal();
+			code.arg[last] = Float.floatToIntBits(code.arg[last]);
+		}
+		else
+			code.emit(Op.i2f);
+	}
+}
@@ -0,0 +1,582 @@
+/**
+
+ This class is an interpreter for the instruction stream emitted by "Compiler".
+
+ The instructions are loaded into one int array "code", two ints per instruction: the opcode
+ and the operand. The labels are removed and each jump operand is replaced by the index in
+ "code" of its target, so the dispatch loop does no lookups.
+
+ Values are kept unboxed. The operand stack is three parallel arrays indexed by the stack
+ pointer: "intStack" for int and bool values (bools are 0 or 1), "floatStack" for float values,
+ and "typeStack" for the type of each entry. The variables are held the same way, in slots
+ numbered by Compiler.varMap. A variable that was never assigned holds the int 0.
+
+ The operators follow the semantics described in "Fold": an operation on two ints gives an
+ int, and one with a float operand converts the other operand and gives a float. An int
+ division by zero stops the program with an ArithmeticException. The type-specialized
+ instructions, like iadd and flt, do not check the types: the compiler emits them only for
+ operands of the types they expect, converting an int operand of a float one by i2f. A value is true when it is
+ not zero, for iftrue, iffalse, and, or, and inv.
+
+ Hot loops run as JVM bytecode. Each taken backward jump counts an execution of the loop it
+ closes; after "hotLoop" of them the loop is translated by "LoopCompiler", and from then on
+ the backward jump calls the translated loop instead of jumping to its head. A loop that
+ cannot be translated, or whose variables no longer have the types it was translated for,
+ keeps running in the interpreter. With "tiered" false every instruction is interpreted.
+
+ Usage:
+
+ java VM [-interpret] [-vars] inputFile
+
+ compiles the statement on "inputFile" with the default options of "Compiler", runs it, and
+ displays what it prints. -vars compiles it without the passes that change the final values of
+ the variables and also displays the final value of each variable. -interpret turns off the
+ translation of hot loops.
+
+ **/
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.*;
+import java.util.*;
+
+public class VM
+{
+	static final byte INT = 0, FLOAT = 1, BOOL = 2; // value types; (t1 | t2) & FLOAT is not 0 if either is FLOAT
+
+	// opcodes of "code", in the order of the enum type "Op", which cannot be used as case labels
+
+	static final int INTPUSH = 0, FLOATPUSH = 1, BOOLPUSH = 2, LOAD = 3, STORE = 4,
+	                 ADD = 5, SUB = 6, MUL = 7, DIV = 8, NEG = 9, AND = 10, OR = 11, INV = 12,
+	                 LT = 13, LE = 14, GT = 15, GE = 16, EQ = 17, NEQ = 18,
+	                 GOTO = 19, IFTRUE = 20, IFFALSE = 21, PRINT = 22, TABLESWITCH = 23,
+	                 IADD = 24, ISUB = 25, IMUL = 26, IDIV = 27, ILT = 28, ILE = 29, IGT = 30, IGE = 31, IEQ = 32, INEQ = 33,
+	                 FADD = 34, FSUB = 35, FMUL = 36, FDIV = 37, FLT = 38, FLE = 39, FGT = 40, FGE = 41, FEQ = 42, FNEQ = 43,
+	                 I2F = 44;
+
+	static
+	{
+		if ( Op.tableswitch.ordinal() != TABLESWITCH || Op.goto_.ordinal() != GOTO || Op.lt.ordinal() != LT
+		     || Op.iadd.ordinal() != IADD || Op.fadd.ordinal() != FADD || Op.i2f.ordinal() != I2F )
+			throw new AssertionError("VM opcodes out of step with Op");
+	}
+
+	static final int[] GENERIC = { ADD, SUB, MUL, DIV, LT, LE, GT, GE, EQ, NEQ }; // of IADD .. INEQ, and of FADD .. FNEQ
+
+	static int generic(int o)
+
+	// Returns the opcode of the operator that type-specialized opcode "o" is specialized from, or "o".
+
+	{
+		return o >= IADD && o < I2F ? GENERIC[(o - IADD) % GENERIC.length] : o;
+	}
+
+	final int[] code;   // opcode and operand of each instruction
+	final int maxStack; // largest operand stack depth reached by "code"
+
+	final HashMap<String,Integer> varMap; // variable slots by name
+	final int[] intVar;
+	final float[] floatVar;
+	final byte[] typeVar;
+
+	static int hotLoop = 1000;  // taken back edges after which a loop is translated
+	boolean tiered = true;      // translate hot loops
+	final int[] backEdges;      // back edges taken per loop, by code index of the loop head / 2
+	final MethodHandle[] loops; // translated loops, by code index of the loop head / 2
+
+	public VM(Compiler c)
+
+	// Loads the instruction stream emitted by "c", with one variable slot per variable of "c".
+
+	{
+		Code src = c.code;
+
+		int[] target = new int[src.labelCount];
+		int n = 0;
+		for ( int i = 0; i < src.size; i++ )
+			if ( src.op[i] == Op.label.ordinal() )
+				target[src.arg[i]] = 2*n;
+			else
+				n++;
+
+		code = new int[2*n];
+		int pc = 0, depth = 0, max = 0;
+		for ( int i = 0; i < src.size; i++ )
+		{
+			Op o = Code.ops[src.op[i]];
+			if ( o == Op.label )
+				continue;
+			code[pc] = o.ordinal();
+			code[pc+1] = o.hasLabelOperand() ? target[src.arg[i]] : src.arg[i];
+			pc += 2;
+
+			depth += stackEffect(o);
+			max = Math.max(max, depth);
+		}
+		maxStack = max;
+
+		varMap = c.varMap;
+		intVar = new int[c.varNum];
+		floatVar = new float[c.varNum];
+		typeVar = new byte[c.varNum];
+
+		backEdges = new int[n];
+		loops = new MethodHandle[n];
+	}
+
+	static int stackEffect(Op o)
+	{
+		switch ( o )
+		{
+			case intpush: case floatpush: case boolpush: case load:
+				return 1;
+			case neg: case inv: case goto_: case label: case i2f:
+				return 0;
+			case tableswitch:
+				return -2;
+			default:
+				return -1;
+		}
+	}
+
+	public long run(IO io)
+
+	// Runs the program from its first instruction, displaying the printed values on the output stream of "io".
+	// Returns the number of instructions executed by the interpreter, which excludes those of translated loops.
+	// The values printed before a run-time error are displayed before the error is thrown.
+
+	{
+		StringBuilder out = IO.pooledBuffer();
+		try
+		{
+			return interpret(io, out);
+		}
+		finally
+		{
+			io.displayBuffer(out);
+		}
+	}
+
+	private long interpret(IO io, StringBuilder out)
+
+	// Runs the program, appending the printed values to "out", which is displayed whenever it grows past 64K.
+
+	{
+		int[] code = this.code;
+		int[] intStack = new int[maxStack+1];
+		float[] floatStack = new float[maxStack+1];
+		byte[] typeStack = new byte[maxStack+1];
+		int[] intVar = this.intVar;
+		float[] floatVar = this.floatVar;
+		byte[] typeVar = this.typeVar;
+		boolean tiered = this.tiered;
+
+		int sp = -1; // index of the top of the stack
+		int pc = 0;
+		long count = 0;
+
+		while ( pc < code.length )
+		{
+			int o = code[pc];
+			int x = code[pc+1];
+			pc += 2;
+			count++;
+
+			switch ( o )
+			{
+				case INTPUSH:
+					sp++;
+					intStack[sp] = x;
+					typeStack[sp] = INT;
+					break;
+
+				case FLOATPUSH:
+					sp++;
+					floatStack[sp] = Float.intBitsToFloat(x);
+					typeStack[sp] = FLOAT;
+					break;
+
+				case BOOLPUSH:
+					sp++;
+					intStack[sp] = x;
+					typeStack[sp] = BOOL;
+					break;
+
+				case LOAD:
+					sp++;
+					intStack[sp] = intVar[x];
+					floatStack[sp] = floatVar[x];
+					typeStack[sp] = typeVar[x];
+					break;
+
+				case STORE:
+					intVar[x] = intStack[sp];
+					floatVar[x] = floatStack[sp];
+					typeVar[x] = typeStack[sp];
+					sp--;
+					break;
+
+				case ADD:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+					{
+						intStack[sp] = intStack[sp] + intStack[sp+1];
+						typeStack[sp] = INT;
+					}
+					else
+					{
+						floatStack[sp] = floatValue(intStack, floatStack, typeStack, sp) + floatValue(intStack, floatStack, typeStack, sp+1);
+						typeStack[sp] = FLOAT;
+					}
+					break;
+
+				case SUB:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+					{
+						intStack[sp] = intStack[sp] - intStack[sp+1];
+						typeStack[sp] = INT;
+					}
+					else
+					{
+						floatStack[sp] = floatValue(intStack, floatStack, typeStack, sp) - floatValue(intStack, floatStack, typeStack, sp+1);
+						typeStack[sp] = FLOAT;
+					}
+					break;
+
+				case MUL:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+					{
+						intStack[sp] = intStack[sp] * intStack[sp+1];
+						typeStack[sp] = INT;
+					}
+					else
+					{
+						floatStack[sp] = floatValue(intStack, floatStack, typeStack, sp) * floatValue(intStack, floatStack, typeStack, sp+1);
+						typeStack[sp] = FLOAT;
+					}
+					break;
+
+				case DIV:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+					{
+						intStack[sp] = intStack[sp] / intStack[sp+1];
+						typeStack[sp] = INT;
+					}
+					else
+					{
+						floatStack[sp] = floatValue(intStack, floatStack, typeStack, sp) / floatValue(intStack, floatStack, typeStack, sp+1);
+						typeStack[sp] = FLOAT;
+					}
+					break;
+
+				case NEG:
+					if ( typeStack[sp] == FLOAT )
+						floatStack[sp] = -floatStack[sp];
+					else
+					{
+						intStack[sp] = -intStack[sp];
+						typeStack[sp] = INT;
+					}
+					break;
+
+				case AND:
+					sp--;
+					intStack[sp] = isTrue(intStack, floatStack, typeStack, sp) & isTrue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case OR:
+					sp--;
+					intStack[sp] = isTrue(intStack, floatStack, typeStack, sp) | isTrue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case INV:
+					intStack[sp] = isTrue(intStack, floatStack, typeStack, sp) ? 0 : 1;
+					typeStack[sp] = BOOL;
+					break;
+
+				case LT:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+						intStack[sp] = intStack[sp] < intStack[sp+1] ? 1 : 0;
+					else
+						intStack[sp] = floatValue(intStack, floatStack, typeStack, sp) < floatValue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case LE:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+						intStack[sp] = intStack[sp] <= intStack[sp+1] ? 1 : 0;
+					else
+						intStack[sp] = floatValue(intStack, floatStack, typeStack, sp) <= floatValue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case GT:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+						intStack[sp] = intStack[sp] > intStack[sp+1] ? 1 : 0;
+					else
+						intStack[sp] = floatValue(intStack, floatStack, typeStack, sp) > floatValue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case GE:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+						intStack[sp] = intStack[sp] >= intStack[sp+1] ? 1 : 0;
+					else
+						intStack[sp] = floatValue(intStack, floatStack, typeStack, sp) >= floatValue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case EQ:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+						intStack[sp] = intStack[sp] == intStack[sp+1] ? 1 : 0;
+					else
+						intStack[sp] = floatValue(intStack, floatStack, typeStack, sp) == floatValue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case NEQ:
+					sp--;
+					if ( ((typeStack[sp] | typeStack[sp+1]) & FLOAT) == 0 )
+						intStack[sp] = intStack[sp] != intStack[sp+1] ? 1 : 0;
+					else
+						intStack[sp] = floatValue(intStack, floatStack, typeStack, sp) != floatValue(intStack, floatStack, typeStack, sp+1) ? 1 : 0;
+					typeStack[sp] = BOOL;
+					break;
+
+				case GOTO:
+					pc = tiered && x < pc ? backEdge(x, pc-2) : x;
+					break;
+
+				case IFTRUE:
+					if ( isTrue(intStack, floatStack, typeStack, sp--) )
+						pc = tiered && x < pc ? backEdge(x, pc-2) : x;
+					break;
+
+				case IFFALSE:
+					if ( ! isTrue(intStack, floatStack, typeStack, sp--) )
+						pc = tiered && x < pc ? backEdge(x, pc-2) : x;
+					break;
+
+				case TABLESWITCH: // continues directly at the target of the selected goto
+					sp -= 2;
+					pc = code[pc + 2*tableIndex(intStack, floatStack, typeStack, sp+1, intStack[sp+2], x) + 1];
+					break;
+
+				case IADD: sp--; intStack[sp] = intStack[sp] + intStack[sp+1]; typeStack[sp] = INT; break;
+				case ISUB: sp--; intStack[sp] = intStack[sp] - intStack[sp+1]; typeStack[sp] = INT; break;
+				case IMUL: sp--; intStack[sp] = intStack[sp] * intStack[sp+1]; typeStack[sp] = INT; break;
+				case IDIV: sp--; intStack[sp] = intStack[sp] / intStack[sp+1]; typeStack[sp] = INT; break;
+
+				case FADD: sp--; floatStack[sp] = floatStack[sp] + floatStack[sp+1]; break;
+				case FSUB: sp--; floatStack[sp] = floatStack[sp] - floatStack[sp+1]; break;
+				case FMUL: sp--; floatStack[sp] = floatStack[sp] * floatStack[sp+1]; break;
+				case FDIV: sp--; floatStack[sp] = floatStack[sp] / floatStack[sp+1]; break;
+
+				case ILT:  sp--; intStack[sp] = intStack[sp] <  intStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case ILE:  sp--; intStack[sp] = intStack[sp] <= intStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case IGT:  sp--; intStack[sp] = intStack[sp] >  intStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case IGE:  sp--; intStack[sp] = intStack[sp] >= intStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case IEQ:  sp--; intStack[sp] = intStack[sp] == intStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case INEQ: sp--; intStack[sp] = intStack[sp] != intStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+
+				case FLT:  sp--; intStack[sp] = floatStack[sp] <  floatStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case FLE:  sp--; intStack[sp] = floatStack[sp] <= floatStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case FGT:  sp--; intStack[sp] = floatStack[sp] >  floatStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case FGE:  sp--; intStack[sp] = floatStack[sp] >= floatStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case FEQ:  sp--; intStack[sp] = floatStack[sp] == floatStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+				case FNEQ: sp--; intStack[sp] = floatStack[sp] != floatStack[sp+1] ? 1 : 0; typeStack[sp] = BOOL; break;
+
+				case I2F:
+					floatStack[sp] = intStack[sp];
+					typeStack[sp] = FLOAT;
+					break;
+
+				case PRINT:
+					appendValue(out, intStack[sp], floatStack[sp], typeStack[sp]);
+					out.append(System.lineSeparator());
+					sp--;
+					if ( out.length() > 1 << 16 )
+					{
+						io.displayBuffer(out);
+						out.setLength(0);
+					}
+					break;
+			}
+		}
+
+		return count;
+	}
+
+	private int backEdge(int head, int jump)
+
+	// Takes the backward jump at "jump" to "head", running the loop as bytecode if it is translated.
+	// Returns the code index at which to continue. The operand stack is empty at a loop head.
+
+	{
+		MethodHandle loop = loops[head/2];
+		if ( loop == null )
+		{
+			if ( ++backEdges[head/2] != hotLoop )
+				return head;
+			loop = LoopCompiler.compile(code, head, jump, typeVar);
+			if ( loop == null )
+				return head; // the count has passed "hotLoop", so the loop is not tried again
+			loops[head/2] = loop;
+		}
+		try
+		{
+			return (int) loop.invokeExact(intVar, floatVar, typeVar);
+		}
+		catch ( RuntimeException | Error e )
+		{
+			throw e;
+		}
+		catch ( Throwable t )
+		{
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static int tableIndex(int[] intStack, float[] floatStack, byte[] typeStack, int i, int low, int n)
+
+	// Returns the index of the tableswitch entry selected by the value at stack index "i": a - low if it
+	// is in 0 .. n-1, else n. A float selects the entry of the int it equals, like "eq".
+
+	{
+		long a;
+		if ( typeStack[i] == FLOAT )
+		{
+			float f = floatStack[i];
+			if ( (long) f != f )
+				return n;
+			a = (long) f;
+		}
+		else
+			a = intStack[i];
+		long k = a - low;
+		return k >= 0 && k < n ? (int) k : n;
+	}
+
+	private static float floatValue(int[] intStack, float[] floatStack, byte[] typeStack, int i)
+	{
+		return typeStack[i] == FLOAT ? floatStack[i] : intStack[i];
+	}
+
+	private static boolean isTrue(int[] intStack, float[] floatStack, byte[] typeStack, int i)
+	{
+		return typeStack[i] == FLOAT ? floatStack[i] != 0 : intStack[i] != 0;
+	}
+
+	static void appendValue(StringBuilder b, int i, float f, byte type)
+	{
+		if ( type == FLOAT )
+			b.append(f);
+		else if ( type == BOOL )
+			b.append(i != 0);
+		else
+			b.append(i);
+	}
+
+	public String valueOf(String var)
+
+	// Returns the current value of the variable "var" as text, or null if the program has no such variable.
+
+	{
+		Integer slot = varMap.get(var);
+		if ( slot == null )
+			return null;
+		StringBuilder b = new StringBuilder();
+		appendValue(b, intVar[slot], floatVar[slot], typeVar[slot]);
+		return b.toString();
+	}
+
+	static boolean runProgram(byte[] src, boolean tiered, boolean variables, PrintWriter out)
+
+	// Compiles the statement "src", runs it, and displays on "out" what it prints, followed by a
+	// run-time error if there is one and, if "variables" is true, the final value of each
+	// variable. Returns true if no compile or run-time error was found.
+
+	{
+		Compiler c = new Compiler();
+		if ( variables ) // the passes that change the final values of the variables, as described in "Compiler"
+			c.reuseSlots = c.optimizeLoops = c.peephole = false;
+		return runProgram(c, src, tiered, variables, out);
+	}
+
+	static boolean runProgram(Compiler c, byte[] src, boolean tiered, boolean variables, PrintWriter out)
+
+	// Same as above, compiling "src" with the options of "c".
+
+	{
+		c.setInput(src, src.length);
+		c.outStream = out;
+
+		boolean ok = c.translate();
+		c.tokens.cancel();
+		if ( ok )
+		{
+			VM vm = new VM(c);
+			vm.tiered = tiered;
+			try
+			{
+				vm.run(c);
+			}
+			catch ( ArithmeticException e )
+			{
+				c.displayln("run-time error: / by zero"); // the only ArithmeticException; its message may be null once the JIT compiled the throw
+				ok = false;
+			}
+			if ( ! variables )
+			{
+				out.flush();
+				return ok;
+			}
+
+			String[] names = new String[c.varNum]; // in slot order; temporaries have no name
+			for ( Map.Entry<String,Integer> e : c.varMap.entrySet() )
+				names[e.getValue()] = e.getKey();
+			for ( String name : names )
+				if ( name != null )
+					c.displayln(name + " = " + vm.valueOf(name));
+		}
+		out.flush();
+		return ok;
+	}
+
+	public static void main(String argv[]) throws IOException
+	{
+		// optional leading flags:
+		//   "-interpret" interprets every instruction
+		//   "-vars" displays the final value of each variable
+		// argv[last]: input file containing a statement
+
+		boolean interpret = false, variables = false;
+		int i = 0;
+		for ( ; i < argv.length-1; i++ )
+			if ( argv[i].equals("-interpret") )
+				interpret = true;
+			else if ( argv[i].equals("-vars") )
+				variables = true;
+			else
+				break;
+		if ( i != argv.length-1 )
+		{
+			System.err.println("usage: java VM [-interpret] [-vars] inputFile");
+			System.exit(2);
+		}
+
+		byte[] src = Files.readAllBytes( Paths.get(argv[i]) );
+		if ( ! runProgram( src, ! interpret, variables, new PrintWriter( new OutputStreamWriter(System.out) ) ) )
+			System.exit(1);
+	}
+}
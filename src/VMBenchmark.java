@@ -0,0 +1,130 @@
+/**
+
+ This class measures the speed of "VM" on loop-heavy programs.
+
+ Each program is compiled once and then run "warmup" times to let the JIT settle and "rounds"
+ measured times, once with every instruction interpreted ("interp") and once with hot loops
+ translated to bytecode ("tiered"). For each program and mode the instructions executed by the
+ interpreter, the time per run and the bytes allocated per run by the measuring thread are
+ displayed; instructions per second are displayed for the interpreted mode only.
+
+ sum       a counting loop adding ints
+ nested    two nested for loops with int multiplication
+ float     a loop of float arithmetic on an int counter
+ collatz   while loops with if/else on int division, over a range of start values
+ switch    a state machine: a switch inside a loop
+
+ Usage:
+
+ java VMBenchmark [-warmup n] [-rounds n] [program ...]
+
+ **/
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class VMBenchmark
+{
+	static int warmup = 5;
+	static int rounds = 10;
+
+	static final String[][] programs =
+	{
+		{ "sum",
+		  "{ s = 0; i = 0; while (i < 5000000) { s = s + i; i = i + 1; } }" },
+		{ "nested",
+		  "{ s = 0; for (i = 0; i < 2000; i = i+1) for (j = 0; j < 1000; j = j+1) s = s + i*j; }" },
+		{ "float",
+		  "{ x = 0.0; for (i = 0; i < 2000000; i = i+1) x = x + 0.5 * i / 3.0 - x / 1000; }" },
+		{ "collatz",
+		  "{ total = 0; for (k = 1; k < 30000; k = k+1) { n = k; while (n != 1) { if (n - n/2*2 == 0) n = n/2; else n = 3*n+1; total = total+1; } } }" },
+		{ "switch",
+		  "{ state = 0; count = 0; for (i = 0; i < 1000000; i = i+1) { switch (state) { case 0: state = 1; case 1: state = 2; count = count+1; case 2: state = 3; case 3: state = 0; default: state = 0; } } }" },
+	};
+
+	static final PrintWriter nullWriter = new PrintWriter( new Writer()
+	{
+		public void write(char[] buf, int off, int len) {}
+		public void flush() {}
+		public void close() {}
+	} );
+
+	static Compiler compile(String name, String source)
+	{
+		Compiler c = new Compiler();
+		byte[] src = source.getBytes(StandardCharsets.ISO_8859_1);
+		c.setInput(src, src.length);
+		c.outStream = new PrintWriter( new OutputStreamWriter(System.out) );
+		boolean ok = c.translate();
+		c.tokens.cancel();
+		c.outStream.flush();
+		if ( ! ok )
+			throw new IllegalArgumentException(name + " : syntax error");
+		c.outStream = nullWriter;
+		return c;
+	}
+
+	static VM load(Compiler c, boolean tiered)
+	{
+		VM vm = new VM(c);
+		vm.tiered = tiered;
+		return vm;
+	}
+
+	static void measure(String name, Compiler c, boolean tiered)
+	{
+		long instructions = 0;
+		for ( int r = 0; r < warmup; r++ )
+			load(c, tiered).run(c);
+
+		long best = Long.MAX_VALUE;
+		long total = 0;
+		long alloc0 = Benchmark.allocatedBytes();
+		for ( int r = 0; r < rounds; r++ )
+		{
+			VM vm = load(c, tiered);
+			long start = System.nanoTime();
+			instructions = vm.run(c);
+			long nanos = System.nanoTime() - start;
+			best = Math.min(best, nanos);
+			total += nanos;
+		}
+		long alloc = Benchmark.allocatedBytes() - alloc0;
+
+		System.out.printf( "%-8s %-6s %12d instructions", name, tiered ? "tiered" : "interp", instructions );
+		if ( tiered )
+			System.out.printf( " %26s", "" );
+		else
+			System.out.printf( " %10.1f M instructions/sec", instructions * 1e3 / best );
+		System.out.printf( " %10.3f ms/run (best %.3f)", total / 1e6 / rounds, best / 1e6 );
+		if ( alloc0 >= 0 )
+			System.out.printf( " %10.0f bytes/run alloc", (double) alloc / rounds );
+		System.out.println();
+	}
+
+	public static void main(String argv[])
+	{
+		List<String> only = new ArrayList<String>();
+
+		for ( int i = 0; i < argv.length; i++ )
+		{
+			if ( argv[i].equals("-warmup") )
+				warmup = Integer.parseInt(argv[++i]);
+			else if ( argv[i].equals("-rounds") )
+				rounds = Integer.parseInt(argv[++i]);
+			else
+				only.add(argv[i]);
+		}
+
+		System.out.println( warmup + " warmup rounds, " + rounds + " rounds" );
+		for ( String[] p : programs )
+			if ( only.isEmpty() || only.contains(p[0]) )
+			{
+				Compiler c = compile(p[0], p[1]);
+				measure(p[0], c, false);
+				measure(p[0], c, true);
+			}
+	}
+}
@@ -1,7 +1,11 @@
+import java.util.*;
+
 class WhileLoop extends Statement
 {
     Expr expr;
     Statement statement;
+    List<Temp> hoisted = Collections.emptyList(); // loop-invariant expressions evaluated before the loop
+    int firstAssignment, endAssignment; // the numbers of the assignments in the loop, given by LoopOptimizer
 
     WhileLoop(Expr e, Statement s)
     {
@@ -9,15 +13,75 @@ class WhileLoop extends Statement
         statement = s;
     }
 
-    void printParseTree(String indent)
+    void printParseTree(int depth, TreePrinter p)
+    {
+        super.printParseTree(depth, p);
+        p.line(depth+1, "<while loop>");
+        p.line(depth+2, "while");
+        expr.printParseTree(depth+2, p);
+        statement.printParseTree(depth+2, p);
+    }
+
+    Statement fold()
+
+    // A loop whose condition is false is removed; one whose condition is true is kept as is.
+
+    {
+        expr.fold();
+        statement = statement.fold();
+        Primary k = expr.constant();
+        if ( k instanceof Bool && ! ((Bool) k).val )
+            return Fold.nothing();
+        return this;
+    }
+
+    void scan(LoopOptimizer o)
+    {
+        firstAssignment = o.assignmentCount;
+        expr.scan(o);
+        statement.scan(o);
+        endAssignment = o.assignmentCount;
+    }
+
+    Statement prune(LoopOptimizer o)
+    {
+        statement = statement.prune(o);
+        return this;
+    }
+
+    void hoist(LoopOptimizer o)
+    {
+        hoisted = new LinkedList<Temp>();
+        o.enter(firstAssignment, endAssignment, hoisted);
+        expr = o.hoist(expr);
+        statement.hoist(o);
+        o.exit();
+    }
+
+    void infer(TypeInference t)
+    {
+        expr.infer(t);
+        int m = t.mark();
+        statement.infer(t);
+        t.forget(m);
+    }
+
+    void replace(Statement old, Statement s)
+    {
+        if ( statement == old )
+            statement = s;
+    }
+
+    void emitInstructions(Compiler c)
     {
-        String indent1 = indent + " ";
-        String indent2 = indent + "  ";
+        int top = c.code.newLabel();
+        int end = c.code.newLabel();
 
-        super.printParseTree(indent);
-        IO.displayln(indent1 + indent1.length() + " <while loop>");
-        IO.displayln(indent2 + indent2.length() + " while");
-        expr.printParseTree(indent2);
-        statement.printParseTree(indent2);
+        Temp.emitAll(hoisted, c);
+        c.code.placeLabel(top);
+        expr.emitBranch(c, false, end);
+        statement.emitInstructions(c);
+        c.code.emit(Op.goto_, top);
+        c.code.placeLabel(end);
     }
 }
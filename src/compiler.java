@@ -1,27 +1,229 @@
+/**
+
+ This class is a compiler that translates a statement into an instruction stream for a stack machine.
+ The instruction set is defined by the enum type "Op".
+
+ The parse tree built by "Parser" is translated by the emitInstructions(Compiler c) function of each
+ syntactic category class, which appends the instructions to "code".
+ If "compactTree" is set, the parse tree is built as an "Ast", with its expressions parsed by
+ precedence climbing, and translated by Ast.emitInstructions() as it was parsed: the passes on
+ the object tree below, fold(), "LoopOptimizer" and "TypeInference", are not run on an Ast, so
+ its constant subexpressions are evaluated at run time and its operators are the generic ones,
+ like add or lt. -compact thus trades these optimizations for the memory of the object tree;
+ "Peephole" and "SlotAllocator", which work on the instruction stream, run either way.
+ Before it is translated, the object tree is simplified by the fold() functions, which evaluate
+ constant subexpressions as described in "Fold" and prune conditionals decided by a constant.
+ If "optimizeLoops" is set, "LoopOptimizer" then removes its dead stores and hoists the
+ loop-invariant subexpressions of its loops into temporaries.
+ If "inferTypes" is set, "TypeInference" then gives its expressions static types, and their
+ operators are emitted as type-specialized instructions, like iadd or flt, where the types of
+ both operands are known, with an i2f for an int operand of a float operator.
+ The conditions of if, while, do and for statements are emitted as jumps by emitBranch():
+ || and && stop at the first operand that decides the condition, whose other operands are not
+ evaluated, and no bool value is computed for the condition as a whole.
+ Variables are numbered sequentially in order of first appearance; "varMap" stores the numbers.
+ If "peephole" is set, the instruction stream is then rewritten by "Peephole".
+ If "reuseSlots" is set, the numbers are then replaced by the slots of "SlotAllocator", which
+ gives variables whose live ranges do not overlap the same slot, and "varNum" becomes the
+ number of slots.
+ The instruction stream is written to the output file in one piece once it is complete.
+ With -cache, main() takes the output from a "CompilationCache" when the same input was compiled before.
+
+ The passes keep what a program prints, which is all a program can observe, but not the final
+ values of its variables: "LoopOptimizer" removes the stores to a variable that is never read,
+ the storeLoad rule of "Peephole" removes a store whose value is read once right after it, and
+ "SlotAllocator" lets a later variable overwrite the slot of one whose live range is over. A tool
+ that displays the final values, like java VM -vars, turns off optimizeLoops, peephole and
+ reuseSlots.
+
+ **/
+
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 
-public abstract class Compiler extends Parser
+public class Compiler extends Parser
 {
 	public static final String indent = "\t";
 
-	public static int varNum = 0; // sequential number of variables
-	public static HashMap<String,Integer> varMap = new HashMap<String,Integer>(); // stores sequential numbers of variables
+	public int varNum = 0; // sequential number of variables
+	public boolean foldConstants = true; // if true, constant subexpressions of the object tree are evaluated by fold()
+	public boolean reuseSlots = true; // if true, variables whose live ranges do not overlap share a slot
+	public boolean optimizeLoops = true; // if true, the object tree is optimized by "LoopOptimizer" after fold()
+	public boolean inferTypes = true; // if true, operators are emitted as type-specialized instructions where the types are known
+	public boolean peephole = true; // if true, the emitted instructions are rewritten by "Peephole"
+	Peephole peepholeStats; // the rule counts of the last translation, if "peephole" is set
+	public HashMap<String,Integer> varMap = new HashMap<String,Integer>(); // stores sequential numbers of variables
+
+	Code code = new Code(); // the instruction stream being emitted
+
+	int varNumber(String id)
+
+	// Returns the sequential number of variable "id", assigning the next number on its first appearance.
 
-	public static void main(String argv[])
 	{
-		// argv[0]: input file containing a statement
-		// argv[1]: output file containing instruction stream or error messages
+		Integer n = varMap.get(id);
+		if ( n == null )
+		{
+			n = varNum++;
+			varMap.put(id, n);
+		}
+		return n;
+	}
+
+	int newTemp()
 
-		setIO( argv[0], argv[1] );
-		setLex();
+	// Returns the number of a new variable that does not appear in the source.
 
+	{
+		return varNum++;
+	}
+
+	public boolean compile(String inFile, String outFile)
+
+	// Compiles the statement on "inFile" and writes the instruction stream or error messages on "outFile".
+	// Returns true if no syntax error was found.
+
+	{
+		setIO( inFile, outFile );
+		try
+		{
+			return compileInput();
+		}
+		finally
+		{
+			closeIO();
+		}
+	}
+
+	public boolean compileInput()
+
+	// Compiles the statement on the input and writes the instruction stream or error messages on the output stream.
+	// Returns true if no syntax error was found.
+
+	{
+		boolean ok = translate();
+		if ( ok )
+			code.writeTo(this);
+		return ok;
+	}
+
+	boolean translate()
+
+	// Parses the statement on the input and emits its instructions into "code".
+	// Syntax errors are displayed on the output stream. Returns true if none was found.
+
+	{
+		openTokenStream();
+
+		boolean ok = false;
 		getToken();
-		Statement statement = statement(); // build a parse tree
-		if ( ! t.isEmpty() )
-			displayln(t + "  -- unexpected symbol");
+		Ast ast = null;
+		int root = Ast.NONE;
+		Statement statement = null;
+		if ( compactTree )
+		{
+			ast = new Ast();
+			root = new AstParser(this, ast, true).statement();
+		}
+		else
+			statement = statement(); // build a parse tree
+
+		if ( tLen != 0 )
+			displayln(token() + "  -- unexpected symbol");
 		else if ( ! syntaxErrorFound )
-			statement.emitInstructions();
+		{
+			if ( compactTree )
+				ast.emitInstructions(root, this);
+			else
+			{
+				if ( foldConstants )
+					statement = statement.fold();
+				if ( optimizeLoops )
+					statement = LoopOptimizer.optimize(statement);
+				if ( inferTypes )
+					TypeInference.infer(statement);
+				statement.emitInstructions(this);
+			}
+			if ( peephole )
+				peepholeStats = Peephole.optimize(code, varNum);
+			if ( reuseSlots )
+				allocateSlots();
+			ok = true;
+		}
+		return ok;
+	}
+
+	void allocateSlots()
+
+	// Renumbers the variables of "code" by SlotAllocator, updating "varMap" and "varNum".
+
+	{
+		SlotAllocator a = SlotAllocator.allocate(code, varNum);
+		for ( Map.Entry<String,Integer> e : varMap.entrySet() )
+			e.setValue( a.slot[e.getValue()] );
+		varNum = a.slotCount;
+	}
+
+	static boolean run(String kind, boolean compact, byte[] src, PrintWriter out)
+
+	// Compiles, parses or lexes "src" as named by "kind", "compile", "parse" or "lex", and writes the
+	// output of compile(), parse() or listTokens() to "out". Returns true if no error was found.
+
+	{
+		switch ( kind )
+		{
+		case "compile":
+			Compiler c = new Compiler();
+			c.compactTree = compact;
+			c.setInput(src, src.length);
+			c.outStream = out;
+			boolean compiled = c.compileInput();
+			c.closeIO();
+			return compiled;
+
+		case "parse":
+			Parser p = new Parser();
+			p.compactTree = compact;
+			p.setInput(src, src.length);
+			p.outStream = out;
+			boolean parsed = p.parseInput();
+			p.closeIO();
+			return parsed;
+
+		default:
+			LexAnalyzer lex = new LexAnalyzer();
+			lex.setInput(src, src.length);
+			lex.outStream = out;
+			lex.listTokens();
+			lex.closeIO();
+			return true;
+		}
+	}
+
+	public static void main(String argv[])
+	{
+		// argv[0]: input file containing a statement
+		// argv[1]: output file containing instruction stream or error messages
+		// optional leading flags:
+		//   "-compact" builds the compact parse tree "Ast"
+		//   "-stats" displays how often each peephole rule applied
+		//   "-cache" cacheDir takes the output from "CompilationCache" in cacheDir if it is there (not with "-stats")
 
-		closeIO();
+		Compiler c = new Compiler();
+		boolean stats = false;
+		Path cacheDir = null;
+		int i = 0;
+		for ( ; argv[i].startsWith("-"); i++ )
+			if ( argv[i].equals("-compact") )
+				c.compactTree = true;
+			else if ( argv[i].equals("-stats") )
+				stats = true;
+			else if ( argv[i].equals("-cache") )
+				cacheDir = Paths.get(argv[++i]);
+		if ( cacheDir != null && ! stats )
+			new CompilationCache(cacheDir, 0).run( "compile", c.compactTree, argv[i], argv[i+1] );
+		else if ( c.compile( argv[i], argv[i+1] ) && stats )
+			System.out.print( c.peepholeStats.report() );
 	}
 }